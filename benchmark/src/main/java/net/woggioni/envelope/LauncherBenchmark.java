@@ -0,0 +1,57 @@
+package net.woggioni.envelope;
+
+import net.woggioni.envelope.benchmark.SyntheticEnvelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the table of contents of the libraries by the launcher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LauncherBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int libraries;
+
+    private File envelope;
+
+    private URL libraryTocResource;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        envelope = new SyntheticEnvelope(libraries, 1, 0.0, false, false).writeTemporary();
+        libraryTocResource = new URL("jar:" + envelope.toURI() + "!/" + Constants.LIBRARIES_TOC);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        envelope.delete();
+    }
+
+    @Benchmark
+    public List<String> readLibraries() {
+        return Launcher.readLibraries(libraryTocResource);
+    }
+}
@@ -0,0 +1,105 @@
+package net.woggioni.envelope.benchmark;
+
+import lombok.SneakyThrows;
+import net.woggioni.envelope.Constants;
+import net.woggioni.envelope.loader.EnvelopeClassLoader;
+import net.woggioni.envelope.loader.JarFile;
+import net.woggioni.envelope.loader.JarFileModuleFinder;
+import net.woggioni.envelope.loader.ModuleClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.module.ModuleReference;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLStreamHandler;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Definition of all the classes of a library by a new class loader, reported per class.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClassLoadingBenchmark {
+
+    private static final int CLASSES = 200;
+
+    @Param({"0.0", "1.0"})
+    private double compressedRatio;
+
+    private File envelope;
+
+    private JarFile root;
+
+    private JarFile library;
+
+    private ModuleReference moduleReference;
+
+    private URLStreamHandler streamHandler;
+
+    private String[] classNames;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        envelope = new SyntheticEnvelope(1, CLASSES, compressedRatio, false, true).writeTemporary();
+        root = new JarFile(envelope);
+        library = root.getNestedJarFile(root.getJarEntry(Constants.LIBRARIES_FOLDER + '/' + SyntheticEnvelope.libraryName(0)));
+        JarFileModuleFinder moduleFinder = new JarFileModuleFinder(library);
+        String moduleName = SyntheticEnvelope.moduleName(0);
+        moduleReference = moduleFinder.find(moduleName).orElseThrow(IllegalStateException::new);
+        streamHandler = moduleFinder.getStreamHandlerForModule(moduleName);
+        classNames = new String[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            classNames[i] = SyntheticEnvelope.className(0, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        root.close();
+        envelope.delete();
+    }
+
+    @SneakyThrows
+    private URL toUrl(URI uri) {
+        return new URL(null, uri.toString(), streamHandler);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASSES)
+    public void moduleClassLoader(Blackhole blackhole) throws ClassNotFoundException {
+        ClassLoader classLoader = new ModuleClassLoader(Collections.emptyMap(), moduleReference, this::toUrl);
+        for (String className : classNames) {
+            blackhole.consume(classLoader.loadClass(className));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASSES)
+    public void envelopeClassLoader(Blackhole blackhole) throws ClassNotFoundException {
+        ClassLoader classLoader = new EnvelopeClassLoader(Collections.singletonList(library), null);
+        for (String className : classNames) {
+            blackhole.consume(classLoader.loadClass(className));
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package net.woggioni.envelope.benchmark;
+
+import lombok.SneakyThrows;
+import net.woggioni.envelope.Constants;
+import net.woggioni.envelope.loader.EnvelopeClassLoader;
+import net.woggioni.envelope.loader.JarFile;
+import net.woggioni.envelope.loader.JarFileModuleFinder;
+import net.woggioni.envelope.loader.ModuleClassLoader;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.lang.module.ResolvedModule;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Stress test of the envelope class loaders under concurrent access.
+ * <p>
+ * A synthetic envelope with many libraries is opened once; for every combination of class loader
+ * (classpath or module layer), thread kind (platform or virtual, the latter only on Java 21+) and number
+ * of threads, from 1 up to the requested maximum by powers of two, new class loaders are created and all
+ * the threads load every class and read every class file as a resource, each in its own random order.
+ * <p>
+ * The throughput of each scenario is reported together with the monitor contention recorded by JFR
+ * ({@code jdk.JavaMonitorEnter} and {@code jdk.VirtualThreadPinned} events, aggregated by monitor class
+ * and acquiring frame). The run fails if any thread observes a class instance different from the
+ * other threads, a duplicate class definition or any other error, such as a read from a closed file.
+ * <p>
+ * Usage: {@code ClassLoadingStress <report directory> <max threads> <rounds>}
+ */
+public final class ClassLoadingStress {
+
+    private static final int LIBRARIES = 50;
+
+    private static final int ENTRIES_PER_LIBRARY = 100;
+
+    private static final double COMPRESSED_RATIO = 0.5;
+
+    private static final int TOP_CONTENDED_SITES = 5;
+
+    private static final int VIRTUAL_THREADS_VERSION = 21;
+
+    private static final List<String> CONTENTION_EVENTS =
+            Arrays.asList("jdk.JavaMonitorEnter", "jdk.VirtualThreadPinned");
+
+    /**
+     * The loader events are enabled by default, they are disabled so that they don't add to the measured contention
+     */
+    private static final List<String> LOADER_EVENTS = Arrays.asList(
+            "net.woggioni.envelope.NestedJarOpen",
+            "net.woggioni.envelope.ClassDefine",
+            "net.woggioni.envelope.FileRead",
+            "net.woggioni.envelope.EntryCacheStatistics");
+
+    private enum LoaderKind {
+        CLASSPATH, MODULE
+    }
+
+    private enum ThreadKind {
+        PLATFORM, VIRTUAL
+    }
+
+    private static final class Failures {
+        private final ConcurrentLinkedQueue<String> inconsistentClasses = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<String> duplicateDefinitions = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<String> closedFiles = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+        private int total() {
+            return inconsistentClasses.size() + duplicateDefinitions.size() + closedFiles.size() + errors.size();
+        }
+    }
+
+    private static final class ContentionSite {
+        private long events;
+        private long nanos;
+    }
+
+    private final JarFile[] libraries;
+
+    private final String[] classNames;
+
+    private final String[] resourceNames;
+
+    private final int[] libraryOfClass;
+
+    private final JarFileModuleFinder moduleFinder;
+
+    private final Configuration configuration;
+
+    private ClassLoadingStress(JarFile root) throws IOException {
+        libraries = new JarFile[LIBRARIES];
+        for (int i = 0; i < LIBRARIES; i++) {
+            libraries[i] = root.getNestedJarFile(
+                    root.getJarEntry(Constants.LIBRARIES_FOLDER + '/' + SyntheticEnvelope.libraryName(i)));
+        }
+        int classes = LIBRARIES * ENTRIES_PER_LIBRARY;
+        classNames = new String[classes];
+        resourceNames = new String[classes];
+        libraryOfClass = new int[classes];
+        for (int i = 0; i < LIBRARIES; i++) {
+            for (int j = 0; j < ENTRIES_PER_LIBRARY; j++) {
+                int index = i * ENTRIES_PER_LIBRARY + j;
+                classNames[index] = SyntheticEnvelope.className(i, j);
+                resourceNames[index] = SyntheticEnvelope.entryName(i, j);
+                libraryOfClass[index] = i;
+            }
+        }
+        moduleFinder = new JarFileModuleFinder(Arrays.asList(libraries));
+        List<String> moduleNames = moduleFinder.findAll().stream()
+                .map(moduleReference -> moduleReference.descriptor().name())
+                .collect(Collectors.toList());
+        configuration = ModuleLayer.boot().configuration().resolve(moduleFinder, ModuleFinder.of(), moduleNames);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: ClassLoadingStress <report directory> <max threads> <rounds>");
+            System.exit(1);
+        }
+        Path reportDir = Paths.get(args[0]);
+        int maxThreads = Integer.parseInt(args[1]);
+        int rounds = Integer.parseInt(args[2]);
+        Files.createDirectories(reportDir);
+
+        List<ThreadKind> threadKinds = new ArrayList<>();
+        threadKinds.add(ThreadKind.PLATFORM);
+        if (Runtime.version().feature() >= VIRTUAL_THREADS_VERSION) {
+            threadKinds.add(ThreadKind.VIRTUAL);
+        } else {
+            System.out.println("Virtual threads are not available in this JVM, only platform threads are tested");
+        }
+
+        File envelope = new SyntheticEnvelope(LIBRARIES, ENTRIES_PER_LIBRARY, COMPRESSED_RATIO, false, true)
+                .writeTemporary();
+        Failures failures = new Failures();
+        StringBuilder results = new StringBuilder();
+        try (JarFile root = new JarFile(envelope)) {
+            ClassLoadingStress stress = new ClassLoadingStress(root);
+            for (LoaderKind loaderKind : LoaderKind.values()) {
+                for (ThreadKind threadKind : threadKinds) {
+                    for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+                        String scenario = String.format(Locale.ROOT, "%s-%s-%d",
+                                loaderKind.name().toLowerCase(Locale.ROOT),
+                                threadKind.name().toLowerCase(Locale.ROOT), threads);
+                        Path recordingFile = reportDir.resolve(scenario + ".jfr");
+                        double[] throughput = new double[rounds];
+                        try (Recording recording = new Recording()) {
+                            for (String event : CONTENTION_EVENTS) {
+                                recording.enable(event).withThreshold(Duration.ZERO).withStackTrace();
+                            }
+                            for (String event : LOADER_EVENTS) {
+                                recording.disable(event);
+                            }
+                            recording.start();
+                            for (int round = 0; round < rounds; round++) {
+                                throughput[round] = stress.run(loaderKind, threadKind, threads, failures);
+                            }
+                            recording.stop();
+                            recording.dump(recordingFile);
+                        }
+                        Map<String, ContentionSite> contention = contention(recordingFile);
+                        long contendedEvents = contention.values().stream().mapToLong(site -> site.events).sum();
+                        long contendedNanos = contention.values().stream().mapToLong(site -> site.nanos).sum();
+                        System.out.printf(Locale.ROOT,
+                                "%-24s %12.0f ops/s, %8d contended monitor enters, %10.3f ms blocked%n",
+                                scenario, median(throughput), contendedEvents, contendedNanos / 1e6);
+                        if (results.length() > 0) {
+                            results.append(",\n");
+                        }
+                        appendResult(results, loaderKind, threadKind, threads, throughput, contention,
+                                recordingFile);
+                    }
+                }
+            }
+        } finally {
+            envelope.delete();
+        }
+
+        try (Writer writer = Files.newBufferedWriter(reportDir.resolve("results.json"), StandardCharsets.UTF_8)) {
+            writer.write(String.format(Locale.ROOT,
+                    "{\n  \"javaVersion\": \"%s\",\n  \"availableProcessors\": %d,\n  \"classes\": %d,\n" +
+                            "  \"rounds\": %d,\n  \"failures\": %d,\n  \"results\": [\n%s\n  ]\n}\n",
+                    System.getProperty("java.version"), Runtime.getRuntime().availableProcessors(),
+                    LIBRARIES * ENTRIES_PER_LIBRARY, rounds, failures.total(), results));
+        }
+        if (failures.total() > 0) {
+            report("Inconsistent classes", failures.inconsistentClasses);
+            report("Duplicate class definitions", failures.duplicateDefinitions);
+            report("Closed file errors", failures.closedFiles);
+            report("Other errors", failures.errors);
+            System.exit(1);
+        }
+    }
+
+    private static int nextThreadCount(int threads, int maxThreads) {
+        return threads < maxThreads && threads * 2 > maxThreads ? maxThreads : threads * 2;
+    }
+
+    /**
+     * Load every class and read every class file from the given number of threads
+     * @return the throughput, in operations per second
+     */
+    private double run(LoaderKind loaderKind, ThreadKind threadKind, int threads, Failures failures)
+            throws Exception {
+        ClassLoader[] loaders = createClassLoaders(loaderKind);
+        Class<?>[][] observed = new Class<?>[threads][];
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = threadKind == ThreadKind.VIRTUAL ?
+                newVirtualThreadExecutor() : Executors.newFixedThreadPool(threads);
+        long elapsed;
+        try {
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    int[] order = shuffledIndexes(thread);
+                    ready.countDown();
+                    start.await();
+                    observed[thread] = hammer(loaders, order, failures);
+                    return null;
+                }));
+            }
+            ready.await();
+            long startTime = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            elapsed = System.nanoTime() - startTime;
+        } finally {
+            executor.shutdown();
+        }
+        checkConsistency(loaders, observed, failures);
+        return (double) threads * classNames.length * 1e9 / elapsed;
+    }
+
+    private Class<?>[] hammer(ClassLoader[] loaders, int[] order, Failures failures) {
+        Class<?>[] result = new Class<?>[classNames.length];
+        byte[] buffer = new byte[Constants.BUFFER_SIZE];
+        for (int index : order) {
+            ClassLoader loader = loaders[libraryOfClass[index]];
+            try {
+                result[index] = loader.loadClass(classNames[index]);
+                URL resource = loader.getResource(resourceNames[index]);
+                if (resource == null) {
+                    failures.errors.add(String.format("Resource '%s' not found", resourceNames[index]));
+                    continue;
+                }
+                try (InputStream inputStream = resource.openStream()) {
+                    while (inputStream.read(buffer) >= 0) {
+                    }
+                }
+            } catch (LinkageError le) {
+                failures.duplicateDefinitions.add(classNames[index] + ": " + le);
+            } catch (Exception e) {
+                String message = String.valueOf(e.getMessage()).toLowerCase(Locale.ROOT);
+                if (message.contains("closed")) {
+                    failures.closedFiles.add(classNames[index] + ": " + e);
+                } else {
+                    failures.errors.add(classNames[index] + ": " + e);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void checkConsistency(ClassLoader[] loaders, Class<?>[][] observed, Failures failures) {
+        for (int index = 0; index < classNames.length; index++) {
+            Class<?> expected = observed[0][index];
+            for (Class<?>[] classes : observed) {
+                Class<?> cls = classes[index];
+                if (cls != null && (cls != expected || cls.getClassLoader() != loaders[libraryOfClass[index]])) {
+                    failures.inconsistentClasses.add(classNames[index]);
+                    break;
+                }
+            }
+        }
+    }
+
+    private int[] shuffledIndexes(int seed) {
+        int[] result = new int[classNames.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = result.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = result[i];
+            result[i] = result[j];
+            result[j] = tmp;
+        }
+        return result;
+    }
+
+    /**
+     * @return the class loader of each library, the same class loader for all of them in classpath mode
+     */
+    private ClassLoader[] createClassLoaders(LoaderKind loaderKind) {
+        ClassLoader[] result = new ClassLoader[LIBRARIES];
+        if (loaderKind == LoaderKind.CLASSPATH) {
+            Arrays.fill(result, new EnvelopeClassLoader(Arrays.asList(libraries),
+                    ClassLoader.getSystemClassLoader().getParent()));
+        } else {
+            Map<String, ClassLoader> packageMap = new TreeMap<>();
+            ModuleLayer layer = ModuleLayer.defineModules(configuration,
+                    Collections.singletonList(ModuleLayer.boot()), moduleName -> {
+                        ModuleReference moduleReference = configuration.findModule(moduleName)
+                                .map(ResolvedModule::reference)
+                                .orElseThrow(IllegalStateException::new);
+                        URLStreamHandler streamHandler = moduleFinder.getStreamHandlerForModule(moduleName);
+                        ClassLoader classLoader = new ModuleClassLoader(Collections.unmodifiableMap(packageMap),
+                                moduleReference, uri -> toUrl(uri, streamHandler));
+                        for (String packageName : moduleReference.descriptor().packages()) {
+                            packageMap.put(packageName, classLoader);
+                        }
+                        return classLoader;
+                    }).layer();
+            for (int i = 0; i < LIBRARIES; i++) {
+                result[i] = layer.findLoader(SyntheticEnvelope.moduleName(i));
+            }
+        }
+        return result;
+    }
+
+    @SneakyThrows
+    private static URL toUrl(URI uri, URLStreamHandler streamHandler) {
+        return new URL(null, uri.toString(), streamHandler);
+    }
+
+    /**
+     * @return an executor running each task in a new virtual thread, only available since
+     * {@link #VIRTUAL_THREADS_VERSION}
+     */
+    @SneakyThrows
+    private static ExecutorService newVirtualThreadExecutor() {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+
+    /**
+     * Aggregate the contention events of a recording by monitor class and acquiring frame
+     */
+    private static Map<String, ContentionSite> contention(Path recordingFile) throws IOException {
+        Map<String, ContentionSite> result = new HashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+            if (!CONTENTION_EVENTS.contains(event.getEventType().getName())) {
+                continue;
+            }
+            String monitorClass = event.hasField("monitorClass") && event.getClass("monitorClass") != null ?
+                    event.getClass("monitorClass").getName() : event.getEventType().getName();
+            RecordedStackTrace stackTrace = event.getStackTrace();
+            String frame = "<unknown>";
+            if (stackTrace != null && !stackTrace.getFrames().isEmpty()) {
+                RecordedFrame top = stackTrace.getFrames().get(0);
+                frame = top.getMethod().getType().getName() + '.' + top.getMethod().getName() +
+                        ':' + top.getLineNumber();
+            }
+            ContentionSite site = result.computeIfAbsent(monitorClass + " @ " + frame, key -> new ContentionSite());
+            site.events++;
+            site.nanos += event.getDuration().toNanos();
+        }
+        return result;
+    }
+
+    private static void appendResult(StringBuilder sb, LoaderKind loaderKind, ThreadKind threadKind, int threads,
+                                     double[] throughput, Map<String, ContentionSite> contention, Path recordingFile) {
+        String sites = contention.entrySet().stream()
+                .sorted((e1, e2) -> Long.compare(e2.getValue().nanos, e1.getValue().nanos))
+                .limit(TOP_CONTENDED_SITES)
+                .map(entry -> String.format(Locale.ROOT, "{\"site\": \"%s\", \"events\": %d, \"blockedMs\": %.3f}",
+                        entry.getKey().replace("\\", "\\\\").replace("\"", "\\\""),
+                        entry.getValue().events, entry.getValue().nanos / 1e6))
+                .collect(Collectors.joining(", "));
+        sb.append(String.format(Locale.ROOT, "    {\"classLoader\": \"%s\", \"threads\": \"%s\", \"threadCount\": %d, " +
+                        "\"opsPerSecond\": {\"median\": %.1f, \"min\": %.1f, \"max\": %.1f}, " +
+                        "\"contendedMonitorEnters\": %d, \"blockedMs\": %.3f, \"topContendedSites\": [%s], " +
+                        "\"recording\": \"%s\"}",
+                loaderKind.name().toLowerCase(Locale.ROOT), threadKind.name().toLowerCase(Locale.ROOT), threads,
+                median(throughput), Arrays.stream(throughput).min().orElse(Double.NaN),
+                Arrays.stream(throughput).max().orElse(Double.NaN),
+                contention.values().stream().mapToLong(site -> site.events).sum(),
+                contention.values().stream().mapToLong(site -> site.nanos).sum() / 1e6,
+                sites, recordingFile.getFileName()));
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    private static void report(String title, ConcurrentLinkedQueue<String> failures) {
+        if (!failures.isEmpty()) {
+            System.err.printf("%s: %d%n", title, failures.size());
+            failures.stream().limit(10).forEach(failure -> System.err.println("    " + failure));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package net.woggioni.envelope.benchmark;
+
+import net.woggioni.envelope.Constants;
+import net.woggioni.envelope.loader.JarFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+/**
+ * Entry lookups and entry reads on a single nested library.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JarFileBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int entries;
+
+    @Param({"0.0", "1.0"})
+    private double compressedRatio;
+
+    @Param({"false", "true"})
+    private boolean multiRelease;
+
+    private File envelope;
+
+    private JarFile root;
+
+    private JarFile library;
+
+    private String[] existingNames;
+
+    private String[] missingNames;
+
+    private ZipEntry[] zipEntries;
+
+    private final byte[] buffer = new byte[0x2000];
+
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        envelope = new SyntheticEnvelope(1, entries, compressedRatio, multiRelease, true).writeTemporary();
+        root = new JarFile(envelope);
+        library = root.getNestedJarFile(root.getJarEntry(Constants.LIBRARIES_FOLDER + '/' + SyntheticEnvelope.libraryName(0)));
+        existingNames = new String[entries];
+        missingNames = new String[entries];
+        zipEntries = new ZipEntry[entries];
+        for (int i = 0; i < entries; i++) {
+            existingNames[i] = SyntheticEnvelope.entryName(0, i);
+            missingNames[i] = existingNames[i].replace(".class", "Missing.class");
+            zipEntries[i] = library.getEntry(existingNames[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        root.close();
+        envelope.delete();
+    }
+
+    private int next() {
+        int result = cursor;
+        cursor = (result + 1 == entries) ? 0 : result + 1;
+        return result;
+    }
+
+    @Benchmark
+    public ZipEntry getEntryHit() {
+        return library.getEntry(existingNames[next()]);
+    }
+
+    @Benchmark
+    public ZipEntry getEntryMiss() {
+        return library.getEntry(missingNames[next()]);
+    }
+
+    @Benchmark
+    public long getInputStream() throws IOException {
+        long total = 0;
+        try (InputStream inputStream = library.getInputStream(zipEntries[next()])) {
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
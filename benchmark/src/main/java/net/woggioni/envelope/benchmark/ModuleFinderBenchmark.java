@@ -0,0 +1,81 @@
+package net.woggioni.envelope.benchmark;
+
+import net.woggioni.envelope.Constants;
+import net.woggioni.envelope.loader.JarFile;
+import net.woggioni.envelope.loader.JarFileModuleFinder;
+import net.woggioni.envelope.loader.ModuleMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of the module finder of a JPMS mode application, with and without the module metadata
+ * computed at build time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ModuleFinderBenchmark {
+
+    @Param({"10", "100"})
+    private int libraries;
+
+    @Param({"500"})
+    private int entries;
+
+    @Param({"false", "true"})
+    private boolean multiRelease;
+
+    @Param({"false", "true"})
+    private boolean metadata;
+
+    private File envelope;
+
+    private JarFile root;
+
+    private List<JarFile> jarFiles;
+
+    private ModuleMetadata moduleMetadata;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        SyntheticEnvelope syntheticEnvelope = new SyntheticEnvelope(libraries, entries, 0.5, multiRelease, metadata);
+        envelope = syntheticEnvelope.writeTemporary();
+        root = new JarFile(envelope);
+        jarFiles = new ArrayList<>();
+        for (String name : syntheticEnvelope.getLibraryNames()) {
+            jarFiles.add(root.getNestedJarFile(root.getJarEntry(Constants.LIBRARIES_FOLDER + '/' + name)));
+        }
+        moduleMetadata = ModuleMetadata.read(root);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        root.close();
+        envelope.delete();
+    }
+
+    @Benchmark
+    public JarFileModuleFinder jarFileModuleFinder() {
+        return new JarFileModuleFinder(jarFiles, moduleMetadata, Runnable::run);
+    }
+}
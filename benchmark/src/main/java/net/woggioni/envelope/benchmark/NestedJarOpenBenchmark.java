@@ -0,0 +1,71 @@
+package net.woggioni.envelope.benchmark;
+
+import net.woggioni.envelope.Constants;
+import net.woggioni.envelope.loader.JarFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening all the libraries nested in an envelope jar, with and without the library index.
+ * Nested jars are cached by their parent, so each invocation opens the envelope jar again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NestedJarOpenBenchmark {
+
+    @Param({"10", "100"})
+    private int libraries;
+
+    @Param({"500"})
+    private int entries;
+
+    @Param({"false", "true"})
+    private boolean indexed;
+
+    private File envelope;
+
+    private String[] libraryEntries;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        SyntheticEnvelope syntheticEnvelope = new SyntheticEnvelope(libraries, entries, 0.5, false, indexed);
+        envelope = syntheticEnvelope.writeTemporary();
+        libraryEntries = syntheticEnvelope.getLibraryNames().stream()
+                .map(name -> Constants.LIBRARIES_FOLDER + '/' + name)
+                .toArray(String[]::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        envelope.delete();
+    }
+
+    @Benchmark
+    public void getNestedJarFile(Blackhole blackhole) throws IOException {
+        try (JarFile root = new JarFile(envelope)) {
+            for (String libraryEntry : libraryEntries) {
+                blackhole.consume(root.getNestedJarFile(root.getJarEntry(libraryEntry)));
+            }
+        }
+    }
+}
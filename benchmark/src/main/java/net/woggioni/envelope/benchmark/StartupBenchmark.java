@@ -0,0 +1,294 @@
+package net.woggioni.envelope.benchmark;
+
+import org.gradle.testkit.runner.GradleRunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end startup benchmark comparing envelope jars against plain {@code java -cp} and {@code java -p}
+ * launches of the same application.
+ * <p>
+ * For each requested number of libraries a Gradle build with a classpath and a JPMS subproject,
+ * modelled on the plugin test project, is generated and built with the plugin under test;
+ * the application loads one class from every library, prints a line and then waits for its standard input
+ * to be closed. Each variant is forked {@code runs + 1} times: the first run, the only one reading the freshly
+ * built jars, is reported on its own and the others as warm. The page cache is not dropped, so the first run
+ * is not a cold start either. The time to main is measured from the process creation to the line being printed,
+ * the peak resident set size is read from {@code /proc/<pid>/status} before the process is released
+ * and is reported as {@code -1} where procfs is not available.
+ * <p>
+ * Usage: {@code StartupBenchmark <work directory> <result file> <comma separated library counts> <runs>}
+ */
+public final class StartupBenchmark {
+
+    private static final int ENTRIES_PER_LIBRARY = 40;
+
+    private static final double COMPRESSED_RATIO = 0.9;
+
+    private static final String MAIN_MODULE = "app";
+
+    private static final String MAIN_CLASS = "app.Main";
+
+    private static final String READY = "ready";
+
+    private enum Variant {
+        ENVELOPE_CLASSPATH("envelope-classpath", "legacy"),
+        ENVELOPE_JPMS("envelope-jpms", "jpms"),
+        CLASSPATH("classpath", "legacy"),
+        MODULE_PATH("module-path", "jpms");
+
+        private final String label;
+
+        private final String subproject;
+
+        Variant(String label, String subproject) {
+            this.label = label;
+            this.subproject = subproject;
+        }
+    }
+
+    private static final class Sample {
+        private final double timeToMain;
+        private final long peakRss;
+
+        private Sample(double timeToMain, long peakRss) {
+            this.timeToMain = timeToMain;
+            this.peakRss = peakRss;
+        }
+    }
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: StartupBenchmark <work directory> <result file> <library counts> <runs>");
+            System.exit(1);
+        }
+        Path workDir = Paths.get(args[0]);
+        Path resultFile = Paths.get(args[1]);
+        List<Integer> libraryCounts = Arrays.stream(args[2].split(","))
+                .map(String::trim)
+                .map(Integer::valueOf)
+                .collect(Collectors.toList());
+        int runs = Integer.parseInt(args[3]);
+        if (runs < 1) {
+            System.err.println("The number of runs must be at least 1");
+            System.exit(1);
+        }
+
+        StringBuilder results = new StringBuilder();
+        for (int libraries : libraryCounts) {
+            Path projectDir = workDir.resolve("libraries-" + libraries);
+            generateProject(projectDir, libraries);
+            GradleRunner.create()
+                    .withProjectDir(projectDir.toFile())
+                    .withTestKitDir(workDir.resolve("testkit").toFile())
+                    .withArguments("jar", "envelopeJar", "--stacktrace")
+                    .withPluginClasspath()
+                    .forwardOutput()
+                    .build();
+            for (Variant variant : Variant.values()) {
+                List<Sample> samples = new ArrayList<>(runs + 1);
+                for (int i = 0; i <= runs; i++) {
+                    samples.add(launch(command(projectDir, variant)));
+                }
+                if (results.length() > 0) {
+                    results.append(",\n");
+                }
+                appendResult(results, libraries, variant, samples);
+                Sample first = samples.get(0);
+                List<Sample> warm = samples.subList(1, samples.size());
+                System.out.printf(Locale.ROOT, "%5d libraries %-20s first %8.1f ms, warm %8.1f ms, peak RSS %d kB%n",
+                        libraries, variant.label, first.timeToMain,
+                        median(warm.stream().mapToDouble(s -> s.timeToMain).toArray()),
+                        first.peakRss < 0 ? -1 : first.peakRss / 1024);
+            }
+        }
+        Files.createDirectories(resultFile.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(resultFile, StandardCharsets.UTF_8)) {
+            writer.write(String.format(Locale.ROOT,
+                    "{\n  \"javaVersion\": \"%s\",\n  \"os\": \"%s %s\",\n  \"runs\": %d,\n  \"results\": [\n%s\n  ]\n}\n",
+                    System.getProperty("java.version"), System.getProperty("os.name"),
+                    System.getProperty("os.arch"), runs, results));
+        }
+    }
+
+    private static void generateProject(Path projectDir, int libraries) throws IOException {
+        Path libsDir = projectDir.resolve("libs");
+        Files.createDirectories(libsDir);
+        new SyntheticEnvelope(libraries, ENTRIES_PER_LIBRARY, COMPRESSED_RATIO, false, false)
+                .writeLibraries(libsDir.toFile());
+        write(projectDir.resolve("settings.gradle"), "include 'legacy', 'jpms'\n");
+
+        StringBuilder mainClass = new StringBuilder()
+                .append("package app;\n\n")
+                .append("public class Main {\n")
+                .append("    private static final String[] CLASSES = {\n");
+        for (int i = 0; i < libraries; i++) {
+            mainClass.append("        \"").append(SyntheticEnvelope.className(i, 0)).append("\",\n");
+        }
+        mainClass.append("    };\n\n")
+                .append("    public static void main(String[] args) throws Exception {\n")
+                .append("        for (String className : CLASSES) {\n")
+                .append("            Class.forName(className);\n")
+                .append("        }\n")
+                .append("        System.out.println(\"").append(READY).append("\");\n")
+                .append("        System.out.flush();\n")
+                .append("        while (System.in.read() >= 0) {\n")
+                .append("        }\n")
+                .append("    }\n")
+                .append("}\n");
+
+        StringBuilder moduleInfo = new StringBuilder("module ").append(MAIN_MODULE).append(" {\n");
+        for (int i = 0; i < libraries; i++) {
+            moduleInfo.append("    requires ").append(SyntheticEnvelope.moduleName(i)).append(";\n");
+        }
+        moduleInfo.append("}\n");
+
+        for (Variant variant : new Variant[] {Variant.ENVELOPE_CLASSPATH, Variant.ENVELOPE_JPMS}) {
+            boolean jpms = variant == Variant.ENVELOPE_JPMS;
+            Path subprojectDir = projectDir.resolve(variant.subproject);
+            Path sourceDir = subprojectDir.resolve("src/main/java");
+            write(subprojectDir.resolve("build.gradle"), "plugins {\n" +
+                    "    id 'java-library'\n" +
+                    "    id 'net.woggioni.gradle.envelope'\n" +
+                    "}\n\n" +
+                    "dependencies {\n" +
+                    "    implementation fileTree(dir: rootProject.file('libs'), include: '*.jar')\n" +
+                    "}\n\n" +
+                    "jar {\n" +
+                    "    archiveFileName = 'app.jar'\n" +
+                    "}\n\n" +
+                    "envelopeJar {\n" +
+                    "    archiveFileName = 'app-envelope.jar'\n" +
+                    "    destinationDirectory = layout.buildDirectory.dir('libs')\n" +
+                    "    mainClass = '" + MAIN_CLASS + "'\n" +
+                    (jpms ? "    mainModule = '" + MAIN_MODULE + "'\n" : "") +
+                    "}\n");
+            write(sourceDir.resolve("app/Main.java"), mainClass.toString());
+            if (jpms) {
+                write(sourceDir.resolve("module-info.java"), moduleInfo.toString());
+            }
+        }
+    }
+
+    private static List<String> command(Path projectDir, Variant variant) {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Path libsDir = projectDir.resolve("libs");
+        Path buildLibsDir = projectDir.resolve(variant.subproject).resolve("build/libs");
+        switch (variant) {
+            case ENVELOPE_CLASSPATH:
+            case ENVELOPE_JPMS:
+                return Arrays.asList(java, "-jar", buildLibsDir.resolve("app-envelope.jar").toString());
+            case CLASSPATH:
+                return Arrays.asList(java, "-cp",
+                        buildLibsDir.resolve("app.jar") + File.pathSeparator + libsDir.resolve("*"), MAIN_CLASS);
+            case MODULE_PATH:
+                return Arrays.asList(java, "-p",
+                        buildLibsDir.resolve("app.jar") + File.pathSeparator + libsDir,
+                        "-m", MAIN_MODULE + '/' + MAIN_CLASS);
+            default:
+                throw new IllegalArgumentException(variant.toString());
+        }
+    }
+
+    private static Sample launch(List<String> command) throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+        long start = System.nanoTime();
+        Process process = processBuilder.start();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null && !READY.equals(line)) {
+            }
+            double timeToMain = (System.nanoTime() - start) / 1e6;
+            if (line == null) {
+                throw new IllegalStateException(String.format("'%s' exited with code %d before reaching main",
+                        String.join(" ", command), process.waitFor()));
+            }
+            long peakRss = peakRss(process.pid());
+            try (OutputStream stdin = process.getOutputStream()) {
+                // Closing the standard input lets the application exit
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IllegalStateException(String.format("'%s' exited with code %d",
+                        String.join(" ", command), exitCode));
+            }
+            return new Sample(timeToMain, peakRss);
+        } finally {
+            process.destroy();
+        }
+    }
+
+    private static long peakRss(long pid) throws IOException {
+        Path status = Paths.get("/proc", Long.toString(pid), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+            if (line.startsWith("VmHWM:")) {
+                String[] fields = line.substring("VmHWM:".length()).trim().split("\\s+");
+                return Long.parseLong(fields[0]) * 1024;
+            }
+        }
+        return -1;
+    }
+
+    private static void appendResult(StringBuilder sb, int libraries, Variant variant, List<Sample> samples) {
+        Sample first = samples.get(0);
+        List<Sample> warm = samples.subList(1, samples.size());
+        double[] warmTimes = warm.stream().mapToDouble(s -> s.timeToMain).toArray();
+        double[] warmRss = warm.stream().mapToDouble(s -> s.peakRss).toArray();
+        sb.append(String.format(Locale.ROOT, "    {\"libraries\": %d, \"variant\": \"%s\", " +
+                        "\"first\": {\"timeToMainMs\": %.3f, \"peakRssBytes\": %d}, " +
+                        "\"warm\": {\"timeToMainMs\": {\"median\": %.3f, \"min\": %.3f, \"max\": %.3f}, " +
+                        "\"peakRssBytes\": {\"median\": %d, \"min\": %d, \"max\": %d}}, " +
+                        "\"samples\": [%s]}",
+                libraries, variant.label, first.timeToMain, first.peakRss,
+                median(warmTimes), min(warmTimes), max(warmTimes),
+                (long) median(warmRss), (long) min(warmRss), (long) max(warmRss),
+                samples.stream()
+                        .map(s -> String.format(Locale.ROOT, "{\"timeToMainMs\": %.3f, \"peakRssBytes\": %d}",
+                                s.timeToMain, s.peakRss))
+                        .collect(Collectors.joining(", "))));
+    }
+
+    private static double median(double[] values) {
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    private static double min(double[] values) {
+        return Arrays.stream(values).min().orElse(Double.NaN);
+    }
+
+    private static double max(double[] values) {
+        return Arrays.stream(values).max().orElse(Double.NaN);
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
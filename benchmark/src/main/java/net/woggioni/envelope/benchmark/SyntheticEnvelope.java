@@ -0,0 +1,289 @@
+package net.woggioni.envelope.benchmark;
+
+import lombok.Getter;
+import net.woggioni.envelope.Constants;
+import net.woggioni.envelope.loader.LibraryIndex;
+import net.woggioni.envelope.loader.ModuleMetadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates an envelope jar with the same layout as the ones created by the plugin, holding synthetic
+ * libraries made of empty classes padded to a realistic size.
+ * <p>
+ * Library {@code i} is named {@code lib<i>.jar} and its automatic module name is {@code lib<i>},
+ * and contains the classes {@code synthetic.lib<i>.p<k>.C<j>}, {@value #CLASSES_PER_PACKAGE} per package.
+ * A share of the classes is deflated, the rest is stored; multi-release libraries also hold a
+ * Java 11 version of one class out of ten.
+ */
+public final class SyntheticEnvelope {
+
+    public static final int CLASSES_PER_PACKAGE = 20;
+
+    private static final int CLASS_SIZE = 2048;
+
+    private static final int MULTI_RELEASE_VERSION = 11;
+
+    private static final int MULTI_RELEASE_STRIDE = 10;
+
+    @Getter
+    private final int libraries;
+
+    @Getter
+    private final int entriesPerLibrary;
+
+    private final double compressedRatio;
+
+    private final boolean multiRelease;
+
+    private final boolean indexed;
+
+    /**
+     * @param libraries the number of libraries
+     * @param entriesPerLibrary the number of classes in each library
+     * @param compressedRatio the share of deflated classes, between 0 and 1
+     * @param multiRelease whether the libraries are multi-release jars
+     * @param indexed whether to write the library index and the module metadata of the libraries
+     */
+    public SyntheticEnvelope(int libraries, int entriesPerLibrary, double compressedRatio,
+                             boolean multiRelease, boolean indexed) {
+        this.libraries = libraries;
+        this.entriesPerLibrary = entriesPerLibrary;
+        this.compressedRatio = compressedRatio;
+        this.multiRelease = multiRelease;
+        this.indexed = indexed;
+    }
+
+    public static String libraryName(int library) {
+        return String.format("lib%04d.jar", library);
+    }
+
+    public static String moduleName(int library) {
+        return String.format("lib%04d", library);
+    }
+
+    public static String className(int library, int entry) {
+        return String.format("synthetic.lib%04d.p%d.C%d", library, entry / CLASSES_PER_PACKAGE, entry);
+    }
+
+    public static String entryName(int library, int entry) {
+        return className(library, entry).replace('.', '/') + ".class";
+    }
+
+    /**
+     * @return the name of the libraries in the order they appear in the table of contents
+     */
+    public List<String> getLibraryNames() {
+        List<String> result = new ArrayList<>(libraries);
+        for (int i = 0; i < libraries; i++) {
+            result.add(libraryName(i));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Write the envelope jar
+     * @param destination the envelope jar file
+     * @throws IOException if the jar cannot be written
+     */
+    public void write(File destination) throws IOException {
+        Path workDir = Files.createTempDirectory("synthetic-envelope");
+        try {
+            writeEnvelope(destination, writeLibraries(workDir.toFile()));
+        } finally {
+            for (File file : workDir.toFile().listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(workDir);
+        }
+    }
+
+    /**
+     * Write the library jars without the envelope
+     * @param directory the directory where the libraries are written
+     * @return the library files, in order
+     * @throws IOException if the libraries cannot be written
+     */
+    public List<File> writeLibraries(File directory) throws IOException {
+        List<File> libraryFiles = new ArrayList<>(libraries);
+        for (int i = 0; i < libraries; i++) {
+            File libraryFile = new File(directory, libraryName(i));
+            writeLibrary(i, libraryFile);
+            libraryFiles.add(libraryFile);
+        }
+        return libraryFiles;
+    }
+
+    private void writeLibrary(int library, File destination) throws IOException {
+        Random random = new Random(library);
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Automatic-Module-Name", moduleName(library));
+        if (multiRelease) {
+            manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+        }
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(destination.toPath()))) {
+            zos.setLevel(Deflater.DEFAULT_COMPRESSION);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            manifest.write(baos);
+            writeEntry(zos, JarFile.MANIFEST_NAME, baos.toByteArray(), true);
+            int compressed = (int) Math.round(entriesPerLibrary * compressedRatio);
+            for (int entry = 0; entry < entriesPerLibrary; entry++) {
+                byte[] classFile = classFile(className(library, entry).replace('.', '/'), random);
+                writeEntry(zos, entryName(library, entry), classFile, entry < compressed);
+            }
+            if (multiRelease) {
+                for (int entry = 0; entry < entriesPerLibrary; entry += MULTI_RELEASE_STRIDE) {
+                    byte[] classFile = classFile(className(library, entry).replace('.', '/'), random);
+                    writeEntry(zos, "META-INF/versions/" + MULTI_RELEASE_VERSION + '/' + entryName(library, entry),
+                            classFile, entry < compressed);
+                }
+            }
+        }
+    }
+
+    private void writeEnvelope(File destination, List<File> libraryFiles) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Constants.DEFAULT_LAUNCHER);
+        manifest.getMainAttributes().putValue(Constants.ManifestAttributes.MAIN_CLASS, className(0, 0));
+        LibraryIndex.Writer libraryIndex = new LibraryIndex.Writer();
+        ModuleMetadata.Writer moduleMetadata = new ModuleMetadata.Writer();
+        for (File libraryFile : libraryFiles) {
+            String entryName = Constants.LIBRARIES_FOLDER + '/' + libraryFile.getName();
+            String digest = Base64.getEncoder().encodeToString(digest(libraryFile));
+            Attributes attributes = new Attributes();
+            attributes.putValue(Constants.ManifestAttributes.ENTRY_HASH, digest);
+            manifest.getEntries().put(entryName, attributes);
+            if (indexed) {
+                byte[] content = Files.readAllBytes(libraryFile.toPath());
+                libraryIndex.add(entryName, libraryFile, crc32(content), content.length);
+                moduleMetadata.add(entryName, libraryFile, digest);
+            }
+        }
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(destination.toPath()))) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            manifest.write(baos);
+            writeEntry(zos, JarFile.MANIFEST_NAME, baos.toByteArray(), true);
+            writeEntry(zos, Constants.LIBRARIES_TOC,
+                    String.join("/", getLibraryNames()).getBytes(StandardCharsets.UTF_8), true);
+            if (indexed) {
+                baos.reset();
+                libraryIndex.write(baos);
+                writeEntry(zos, LibraryIndex.ENTRY_NAME, baos.toByteArray(), false);
+                baos.reset();
+                moduleMetadata.write(baos);
+                writeEntry(zos, ModuleMetadata.ENTRY_NAME, baos.toByteArray(), true);
+            }
+            for (File libraryFile : libraryFiles) {
+                writeEntry(zos, Constants.LIBRARIES_FOLDER + '/' + libraryFile.getName(),
+                        Files.readAllBytes(libraryFile.toPath()), false);
+            }
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream zos, String name, byte[] content, boolean deflated)
+            throws IOException {
+        ZipEntry zipEntry = new ZipEntry(name);
+        if (deflated) {
+            zipEntry.setMethod(ZipEntry.DEFLATED);
+        } else {
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(content.length);
+            zipEntry.setCompressedSize(content.length);
+            zipEntry.setCrc(crc32(content));
+        }
+        zos.putNextEntry(zipEntry);
+        zos.write(content);
+        zos.closeEntry();
+    }
+
+    private static long crc32(byte[] content) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(content);
+        return crc32.getValue();
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[Constants.BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                md.update(buffer, 0, read);
+            }
+            return md.digest();
+        } catch (java.security.NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Create a Java 8 class file declaring an empty public class that extends {@link Object},
+     * padded with an attribute the JVM ignores to about {@value #CLASS_SIZE} bytes of compressible data
+     */
+    static byte[] classFile(String internalName, Random random) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(CLASS_SIZE + 128);
+        DataOutputStream output = new DataOutputStream(baos);
+        output.writeInt(0xCAFEBABE);
+        output.writeShort(0);
+        output.writeShort(52);
+        output.writeShort(6);
+        output.writeByte(7);
+        output.writeShort(2);
+        output.writeByte(1);
+        output.writeUTF(internalName);
+        output.writeByte(7);
+        output.writeShort(4);
+        output.writeByte(1);
+        output.writeUTF("java/lang/Object");
+        output.writeByte(1);
+        output.writeUTF("SyntheticPadding");
+        output.writeShort(0x21);
+        output.writeShort(1);
+        output.writeShort(3);
+        output.writeShort(0);
+        output.writeShort(0);
+        output.writeShort(0);
+        output.writeShort(1);
+        output.writeShort(5);
+        output.writeInt(CLASS_SIZE);
+        for (int i = 0; i < CLASS_SIZE; i++) {
+            output.writeByte('a' + random.nextInt(16));
+        }
+        output.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Write the envelope to a temporary file deleted when the JVM exits
+     * @return the envelope jar file
+     * @throws IOException if the jar cannot be written
+     */
+    public File writeTemporary() throws IOException {
+        File file = File.createTempFile("envelope", ".jar");
+        file.deleteOnExit();
+        write(file);
+        return file;
+    }
+}
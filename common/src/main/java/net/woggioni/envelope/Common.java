@@ -70,6 +70,35 @@ public class Common {
         zipEntry.setCrc(crc32.getValue());
     }
 
+    /**
+     * Compute the digest, the size and the CRC-32 of a stream reading it only once
+     * @param zipEntry the entry whose size, compressed size and CRC-32 are set
+     * @param inputStream the stream to read, it is not closed by this method
+     * @param md the digest algorithm, it is reset by {@link MessageDigest#digest()}
+     * @param buffer the buffer used to read the stream
+     * @return the digest of the stream content
+     */
+    @SneakyThrows
+    public static byte[] computeDigestSizeAndCrc32(
+            ZipEntry zipEntry,
+            InputStream inputStream,
+            MessageDigest md,
+            byte[] buffer) {
+        CRC32 crc32 = new CRC32();
+        long sz = 0L;
+        while (true) {
+            int read = inputStream.read(buffer);
+            if (read < 0) break;
+            sz += read;
+            crc32.update(buffer, 0, read);
+            md.update(buffer, 0, read);
+        }
+        zipEntry.setSize(sz);
+        zipEntry.setCompressedSize(sz);
+        zipEntry.setCrc(crc32.getValue());
+        return md.digest();
+    }
+
     @SneakyThrows
     public static void write2Stream(InputStream inputStream, OutputStream os,
                                     byte[] buffer) {
@@ -24,6 +24,7 @@ public class Constants {
         public static final String MAIN_CLASS = "Executable-Jar-Main-Class";
         public static final String EXTRA_CLASSPATH = "Executable-Jar-Extra-Classpath";
         public static final String ENTRY_HASH = "SHA-256-Digest";
+        public static final String MEMORY_MAPPED = "Executable-Jar-Memory-Mapped";
     }
 
     public static class JvmProperties {
@@ -31,6 +32,8 @@ public class Constants {
         public static final String MAIN_MODULE = PREFIX + "main.module";
         public static final String MAIN_CLASS = PREFIX + "main.class";
         public static final String EXTRA_CLASSPATH = PREFIX + "extra.classpath";
+        public static final String MEMORY_MAPPED = PREFIX + "memory.mapped";
+        public static final String STARTUP_PARALLELISM = PREFIX + "startup.parallelism";
     }
 
     /**
@@ -2,14 +2,15 @@ package net.woggioni.envelope;
 
 import lombok.SneakyThrows;
 import net.woggioni.envelope.loader.JarFile;
+import net.woggioni.envelope.loader.Tracer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -21,6 +22,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.jar.Attributes;
@@ -34,11 +40,6 @@ import static net.woggioni.envelope.Constants.EXTRA_CLASSPATH_ENTRY_SEPARATOR;
 
 public class Launcher {
 
-    @SneakyThrows
-    static URL getURL(JarFile jarFile) {
-        return jarFile.getUrl();
-    }
-
     @SneakyThrows
     private static JarFile findCurrentJar() {
         String launcherClassName = Launcher.class.getName();
@@ -46,7 +47,22 @@ public class Launcher {
         if (url == null || !"jar".equals(url.getProtocol()))
             throw new IllegalStateException(String.format("The class %s must be used inside a JAR file", launcherClassName));
         String path = Paths.get(new URI(url.getPath())).toString();
-        return new JarFile(new File(path.substring(0, path.indexOf('!'))));
+        boolean memoryMapped = or(
+            () -> System.getProperty(Constants.JvmProperties.MEMORY_MAPPED),
+            () -> readManifest(url).getMainAttributes().getValue(Constants.ManifestAttributes.MEMORY_MAPPED)
+        ).map(Boolean::parseBoolean).orElse(false);
+        return JarFile.open(new File(path.substring(0, path.indexOf('!'))), memoryMapped);
+    }
+
+    /**
+     * Reads the manifest of the jar file containing the provided resource through the JDK jar handler,
+     * so that it can be consulted before the envelope {@link JarFile} is opened
+     */
+    @SneakyThrows
+    private static Manifest readManifest(URL resourceUrl) {
+        try (InputStream is = new URL(resourceUrl, "/" + java.util.jar.JarFile.MANIFEST_NAME).openStream()) {
+            return new Manifest(is);
+        }
     }
 
     @SneakyThrows
@@ -77,7 +93,7 @@ public class Launcher {
         return Collections.unmodifiableMap(dictMap);
     }
 
-    private static Stream<JarFile> getExtraClasspath(Attributes mainAttributes) {
+    private static Stream<File> getExtraClasspath(Attributes mainAttributes) {
         return Common.opt2Stream(or(
                     () -> System.getProperty(Constants.JvmProperties.EXTRA_CLASSPATH),
                     () -> mainAttributes.getValue(Constants.ManifestAttributes.EXTRA_CLASSPATH)
@@ -117,18 +133,78 @@ public class Launcher {
                 }
             })
             .filter(path -> path.getFileName().toString().toLowerCase().endsWith(".jar"))
-            .map(Path::toFile)
-            .map(new Function<File, JarFile>() {
-                @Override
-                @SneakyThrows
-                public JarFile apply(File file) {
-                    return new JarFile(file);
-                }
-            });
+            .map(Path::toFile);
+    }
+
+    /**
+     * Reads the names of the libraries from the table of contents written by the plugin,
+     * the names are separated by slashes, which cannot appear in a library name
+     */
+    @SneakyThrows
+    static List<String> readLibraries(URL libraryTocResource) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream is = libraryTocResource.openStream()) {
+            Common.write2Stream(is, baos);
+        }
+        String toc = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+        List<String> libraries = new ArrayList<>();
+        int cursor = 0;
+        while (cursor < toc.length()) {
+            int end = toc.indexOf('/', cursor);
+            if (end < 0) end = toc.length();
+            libraries.add(toc.substring(cursor, end));
+            cursor = end + 1;
+        }
+        return libraries;
+    }
+
+    /**
+     * Creates the executor that opens the libraries and indexes their directories, or builds their module
+     * descriptors, during startup, its parallelism defaults to the number of available processors and can be set with the
+     * {@value Constants.JvmProperties#STARTUP_PARALLELISM} system property, a value of 1 runs all the
+     * startup tasks in the main thread
+     */
+    private static Executor createStartupExecutor() {
+        int parallelism = Integer.getInteger(Constants.JvmProperties.STARTUP_PARALLELISM,
+            Runtime.getRuntime().availableProcessors());
+        if (parallelism <= 1) {
+            return Runnable::run;
+        } else {
+            return new ForkJoinPool(parallelism);
+        }
+    }
+
+    @SneakyThrows
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ce) {
+            throw ce.getCause();
+        }
+    }
+
+    @SneakyThrows
+    private static JarFile openLibrary(JarFile currentJar, String library) {
+        long start = Tracer.start();
+        JarEntry entry = currentJar.getJarEntry(Constants.LIBRARIES_FOLDER + '/' + library);
+        if (entry == null) throw new IllegalStateException(
+                String.format("Library '%s' not found in '%s'", library, currentJar.getName()));
+        JarFile result = currentJar.getNestedJarFile(entry);
+        Tracer.end(Tracer.LIBRARY, library, start);
+        return result;
+    }
+
+    @SneakyThrows
+    private static JarFile openJarFile(File file) {
+        long start = Tracer.start();
+        JarFile result = JarFile.open(file);
+        Tracer.end(Tracer.LIBRARY, file.getName(), start);
+        return result;
     }
 
     @SneakyThrows
     public static void main(String[] args) {
+        long start = Tracer.start();
         Enumeration<URL> it = Launcher.class.getClassLoader().getResources(Constants.SYSTEM_PROPERTIES_FILE);
         JarFile.registerUrlProtocolHandler();
         while (it.hasMoreElements()) {
@@ -143,9 +219,12 @@ public class Launcher {
                 if (System.getProperty(key) == null) System.setProperty(key, value);
             }
         }
+        Tracer.end(Tracer.PHASE, "system properties", start);
+        start = Tracer.start();
         JarFile currentJar = findCurrentJar();
         Manifest mf = currentJar.getManifest();
         Attributes mainAttributes = mf.getMainAttributes();
+        Tracer.end(Tracer.PHASE, "open envelope jar", start);
 
         String mainClassName = or(
             () -> System.getProperty(Constants.JvmProperties.MAIN_CLASS),
@@ -155,31 +234,38 @@ public class Launcher {
             () -> System.getProperty(Constants.JvmProperties.MAIN_MODULE),
             () -> mainAttributes.getValue(Constants.ManifestAttributes.MAIN_MODULE)
         ).orElse(null);
-        StringBuilder sb = new StringBuilder();
-        List<JarFile> classpath = new ArrayList<>();
         URL libraryTocResource = Launcher.class.getClassLoader().getResource(Constants.LIBRARIES_TOC);
         if(libraryTocResource == null) throw new RuntimeException(
                 Constants.LIBRARIES_TOC + " not found");
-        try(Reader reader = new InputStreamReader(libraryTocResource.openStream())) {
-            while(true) {
-                int c = reader.read();
-                boolean entryEnd = c == '/' || c < 0;
-                if(entryEnd) {
-                    String entryName = Constants.LIBRARIES_FOLDER + '/' + sb;
-                    JarEntry entry = currentJar.getJarEntry(entryName);
-                    classpath.add(currentJar.getNestedJarFile(entry));
-                    sb.setLength(0);
-                    if(c < 0) break;
-                }
-                else sb.append((char) c);
-            }
-        }
 
-        getExtraClasspath(mainAttributes).forEach(classpath::add);
+        // Libraries and extra classpath entries are opened concurrently, the classpath keeps their original order
+        Executor executor = createStartupExecutor();
+        start = Tracer.start();
+        List<String> libraries = readLibraries(libraryTocResource);
+        Tracer.end(Tracer.PHASE, "read libraries TOC", start);
+        long librariesStart = Tracer.start();
+        List<CompletableFuture<JarFile>> jarFiles = new ArrayList<>();
+        for (String library : libraries) {
+            jarFiles.add(CompletableFuture.supplyAsync(() -> openLibrary(currentJar, library), executor));
+        }
+        start = Tracer.start();
+        getExtraClasspath(mainAttributes)
+            .map(file -> CompletableFuture.supplyAsync(() -> openJarFile(file), executor))
+            .forEach(jarFiles::add);
+        Tracer.end(Tracer.PHASE, "extra classpath scan", start);
+        List<JarFile> classpath = new ArrayList<>(jarFiles.size());
+        for (CompletableFuture<JarFile> jarFile : jarFiles) {
+            classpath.add(join(jarFile));
+        }
+        Tracer.end(Tracer.PHASE, "open libraries", librariesStart);
         Consumer<Class<?>> runner = new Consumer<Class<?>>() {
             @Override
             @SneakyThrows
             public void accept(Class<?> mainClass) {
+                // Startup is complete once the main class has been loaded
+                if (executor instanceof ExecutorService) {
+                    ((ExecutorService) executor).shutdown();
+                }
                 try {
                     Method mainMethod = mainClass.getMethod("main", String[].class);
                     Class<?> returnType = mainMethod.getReturnType();
@@ -198,6 +284,7 @@ public class Launcher {
                 mainModuleName,
                 mainClassName,
                 classpath,
+                executor,
                 runner);
 
     }
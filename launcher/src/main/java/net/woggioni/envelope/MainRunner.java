@@ -1,11 +1,12 @@
 package net.woggioni.envelope;
 
 import lombok.SneakyThrows;
+import net.woggioni.envelope.loader.EnvelopeClassLoader;
 import net.woggioni.envelope.loader.JarFile;
+import net.woggioni.envelope.loader.Tracer;
 
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 class MainRunner {
@@ -14,6 +15,7 @@ class MainRunner {
                     String mainModuleName,
                     String mainClassName,
                     List<JarFile> classpath,
+                    Executor executor,
                     Consumer<Class<?>> runner) {
         if(mainClassName == null) {
             throw new RuntimeException(
@@ -23,10 +25,13 @@ class MainRunner {
                     )
             );
         }
-        URL[] urls = classpath.stream().map(Launcher::getURL).toArray(URL[]::new);
-        try (URLClassLoader cl = new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent())) {
-            Thread.currentThread().setContextClassLoader(cl);
-            runner.accept(cl.loadClass(mainClassName));
-        }
+        long start = Tracer.start();
+        ClassLoader cl = new EnvelopeClassLoader(classpath, ClassLoader.getSystemClassLoader().getParent(), executor);
+        Tracer.end(Tracer.PHASE, "create class loader", start);
+        Thread.currentThread().setContextClassLoader(cl);
+        start = Tracer.start();
+        Class<?> mainClass = cl.loadClass(mainClassName);
+        Tracer.end(Tracer.PHASE, "load main class", start);
+        runner.accept(mainClass);
     }
 }
@@ -13,18 +13,21 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Optional;
 import java.util.Enumeration;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLStreamHandler;
-import java.net.URLClassLoader;
 
 import lombok.SneakyThrows;
 
 import net.woggioni.envelope.Constants;
+import net.woggioni.envelope.loader.EnvelopeClassLoader;
 import net.woggioni.envelope.loader.ModuleClassLoader;
 import net.woggioni.envelope.loader.JarFileModuleFinder;
+import net.woggioni.envelope.loader.ModuleMetadata;
 import net.woggioni.envelope.loader.JarFile;
+import net.woggioni.envelope.loader.Tracer;
 import java.util.jar.JarEntry;
 
 class MainRunner {
@@ -38,6 +41,7 @@ class MainRunner {
                     String mainModuleName,
                     String mainClassName,
                     List<JarFile> classpath,
+                    Executor executor,
                     Consumer<Class<?>> runner) {
         if(mainModuleName == null) {
             if(mainClassName == null) {
@@ -48,15 +52,20 @@ class MainRunner {
                         )
                 );
             }
-            URL[] urls = classpath.stream().map(Launcher::getURL).toArray(URL[]::new);
-            try (URLClassLoader cl = new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent())) {
-                Thread.currentThread().setContextClassLoader(cl);
-                runner.accept(cl.loadClass(mainClassName));
-            }
+            long start = Tracer.start();
+            ClassLoader cl = new EnvelopeClassLoader(classpath, ClassLoader.getSystemClassLoader().getParent(), executor);
+            Tracer.end(Tracer.PHASE, "create class loader", start);
+            Thread.currentThread().setContextClassLoader(cl);
+            start = Tracer.start();
+            Class<?> mainClass = cl.loadClass(mainClassName);
+            Tracer.end(Tracer.PHASE, "load main class", start);
+            runner.accept(mainClass);
         } else {
             ModuleLayer bootLayer = ModuleLayer.boot();
             Configuration bootConfiguration = bootLayer.configuration();
-            JarFileModuleFinder jarFileModuleFinder = new JarFileModuleFinder(classpath);
+            long start = Tracer.start();
+            JarFileModuleFinder jarFileModuleFinder = new JarFileModuleFinder(classpath, ModuleMetadata.read(currentJarFile), executor);
+            Tracer.end(Tracer.PHASE, "build module finder", start);
             List<String> moduleNames = Collections.unmodifiableList(
                 jarFileModuleFinder.findAll()
                     .stream()
@@ -64,7 +73,10 @@ class MainRunner {
                     .map(ModuleDescriptor::name)
                     .collect(Collectors.toList())
             );
+            start = Tracer.start();
             Configuration cfg = bootConfiguration.resolve(jarFileModuleFinder, ModuleFinder.of(), moduleNames);
+            Tracer.end(Tracer.PHASE, "resolve configuration", start);
+            start = Tracer.start();
             Map<String, ClassLoader> packageMap = new TreeMap<>();
             ModuleLayer.Controller controller =
                 ModuleLayer.defineModules(cfg, Collections.singletonList(ModuleLayer.boot()), moduleName -> {
@@ -83,15 +95,19 @@ class MainRunner {
                     return cl;
                 });
             ModuleLayer layer = controller.layer();
+            Tracer.end(Tracer.PHASE, "define modules", start);
             Module mainModule = layer.findModule(mainModuleName).orElseThrow(
                     () -> new IllegalStateException(String.format("Main module '%s' not found", mainModuleName)));
             Thread.currentThread().setContextClassLoader(mainModule.getClassLoader());
             Optional<String> mainClassOpt = Optional.ofNullable(mainClassName);
-            runner.accept(Optional.ofNullable(mainClassName)
+            start = Tracer.start();
+            Class<?> mainClass = Optional.ofNullable(mainClassName)
                 .or(() -> mainModule.getDescriptor().mainClass())
                 .map(className -> Class.forName(mainModule, className))
                 .orElseThrow(() -> new IllegalStateException(
-                    String.format("Unable to determine main class name for module '%s'", mainModule.getName()))));
+                    String.format("Unable to determine main class name for module '%s'", mainModule.getName())));
+            Tracer.end(Tracer.PHASE, "load main class", start);
+            runner.accept(mainClass);
         }
     }
 }
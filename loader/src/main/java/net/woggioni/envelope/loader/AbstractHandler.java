@@ -381,7 +381,7 @@ public abstract class AbstractHandler extends URLStreamHandler {
 			File file = new File(URI.create(name));
 			Map<File, JarFile> cache = rootFileCache.get();
 			JarFile result = (cache != null) ? cache.get(file) : null;
-			if (result == null) {
+			if (result == null || result.isClosed()) {
 				result = new JarFile(file);
 				addToRootFileCache(file, result);
 			}
@@ -398,12 +398,27 @@ public abstract class AbstractHandler extends URLStreamHandler {
 	 * @param jarFile the jar file.
 	 */
 	static void addToRootFileCache(File sourceFile, JarFile jarFile) {
+		getRootFileCache().put(sourceFile, jarFile);
+	}
+
+	/**
+	 * Add the given {@link JarFile} to the root file cache, unless an open {@link JarFile}
+	 * for the same source file is already there, so that URLs pointing inside it and
+	 * their nested jars reuse the already parsed instances.
+	 * @param sourceFile the source file to add
+	 * @param jarFile the jar file.
+	 */
+	static void addToRootFileCacheIfAbsent(File sourceFile, JarFile jarFile) {
+		getRootFileCache().merge(sourceFile, jarFile, (current, candidate) -> current.isClosed() ? candidate : current);
+	}
+
+	private static Map<File, JarFile> getRootFileCache() {
 		Map<File, JarFile> cache = rootFileCache.get();
 		if (cache == null) {
 			cache = new ConcurrentHashMap<>();
 			rootFileCache = new SoftReference<>(cache);
 		}
-		cache.put(sourceFile, jarFile);
+		return cache;
 	}
 
 	/**
@@ -0,0 +1,53 @@
+package net.woggioni.envelope.loader;
+
+/**
+ * Bloom filter over the 32-bit hash codes of the entry names of a jar file, used to answer
+ * lookups of names that are not in the jar with a few bit tests.
+ * <p>
+ * The filter uses {@value #BITS_PER_ELEMENT} bits per name (rounded up to a power of two) and
+ * {@value #HASH_FUNCTIONS} hash functions derived from the name hash code by double hashing,
+ * which gives a false positive rate between 0.1% and 1.2%.
+ */
+final class BloomFilter {
+
+    static final int BITS_PER_ELEMENT = 10;
+
+    static final int HASH_FUNCTIONS = 4;
+
+    private final long[] bits;
+
+    private final int mask;
+
+    BloomFilter(int expectedElements) {
+        long size = Math.max(Long.SIZE, (long) expectedElements * BITS_PER_ELEMENT);
+        int bitCount = (int) Math.min(1 << 30, Long.highestOneBit(size * 2 - 1));
+        this.bits = new long[bitCount / Long.SIZE];
+        this.mask = bitCount - 1;
+    }
+
+    void add(int hashCode) {
+        int h1 = hashCode * 0x9E3779B9;
+        int h2 = Integer.rotateLeft(hashCode * 0x85EBCA6B, 16) | 1;
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(int hashCode) {
+        int h1 = hashCode * 0x9E3779B9;
+        int h2 = Integer.rotateLeft(hashCode * 0x85EBCA6B, 16) | 1;
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of bytes used by the filter bits
+     */
+    long getFootprint() {
+        return (long) bits.length * Long.BYTES;
+    }
+}
@@ -132,6 +132,15 @@ final class Bytes {
 			return true;
 		}
 
+		/**
+		 * Copy the bytes of this name to the given array.
+		 * @param target the destination array
+		 * @param targetOffset the position of the first copied byte in the destination array
+		 */
+		void copyTo(byte[] target, int targetOffset) {
+			System.arraycopy(this.bytes, this.offset, target, targetOffset, this.length);
+		}
+
 		AsciiBytes substring(int beginIndex) {
 			return substring(beginIndex, this.length);
 		}
@@ -145,15 +154,29 @@ final class Bytes {
 		}
 
 		boolean matches(CharSequence name, char suffix) {
+			return matches(this.bytes, this.offset, this.length, name, suffix);
+		}
+
+		/**
+		 * Returns {@code true} if the UTF-8 encoded name stored in the given bytes matches
+		 * the given name followed by the given suffix.
+		 * @param bytes the bytes containing the encoded name
+		 * @param offset the offset of the encoded name
+		 * @param length the length of the encoded name
+		 * @param name the name to test
+		 * @param suffix an additional suffix (or {@code 0})
+		 * @return {@code true} if the names match
+		 */
+		static boolean matches(byte[] bytes, int offset, int length, CharSequence name, char suffix) {
 			int charIndex = 0;
 			int nameLen = name.length();
 			int totalLen = nameLen + ((suffix != 0) ? 1 : 0);
-			for (int i = this.offset; i < this.offset + this.length; i++) {
-				int b = this.bytes[i];
+			for (int i = offset; i < offset + length; i++) {
+				int b = bytes[i];
 				int remainingUtfBytes = getNumberOfUtfBytes(b) - 1;
 				b &= INITIAL_BYTE_BITMASK[remainingUtfBytes];
 				for (int j = 0; j < remainingUtfBytes; j++) {
-					b = (b << 6) + (this.bytes[++i] & SUBSEQUENT_BYTE_BITMASK);
+					b = (b << 6) + (bytes[++i] & SUBSEQUENT_BYTE_BITMASK);
 				}
 				char c = getChar(name, suffix, charIndex++);
 				if (b <= 0xFFFF) {
@@ -174,7 +197,7 @@ final class Bytes {
 			return charIndex == totalLen;
 		}
 
-		private char getChar(CharSequence name, char suffix, int index) {
+		private static char getChar(CharSequence name, char suffix, int index) {
 			if (index < name.length()) {
 				return name.charAt(index);
 			}
@@ -184,7 +207,7 @@ final class Bytes {
 			return 0;
 		}
 
-		private int getNumberOfUtfBytes(int b) {
+		private static int getNumberOfUtfBytes(int b) {
 			if ((b & 0x80) == 0) {
 				return 1;
 			}
@@ -116,9 +116,29 @@ class CentralDirectoryEndRecord {
 		if (this.zip64End != null) {
 			return this.zip64End.getCentralDirectory(data);
 		}
-		long offset = Bytes.littleEndianValue(this.block, this.offset + 16, 4);
-		long length = Bytes.littleEndianValue(this.block, this.offset + 12, 4);
-		return data.getSubsection(offset, length);
+		return data.getSubsection(getCentralDirectoryOffset(), getCentralDirectoryLength());
+	}
+
+	/**
+	 * Return the offset of the "Central directory" from the start of the archive.
+	 * @return the central directory offset
+	 */
+	long getCentralDirectoryOffset() {
+		if (this.zip64End != null) {
+			return this.zip64End.centralDirectoryOffset;
+		}
+		return Bytes.littleEndianValue(this.block, this.offset + 16, 4);
+	}
+
+	/**
+	 * Return the length of the "Central directory".
+	 * @return the central directory length
+	 */
+	long getCentralDirectoryLength() {
+		if (this.zip64End != null) {
+			return this.zip64End.centralDirectoryLength;
+		}
+		return Bytes.littleEndianValue(this.block, this.offset + 12, 4);
 	}
 
 	/**
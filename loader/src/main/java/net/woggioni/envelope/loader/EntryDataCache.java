@@ -0,0 +1,268 @@
+package net.woggioni.envelope.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least recently used cache of the decompressed content of jar entries, shared by all the {@link JarFile}s.
+ * <p>
+ * The cache is disabled unless the {@value #CAPACITY_PROPERTY} system property is set to the maximum number
+ * of bytes it can hold; entries are stored off-heap when {@value #DIRECT_PROPERTY} is {@code true}.
+ * <p>
+ * The cache is split in {@value #STRIPES} stripes selected by the hash of the entry, each one holding an eighth
+ * of the capacity behind its own lock and evicting its own least recently used entries, so that concurrent
+ * lookups rarely contend on the same lock. Entries larger than a stripe are never cached,
+ * so that a single large resource cannot flush all the others.
+ */
+public final class EntryDataCache {
+
+    public static final String CAPACITY_PROPERTY = "envelope.entry.cache.capacity";
+
+    public static final String DIRECT_PROPERTY = "envelope.entry.cache.direct";
+
+    private static final EntryDataCache INSTANCE = new EntryDataCache(
+            Long.getLong(CAPACITY_PROPERTY, 0L), Boolean.getBoolean(DIRECT_PROPERTY));
+
+    private static final int STRIPES = 8;
+
+    private final long capacity;
+
+    private final long maxEntrySize;
+
+    private final boolean direct;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    EntryDataCache(long capacity, boolean direct) {
+        this.capacity = Math.max(0, capacity);
+        this.maxEntrySize = Math.min(Integer.MAX_VALUE, this.capacity / STRIPES);
+        this.direct = direct;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(this.maxEntrySize);
+        }
+    }
+
+    private Stripe stripe(Key key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    public static EntryDataCache getInstance() {
+        return INSTANCE;
+    }
+
+    boolean accepts(long size) {
+        return size > 0 && size <= maxEntrySize;
+    }
+
+    /**
+     * Return a new read-only view of the cached content of an entry
+     * @param owner the entries of the jar file containing the entry
+     * @param offset the offset of the local header of the entry
+     * @return a buffer positioned at the beginning of the entry content or {@code null} if the entry is not cached
+     */
+    ByteBuffer get(JarFileEntries owner, long offset) {
+        Key key = new Key(owner, offset);
+        Stripe stripe = stripe(key);
+        ByteBuffer buffer;
+        synchronized (stripe) {
+            buffer = stripe.entries.get(key);
+        }
+        if (buffer == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Read the whole content of an entry and add it to the cache
+     * @param owner the entries of the jar file containing the entry
+     * @param offset the offset of the local header of the entry
+     * @param inputStream the stream of the decompressed entry content, it is closed by this method
+     * @param size the size of the decompressed entry
+     * @return a new read-only view of the cached content of the entry
+     * @throws IOException if the content of the entry cannot be read
+     */
+    ByteBuffer put(JarFileEntries owner, long offset, InputStream inputStream, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        try (InputStream is = inputStream) {
+            int read = 0;
+            while (read < size) {
+                int chunk = is.read(bytes, read, size - read);
+                if (chunk < 0) {
+                    throw new IOException("Unexpected end of entry data");
+                }
+                read += chunk;
+            }
+        }
+        ByteBuffer buffer;
+        if (direct) {
+            buffer = ByteBuffer.allocateDirect(size);
+            buffer.put(bytes);
+            ((Buffer) buffer).flip();
+        } else {
+            buffer = ByteBuffer.wrap(bytes);
+        }
+        Key key = new Key(owner, offset);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            ByteBuffer previous = stripe.entries.put(key, buffer);
+            long used = stripe.used + size;
+            if (previous != null) {
+                used -= previous.capacity();
+            }
+            Iterator<ByteBuffer> it = stripe.entries.values().iterator();
+            while (used > stripe.capacity && it.hasNext()) {
+                used -= it.next().capacity();
+                it.remove();
+            }
+            stripe.used = used;
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Remove all the cached entries belonging to the given jar file
+     * @param owner the entries of the jar file
+     */
+    void evict(JarFileEntries owner) {
+        if (capacity == 0) return;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                long used = stripe.used;
+                Iterator<Map.Entry<Key, ByteBuffer>> it = stripe.entries.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Key, ByteBuffer> entry = it.next();
+                    if (entry.getKey().owner == owner) {
+                        used -= entry.getValue().capacity();
+                        it.remove();
+                    }
+                }
+                stripe.used = used;
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of bytes the cache can hold, {@code 0} if the cache is disabled
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes currently held by the cache
+     */
+    public long getUsed() {
+        long used = 0;
+        for (Stripe stripe : stripes) {
+            used += stripe.used;
+        }
+        return used;
+    }
+
+    /**
+     * @return the number of lookups that found the entry in the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that did not find the entry in the cache
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Least recently used cache of a share of the entries, guarded by its own monitor
+     */
+    private static final class Stripe {
+
+        private final long capacity;
+
+        private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private volatile long used;
+
+        private Stripe(long capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    private static final class Key {
+
+        private final JarFileEntries owner;
+
+        private final long offset;
+
+        private Key(JarFileEntries owner, long offset) {
+            this.owner = owner;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return owner == other.owner && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(owner) + Long.hashCode(offset);
+        }
+    }
+
+    /**
+     * {@link InputStream} reading from a {@link ByteBuffer} without copying it.
+     */
+    static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int chunk = Math.min(len, buffer.remaining());
+            buffer.get(b, off, chunk);
+            return chunk;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            ((Buffer) buffer).position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package net.woggioni.envelope.loader;
+
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.SecureClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Class loader for classpath mode that reads classes and resources straight from a list of {@link JarFile}s.
+ * <p>
+ * A map from each directory to the jar files that have entries in it is built once, when the class loader
+ * is created, so that each lookup only searches the jar files that may contain the requested name
+ * instead of probing all of them in order. Classes are defined from the entry data without going
+ * through {@code jar:} URLs, which are only created for the callers of {@link #getResource(String)}
+ * and {@link #getResources(String)}.
+ */
+public final class EnvelopeClassLoader extends SecureClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final JarFile[] NO_JARS = new JarFile[0];
+
+    private final List<JarFile> jarFiles;
+
+    private final Map<String, JarFile[]> directoryIndex;
+
+    private final Map<JarFile, CodeSource> codeSources = new HashMap<>();
+
+    public EnvelopeClassLoader(List<JarFile> jarFiles, ClassLoader parent) {
+        this(jarFiles, parent, Runnable::run);
+    }
+
+    /**
+     * @param executor used to list the directories of the jar files concurrently while building the
+     *                 directory index, the index itself is still merged in the order of {@code jarFiles}
+     */
+    public EnvelopeClassLoader(List<JarFile> jarFiles, ClassLoader parent, Executor executor) {
+        super(parent);
+        this.jarFiles = Collections.unmodifiableList(new ArrayList<>(jarFiles));
+        this.directoryIndex = buildDirectoryIndex(this.jarFiles, executor);
+    }
+
+    @SneakyThrows
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ce) {
+            throw ce.getCause();
+        }
+    }
+
+    private static Map<String, JarFile[]> buildDirectoryIndex(List<JarFile> jarFiles, Executor executor) {
+        List<CompletableFuture<List<String>>> directories = new ArrayList<>(jarFiles.size());
+        for (JarFile jarFile : jarFiles) {
+            directories.add(CompletableFuture.supplyAsync(() -> {
+                List<String> result = new ArrayList<>();
+                jarFile.forEachDirectory(result::add);
+                return result;
+            }, executor));
+        }
+        Map<String, List<JarFile>> index = new HashMap<>();
+        for (int i = 0; i < jarFiles.size(); i++) {
+            JarFile jarFile = jarFiles.get(i);
+            for (String directory : join(directories.get(i))) {
+                List<JarFile> candidates = index.computeIfAbsent(directory, key -> new ArrayList<>(1));
+                if (candidates.isEmpty() || candidates.get(candidates.size() - 1) != jarFile) {
+                    candidates.add(jarFile);
+                }
+            }
+        }
+        Map<String, JarFile[]> result = new HashMap<>(index.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<JarFile>> entry : index.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toArray(NO_JARS));
+        }
+        return result;
+    }
+
+    /**
+     * @return the jar files this class loader reads from, in lookup order
+     */
+    public List<JarFile> getJarFiles() {
+        return jarFiles;
+    }
+
+    private JarFile[] getCandidates(String name) {
+        String directory = name.substring(0, name.lastIndexOf('/', name.length() - 2) + 1);
+        JarFile[] candidates = directoryIndex.get(directory);
+        return candidates != null ? candidates : NO_JARS;
+    }
+
+    @Override
+    protected Class<?> findClass(String className) throws ClassNotFoundException {
+        String resource = className.replace('.', '/').concat(".class");
+        for (JarFile jarFile : getCandidates(resource)) {
+            java.util.jar.JarEntry entry = jarFile.getJarEntry(resource);
+            if (entry != null) {
+                long start = Tracer.start();
+                try {
+                    return defineClass(className, jarFile, entry);
+                } catch (IOException ioe) {
+                    throw new ClassNotFoundException(className, ioe);
+                } finally {
+                    Tracer.end(Tracer.CLASS, className, start);
+                }
+            }
+        }
+        throw new ClassNotFoundException(className);
+    }
+
+    private Class<?> defineClass(String className, JarFile jarFile, java.util.jar.JarEntry entry) throws IOException {
+        int lastDot = className.lastIndexOf('.');
+        if (lastDot > 0) {
+            definePackageIfNecessary(className.substring(0, lastDot), jarFile);
+        }
+        long statisticsStart = LoaderStatistics.start();
+        Object event = LoaderEvents.beginClassDefine();
+        long readStart = (event != null) ? System.nanoTime() : 0L;
+        byte[] bytes = readEntry(jarFile, entry);
+        long readTime = (event != null) ? System.nanoTime() - readStart : 0L;
+        // Certificates are only available once the entry has been read
+        Class<?> result = defineClass(className, bytes, 0, bytes.length, getCodeSource(jarFile, entry.getCodeSigners()));
+        LoaderEvents.commitClassDefine(event, className, jarFile.getName(), bytes.length, readTime);
+        LoaderStatistics.classDefined(LoaderStatistics.CLASSPATH, statisticsStart);
+        return result;
+    }
+
+    private static byte[] readEntry(JarFile jarFile, java.util.jar.JarEntry entry) throws IOException {
+        long size = entry.getSize();
+        try (InputStream is = jarFile.getInputStream(entry)) {
+            if (size >= 0 && size < Integer.MAX_VALUE - 8) {
+                byte[] bytes = new byte[(int) size];
+                int read = 0;
+                while (read < bytes.length) {
+                    int chunk = is.read(bytes, read, bytes.length - read);
+                    if (chunk < 0) break;
+                    read += chunk;
+                }
+                if (read == bytes.length && is.read() < 0) {
+                    return bytes;
+                }
+                throw new IOException(String.format("Size mismatch reading entry '%s' from '%s'", entry.getName(), jarFile.getName()));
+            } else {
+                throw new IOException(String.format("Invalid size for entry '%s' in '%s'", entry.getName(), jarFile.getName()));
+            }
+        }
+    }
+
+    private CodeSource getCodeSource(JarFile jarFile, CodeSigner[] signers) throws MalformedURLException {
+        if (signers != null) {
+            return new CodeSource(jarFile.getUrl(), signers);
+        }
+        synchronized (codeSources) {
+            CodeSource codeSource = codeSources.get(jarFile);
+            if (codeSource == null) {
+                codeSource = new CodeSource(jarFile.getUrl(), (CodeSigner[]) null);
+                codeSources.put(jarFile, codeSource);
+            }
+            return codeSource;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void definePackageIfNecessary(String packageName, JarFile jarFile) throws IOException {
+        if (getPackage(packageName) != null) return;
+        Manifest manifest = jarFile.getManifest();
+        try {
+            if (manifest != null) {
+                Attributes mainAttributes = manifest.getMainAttributes();
+                Attributes packageAttributes = manifest.getAttributes(packageName.replace('.', '/') + '/');
+                URL sealBase = Boolean.parseBoolean(getAttribute(Attributes.Name.SEALED, packageAttributes, mainAttributes)) ?
+                        jarFile.getUrl() : null;
+                definePackage(packageName,
+                        getAttribute(Attributes.Name.SPECIFICATION_TITLE, packageAttributes, mainAttributes),
+                        getAttribute(Attributes.Name.SPECIFICATION_VERSION, packageAttributes, mainAttributes),
+                        getAttribute(Attributes.Name.SPECIFICATION_VENDOR, packageAttributes, mainAttributes),
+                        getAttribute(Attributes.Name.IMPLEMENTATION_TITLE, packageAttributes, mainAttributes),
+                        getAttribute(Attributes.Name.IMPLEMENTATION_VERSION, packageAttributes, mainAttributes),
+                        getAttribute(Attributes.Name.IMPLEMENTATION_VENDOR, packageAttributes, mainAttributes),
+                        sealBase);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException iae) {
+            // Another thread defined the same package concurrently
+            if (getPackage(packageName) == null) {
+                throw new IllegalStateException(String.format("Unable to define package '%s'", packageName), iae);
+            }
+        }
+    }
+
+    private static String getAttribute(Attributes.Name name, Attributes packageAttributes, Attributes mainAttributes) {
+        String value = packageAttributes != null ? packageAttributes.getValue(name) : null;
+        return value != null ? value : mainAttributes.getValue(name);
+    }
+
+    @Override
+    @SneakyThrows
+    protected URL findResource(String name) {
+        for (JarFile jarFile : getCandidates(name)) {
+            if (jarFile.getEntry(name) != null) {
+                return new URL(jarFile.getUrl(), name);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> result = new ArrayList<>();
+        for (JarFile jarFile : getCandidates(name)) {
+            if (jarFile.getEntry(name) != null) {
+                result.add(new URL(jarFile.getUrl(), name));
+            }
+        }
+        return Collections.enumeration(result);
+    }
+}
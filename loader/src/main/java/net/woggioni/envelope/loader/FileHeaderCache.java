@@ -0,0 +1,106 @@
+package net.woggioni.envelope.loader;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free, direct-mapped cache of the {@link FileHeader}s of a {@link JarFileEntries}.
+ * <p>
+ * Each entry index maps to exactly one slot, a slot holds an immutable (index, header) pair that is
+ * replaced atomically, so both hits and insertions never block and never allocate more than a slot.
+ * Collisions simply evict the previous occupant of the slot: since entry indexes are in hash order,
+ * headers of entries read in sequence rarely collide.
+ * <p>
+ * Unless set explicitly, the capacity is the smallest power of two greater than or equal to
+ * the number of entries divided by {@link #ENTRIES_PER_SLOT}, clamped between
+ * {@link #MIN_CAPACITY} and the value of the {@value #MAX_CAPACITY_PROPERTY} system property.
+ */
+final class FileHeaderCache {
+
+    static final String MAX_CAPACITY_PROPERTY = "envelope.header.cache.capacity";
+
+    static final int MIN_CAPACITY = 32;
+
+    static final int ENTRIES_PER_SLOT = 8;
+
+    private static final int MAX_CAPACITY = Integer.getInteger(MAX_CAPACITY_PROPERTY, 4096);
+
+    private volatile AtomicReferenceArray<Slot> slots;
+
+    private volatile boolean enabled = true;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    FileHeaderCache(int entries) {
+        this.slots = new AtomicReferenceArray<>(defaultCapacity(entries));
+    }
+
+    static int defaultCapacity(int entries) {
+        int capacity = Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, entries / ENTRIES_PER_SLOT));
+        return roundToPowerOfTwo(capacity);
+    }
+
+    private static int roundToPowerOfTwo(int value) {
+        int highestBit = Integer.highestOneBit(Math.max(1, value));
+        return highestBit == value ? value : Math.min(highestBit << 1, 1 << 30);
+    }
+
+    FileHeader get(int index) {
+        AtomicReferenceArray<Slot> slots = this.slots;
+        Slot slot = slots.get(index & (slots.length() - 1));
+        if (slot != null && slot.index == index) {
+            hits.increment();
+            return slot.header;
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(int index, FileHeader header) {
+        if (!enabled) return;
+        AtomicReferenceArray<Slot> slots = this.slots;
+        slots.lazySet(index & (slots.length() - 1), new Slot(index, header));
+    }
+
+    void clear() {
+        this.slots = new AtomicReferenceArray<>(this.slots.length());
+    }
+
+    /**
+     * Replace the cache content with an empty cache of the specified capacity
+     * @param capacity the new capacity, rounded up to the next power of two, {@code 0} disables caching
+     */
+    void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative");
+        }
+        this.enabled = capacity > 0;
+        this.slots = new AtomicReferenceArray<>(capacity == 0 ? 1 : roundToPowerOfTwo(capacity));
+    }
+
+    int getCapacity() {
+        return enabled ? slots.length() : 0;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    private static final class Slot {
+
+        private final int index;
+
+        private final FileHeader header;
+
+        private Slot(int index, FileHeader header) {
+            this.index = index;
+            this.header = header;
+        }
+    }
+}
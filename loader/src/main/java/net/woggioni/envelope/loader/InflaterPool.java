@@ -0,0 +1,135 @@
+package net.woggioni.envelope.loader;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Inflater;
+
+/**
+ * Bounded, thread-safe pool of {@link Inflater}s and of their input buffers, used to avoid allocating
+ * a new native zlib context and a new buffer for each compressed entry that is read.
+ * <p>
+ * At most {@link #getCapacity()} inflaters (and as many buffers) are retained, the ones returned
+ * when the pool is full are released immediately. The capacity can be set with the
+ * {@value #CAPACITY_PROPERTY} system property, {@code 0} disables pooling altogether.
+ */
+public final class InflaterPool {
+
+    public static final String CAPACITY_PROPERTY = "envelope.inflater.pool.capacity";
+
+    static final int BUFFER_SIZE = 0x2000;
+
+    private static final InflaterPool INSTANCE = new InflaterPool(
+            Integer.getInteger(CAPACITY_PROPERTY, Runtime.getRuntime().availableProcessors() * 4));
+
+    private final int capacity;
+
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pooledInflaters = new AtomicInteger();
+
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private final AtomicInteger activeInflaters = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    InflaterPool(int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    public static InflaterPool getInstance() {
+        return INSTANCE;
+    }
+
+    Inflater acquireInflater() {
+        if (LoaderStatistics.ENABLED) {
+            activeInflaters.incrementAndGet();
+        }
+        Inflater inflater = inflaters.poll();
+        if (inflater != null) {
+            pooledInflaters.decrementAndGet();
+            hits.increment();
+            return inflater;
+        }
+        misses.increment();
+        return new Inflater(true);
+    }
+
+    void releaseInflater(Inflater inflater) {
+        if (LoaderStatistics.ENABLED) {
+            activeInflaters.decrementAndGet();
+        }
+        if (reserve(pooledInflaters)) {
+            inflater.reset();
+            inflaters.offer(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+
+    byte[] acquireBuffer() {
+        byte[] buffer = buffers.poll();
+        if (buffer != null) {
+            pooledBuffers.decrementAndGet();
+            return buffer;
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    void releaseBuffer(byte[] buffer) {
+        if (buffer.length == BUFFER_SIZE && reserve(pooledBuffers)) {
+            buffers.offer(buffer);
+        }
+    }
+
+    private boolean reserve(AtomicInteger counter) {
+        while (true) {
+            int current = counter.get();
+            if (current >= capacity) return false;
+            if (counter.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    /**
+     * @return the maximum number of idle inflaters retained by the pool
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of idle inflaters currently retained by the pool
+     */
+    public int getIdle() {
+        return pooledInflaters.get();
+    }
+
+    /**
+     * @return the number of inflaters currently in use by the streams reading compressed entries,
+     * only counted when {@value LoaderStatistics#JMX_PROPERTY} is set
+     */
+    public int getActive() {
+        return activeInflaters.get();
+    }
+
+    /**
+     * @return the number of inflater requests served from the pool
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of inflater requests that required a new {@link Inflater} to be created,
+     * that is the number of inflaters created since startup
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+}
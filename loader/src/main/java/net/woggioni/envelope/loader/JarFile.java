@@ -27,14 +27,17 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLStreamHandler;
 import java.net.URLStreamHandlerFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.Permission;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
@@ -51,6 +54,10 @@ import java.util.zip.ZipFile;
  * <li>A nested {@link JarFile} can be {@link #getNestedJarFile(ZipEntry) obtained} for
  * embedded JAR files (as long as their entry is not compressed).</li>
  * </ul>
+ * Nested {@link JarFile}s are cached by entry name in their parent, so that the central
+ * directory of a nested jar is parsed only once no matter how many times it is obtained.
+ * Nested jars described by the {@link LibraryIndex} of their parent are opened from the index
+ * without parsing their central directory at all.
  *
  * @author Phillip Webb
  * @author Andy Wilkinson
@@ -96,7 +103,11 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 
 	private volatile JarFileWrapper wrapper;
 
-	private final List<JarFile> nestedJars = Collections.synchronizedList(new ArrayList<>());
+	private final Map<String, JarFile> nestedJars = new ConcurrentHashMap<>();
+
+	private SoftReference<LibraryIndex> libraryIndex;
+
+	private RandomAccessDataFile mapping;
 
 	/**
 	 * Create a new {@link JarFile} backed by the specified file.
@@ -107,6 +118,17 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		this(new RandomAccessDataFile(file));
 	}
 
+	/**
+	 * Create a new {@link JarFile} backed by the specified file.
+	 * @param file the root jar file
+	 * @param memoryMapped whether the root jar file should be memory mapped
+	 * @throws IOException if the file cannot be read
+	 * @see RandomAccessDataFile#RandomAccessDataFile(File, boolean)
+	 */
+	public JarFile(File file, boolean memoryMapped) throws IOException {
+		this(new RandomAccessDataFile(file, memoryMapped));
+	}
+
 	/**
 	 * Create a new {@link JarFile} backed by the specified file.
 	 * @param file the root jar file
@@ -116,6 +138,38 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		this(file, "", file, JarFileType.DIRECT);
 	}
 
+	/**
+	 * Open a {@link JarFile} backed by the specified file and register it in the root file
+	 * cache used by the {@code jar:} URL handler, so that URLs pointing inside it reuse its
+	 * nested jar files instead of parsing them again.
+	 * @param file the root jar file
+	 * @return the opened jar file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static JarFile open(File file) throws IOException {
+		return open(new RandomAccessDataFile(file));
+	}
+
+	/**
+	 * Open a {@link JarFile} backed by the specified file and register it in the root file
+	 * cache used by the {@code jar:} URL handler, so that URLs pointing inside it reuse its
+	 * nested jar files instead of parsing them again.
+	 * @param file the root jar file
+	 * @param memoryMapped whether the root jar file should be memory mapped
+	 * @return the opened jar file
+	 * @throws IOException if the file cannot be read
+	 * @see RandomAccessDataFile#RandomAccessDataFile(File, boolean)
+	 */
+	public static JarFile open(File file, boolean memoryMapped) throws IOException {
+		return open(new RandomAccessDataFile(file, memoryMapped));
+	}
+
+	private static JarFile open(RandomAccessDataFile file) throws IOException {
+		JarFile jarFile = new JarFile(file);
+		AbstractHandler.addToRootFileCacheIfAbsent(file.getFile().getAbsoluteFile(), jarFile);
+		return jarFile;
+	}
+
 	/**
 	 * Private constructor used to create a new {@link JarFile} either directly or from a
 	 * nested entry.
@@ -150,7 +204,63 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 			}
 			throw ex;
 		}
-		this.manifestSupplier = (manifestSupplier != null) ? manifestSupplier : () -> {
+		this.manifestSupplier = (manifestSupplier != null) ? manifestSupplier : defaultManifestSupplier();
+		OpenJarFiles.add(this);
+	}
+
+	/**
+	 * Private constructor used to create a nested {@link JarFile} from its section of the
+	 * {@link LibraryIndex} of the parent jar file.
+	 * @param rootFile the root jar file
+	 * @param pathFromRoot the name of this file
+	 * @param data the data of the nested entry
+	 * @param section the section of the library index describing the nested entry
+	 * @throws IOException if the file cannot be read
+	 * @throws RuntimeException if the section is not consistent with the data of the nested entry
+	 */
+	private JarFile(RandomAccessDataFile rootFile, String pathFromRoot, RandomAccessData data, ByteBuffer section)
+			throws IOException {
+		super(rootFile.getFile(), true, ZipFile.OPEN_READ);
+		this.rootFile = rootFile;
+		this.pathFromRoot = pathFromRoot;
+		this.type = JarFileType.NESTED_JAR;
+		try {
+			long archiveOffset = section.getLong();
+			this.data = (archiveOffset == 0) ? data
+					: data.getSubsection(archiveOffset, data.getSize() - archiveOffset);
+			RandomAccessData centralDirectoryData = this.data.getSubsection(section.getLong(), section.getLong());
+			int commentLength = section.getInt();
+			if (commentLength < 0 || commentLength > section.remaining()) {
+				throw new IllegalArgumentException("Invalid comment length " + commentLength);
+			}
+			byte[] comment = new byte[commentLength];
+			section.get(comment);
+			this.comment = new String(comment, StandardCharsets.UTF_8);
+			this.signed = section.get() != 0;
+			this.entries = JarFileEntries.read(this, section, centralDirectoryData);
+		}
+		catch (RuntimeException ex) {
+			try {
+				super.close();
+			}
+			catch (IOException ioex) {
+			}
+			throw ex;
+		}
+		this.manifestSupplier = defaultManifestSupplier();
+		OpenJarFiles.add(this);
+	}
+
+	/**
+	 * Return the jar files that are currently open, including the nested ones.
+	 * @return a snapshot of the open jar files
+	 */
+	static List<JarFile> getOpenJarFiles() {
+		return OpenJarFiles.snapshot();
+	}
+
+	private Supplier<Manifest> defaultManifestSupplier() {
+		return () -> {
 			try (InputStream inputStream = getInputStream(MANIFEST_NAME)) {
 				if (inputStream == null) {
 					return null;
@@ -173,8 +283,7 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 
 			@Override
 			public void visitFileHeader(CentralDirectoryFileHeader fileHeader, long dataOffset) {
-				Bytes.AsciiBytes name = fileHeader.getName();
-				if (name.startsWith(META_INF) && name.endsWith(SIGNATURE_FILE_EXTENSION)) {
+				if (isSignatureFile(fileHeader.getName())) {
 					JarFile.this.signed = true;
 				}
 			}
@@ -186,6 +295,10 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		};
 	}
 
+	static boolean isSignatureFile(Bytes.AsciiBytes name) {
+		return name.startsWith(META_INF) && name.endsWith(SIGNATURE_FILE_EXTENSION);
+	}
+
 	JarFileWrapper getWrapper() throws IOException {
 		JarFileWrapper wrapper = this.wrapper;
 		if (wrapper == null) {
@@ -240,6 +353,16 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		return StreamSupport.stream(spliterator, false);
 	}
 
+	/**
+	 * Return an iterator for the entries visible to the running JVM, used to implement
+	 * {@code versionedStream()} on Java 9+.
+	 * @return the iterator
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Iterator<java.util.jar.JarEntry> versionedIterator() {
+		return (Iterator) this.entries.versionedIterator(this::ensureOpen);
+	}
+
 	/**
 	 * Return an iterator for the contained entries.
 	 * @since 2.3.0
@@ -294,23 +417,52 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 	 * @return a {@link JarFile} for the entry
 	 * @throws IOException if the nested jar file cannot be read
 	 */
-	public synchronized JarFile getNestedJarFile(ZipEntry entry) throws IOException {
+	public JarFile getNestedJarFile(ZipEntry entry) throws IOException {
 		return getNestedJarFile((JarEntry) entry);
 	}
 
 	/**
-	 * Return a nested {@link JarFile} loaded from the specified entry.
+	 * Return a nested {@link JarFile} loaded from the specified entry, the same instance
+	 * is returned for the same entry until either of the two {@link JarFile}s is closed.
 	 * @param entry the zip entry
 	 * @return a {@link JarFile} for the entry
 	 * @throws IOException if the nested jar file cannot be read
 	 */
-	public synchronized JarFile getNestedJarFile(JarEntry entry) throws IOException {
+	public JarFile getNestedJarFile(JarEntry entry) throws IOException {
+		String name = entry.getName();
+		JarFile nestedJar = this.nestedJars.get(name);
+		if (nestedJar != null && !nestedJar.isClosed()) {
+			return nestedJar;
+		}
 		try {
-			return createJarFileFromEntry(entry);
+			nestedJar = createJarFileFromEntry(entry);
 		}
 		catch (Exception ex) {
 			throw new IOException("Unable to open nested jar file '" + entry.getName() + "'", ex);
 		}
+		JarFile cached = this.nestedJars.merge(name, nestedJar,
+				(current, created) -> current.isClosed() ? created : current);
+		if (cached != nestedJar) {
+			// Another thread opened the same nested jar concurrently
+			nestedJar.close();
+		}
+		return cached;
+	}
+
+	/**
+	 * Return a nested {@link JarFile} loaded from the entry with the specified name,
+	 * without looking up the entry if the nested jar has already been opened.
+	 * @param name the name of the entry
+	 * @return a {@link JarFile} for the entry or {@code null} if no such entry exists
+	 * @throws IOException if the nested jar file cannot be read
+	 */
+	JarFile getNestedJarFile(CharSequence name) throws IOException {
+		JarFile nestedJar = this.nestedJars.get(name.toString());
+		if (nestedJar != null && !nestedJar.isClosed()) {
+			return nestedJar;
+		}
+		JarEntry entry = getJarEntry(name);
+		return (entry != null) ? getNestedJarFile(entry) : null;
 	}
 
 	private JarFile createJarFileFromEntry(JarEntry entry) throws IOException {
@@ -339,13 +491,83 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 							+ "jar files must be stored without compression. Please check the "
 							+ "mechanism used to create your executable jar file");
 		}
+		Object event = LoaderEvents.beginNestedJarOpen();
 		RandomAccessData entryData = this.entries.getEntryData(entry.getName());
-		JarFile nestedJar = new JarFile(this.rootFile, this.pathFromRoot + "!/" + entry.getName(), entryData,
-				JarFileType.NESTED_JAR);
-		this.nestedJars.add(nestedJar);
+		RandomAccessDataFile mapping = mapAlignedEntry(entryData);
+		if (mapping != null) {
+			entryData = mapping;
+		}
+		String pathFromRoot = this.pathFromRoot + "!/" + entry.getName();
+		ByteBuffer section = getLibraryIndex().getSection(entry.getName(), entry.getCrc(), entry.getSize());
+		boolean indexed = section != null && entryData.getSize() == entry.getSize();
+		JarFile nestedJar = null;
+		try {
+			if (indexed) {
+				try {
+					nestedJar = new JarFile(this.rootFile, pathFromRoot, entryData, section);
+				}
+				catch (RuntimeException ex) {
+					// A corrupted section of the index falls back to parsing the central directory
+					indexed = false;
+				}
+			}
+			if (nestedJar == null) {
+				nestedJar = new JarFile(this.rootFile, pathFromRoot, entryData, JarFileType.NESTED_JAR);
+			}
+		}
+		catch (IOException | RuntimeException ex) {
+			if (mapping != null) {
+				mapping.close();
+			}
+			throw ex;
+		}
+		nestedJar.mapping = mapping;
+		LoaderEvents.commitNestedJarOpen(event, nestedJar, indexed, nestedJar.entries.getSize(),
+				nestedJar.entries.getCentralDirectorySize());
 		return nestedJar;
 	}
 
+	/**
+	 * Map on its own the data of a nested jar that has been aligned (usually to a memory
+	 * page) when the envelope jar was built, as recorded in its {@link LibraryIndex}, so that
+	 * the nested jar is read without going through the {@link java.io.RandomAccessFile}
+	 * shared by all the entries of the root jar file. Nothing is mapped if the root jar file
+	 * is memory mapped already.
+	 * @param entryData the data of the entry
+	 * @return the mapped data, or {@code null} if the entry is not aligned
+	 * @throws IOException if the library index cannot be read
+	 */
+	private RandomAccessDataFile mapAlignedEntry(RandomAccessData entryData) throws IOException {
+		if (this.type != JarFileType.DIRECT || this.rootFile.isMemoryMapped()
+				|| !(entryData instanceof RandomAccessDataFile)) {
+			return null;
+		}
+		int alignment = getLibraryIndex().getAlignment();
+		return (alignment > 0) ? ((RandomAccessDataFile) entryData).mapAligned(alignment) : null;
+	}
+
+	/**
+	 * Return the index of the libraries nested in this jar file, it is read the first time a
+	 * nested jar is opened and only retained as long as memory allows. Nested jars opened
+	 * concurrently wait for the index to be read once instead of each reading it.
+	 * @return the index, empty if this jar file has none
+	 * @throws IOException if the index cannot be read
+	 */
+	private synchronized LibraryIndex getLibraryIndex() throws IOException {
+		LibraryIndex index = (this.libraryIndex != null) ? this.libraryIndex.get() : null;
+		if (index == null) {
+			index = LibraryIndex.EMPTY;
+			if (this.type == JarFileType.DIRECT) {
+				JarEntry indexEntry = this.entries.getEntry(LibraryIndex.ENTRY_NAME);
+				if (indexEntry != null && indexEntry.getMethod() == ZipEntry.STORED) {
+					index = LibraryIndex.read(this.entries.getEntryData(LibraryIndex.ENTRY_NAME));
+				}
+			}
+			this.libraryIndex = new SoftReference<>(index);
+		}
+		return index;
+	}
+
 	@Override
 	public String getComment() {
 		ensureOpen();
@@ -368,14 +590,20 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 			if (this.type == JarFileType.DIRECT) {
 				this.rootFile.close();
 			}
+			if (this.mapping != null) {
+				this.mapping.close();
+			}
 			if (this.wrapper != null) {
 				this.wrapper.close();
 			}
-			for (JarFile nestedJar : this.nestedJars) {
+			for (JarFile nestedJar : this.nestedJars.values()) {
 				nestedJar.close();
 			}
+			this.nestedJars.clear();
+			this.entries.clearCache();
 			this.closed = true;
 		}
+		OpenJarFiles.remove(this);
 	}
 
 	private void ensureOpen() {
@@ -432,6 +660,66 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		this.entries.clearCache();
 	}
 
+	/**
+	 * Set the number of slots of the cache of entry headers of this jar file, discarding its content.
+	 * By default the capacity scales with the number of entries of the jar file.
+	 * @param capacity the new capacity, rounded up to the next power of two, {@code 0} disables caching
+	 */
+	public void setEntryCacheCapacity(int capacity) {
+		this.entries.getEntriesCache().setCapacity(capacity);
+	}
+
+	/**
+	 * Return the number of slots of the cache of entry headers of this jar file.
+	 * @return the capacity of the cache, {@code 0} if caching is disabled
+	 */
+	public int getEntryCacheCapacity() {
+		return this.entries.getEntriesCache().getCapacity();
+	}
+
+	/**
+	 * Return the number of entry header lookups served by the cache.
+	 * @return the number of cache hits
+	 */
+	public long getEntryCacheHits() {
+		return this.entries.getEntriesCache().getHits();
+	}
+
+	/**
+	 * Pass each directory containing entries of this jar file to the given action.
+	 * @param action the action receiving the directory names, followed by a slash
+	 */
+	void forEachDirectory(Consumer<String> action) {
+		ensureOpen();
+		this.entries.forEachDirectory(action);
+	}
+
+	/**
+	 * Return the memory used by the Bloom filter that answers lookups of names missing
+	 * from this jar file without searching its entries.
+	 * @return the filter footprint in bytes
+	 */
+	public long getNameFilterFootprint() {
+		return this.entries.getNameFilterFootprint();
+	}
+
+	/**
+	 * Return the memory used by the index of the entries of this jar file, including the
+	 * entry names and the Bloom filter.
+	 * @return the index footprint in bytes
+	 */
+	public long getIndexFootprint() {
+		return this.entries.getFootprint();
+	}
+
+	/**
+	 * Return the number of entry header lookups that missed the cache.
+	 * @return the number of cache misses
+	 */
+	public long getEntryCacheMisses() {
+		return this.entries.getEntriesCache().getMisses();
+	}
+
 	protected String getPathFromRoot() {
 		return this.pathFromRoot;
 	}
@@ -16,14 +16,16 @@
 
 package net.woggioni.envelope.loader;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.JarInputStream;
@@ -32,14 +34,23 @@ import java.util.zip.ZipEntry;
 
 /**
  * Provides access to entries from a {@link JarFile}. In order to reduce memory
- * consumption entry details are stored using arrays. The {@code hashCodes} array stores
- * the hash code of the entry name, the {@code centralDirectoryOffsets} provides the
- * offset to the central directory record and {@code positions} provides the original
- * order position of the entry. The arrays are stored in hashCode order so that a binary
- * search can be used to find a name.
+ * consumption entry details are stored using arrays indexed by the position of the entry
+ * in the central directory. The {@code hashCodes} array stores the hash code of the entry
+ * name, the {@code centralDirectoryOffsets} provides the offset to the central directory
+ * record and {@code nameOffsets} provides the position of the UTF-8 encoded entry name
+ * in the {@code names} byte array, where all names are stored contiguously.
+ * <p>
+ * Names are looked up through an open-addressing hash table with linear probing, whose
+ * slots hold entry positions, so that finding an entry only requires comparing the
+ * name bytes of the candidates with the same hash, without reading their central directory
+ * record again and without allocating any object.
+ * <p>
+ * For multi-release jars, the entries under {@code META-INF/versions/} that apply to the
+ * running JVM are resolved once into a second table keyed by their base name, which
+ * is probed before the main one, so that versioned lookups cost the same as plain ones.
  * <p>
  * A typical Spring Boot application will have somewhere in the region of 10,500 entries
- * which should consume about 122K.
+ * which should consume about 122K plus the size of their names.
  *
  * @author Phillip Webb
  * @author Andy Wilkinson
@@ -51,6 +62,12 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 
 	private static final String META_INF_PREFIX = "META-INF/";
 
+	private static final byte[] META_INF_PREFIX_BYTES = META_INF_PREFIX.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] VERSIONS_PREFIX_BYTES = "META-INF/versions/".getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] MULTI_RELEASE_BYTES = "Multi-Release".getBytes(StandardCharsets.UTF_8);
+
 	private static final Name MULTI_RELEASE = new Name("Multi-Release");
 
 	private static final int BASE_VERSION = 8;
@@ -63,7 +80,7 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 
 	private static final char NO_SUFFIX = 0;
 
-	protected static final int ENTRY_CACHE_SIZE = 25;
+	private static final Bytes.AsciiBytes CLASS_SUFFIX = new Bytes.AsciiBytes(".class");
 
 	private final JarFile jarFile;
 
@@ -77,21 +94,25 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 
 	private Offsets centralDirectoryOffsets;
 
-	private int[] positions;
+	private int[] nameOffsets;
+
+	private byte[] names;
+
+	private int[] table;
+
+	private int tableShift;
+
+	private boolean hasVersionedEntries;
 
 	private Boolean multiReleaseJar;
 
-	private JarEntryCertification[] certifications;
+	private volatile VersionOverlay versionOverlay;
 
-	private final Map<Integer, FileHeader> entriesCache = Collections
-			.synchronizedMap(new LinkedHashMap<Integer, FileHeader>(16, 0.75f, true) {
+	private BloomFilter nameFilter;
 
-				@Override
-				protected boolean removeEldestEntry(Map.Entry<Integer, FileHeader> eldest) {
-					return size() >= ENTRY_CACHE_SIZE;
-				}
+	private JarEntryCertification[] certifications;
 
-			});
+	private FileHeaderCache entriesCache;
 
 	JarFileEntries(JarFile jarFile, JarEntryFilter filter) {
 		this.jarFile = jarFile;
@@ -104,7 +125,9 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 		this.centralDirectoryData = centralDirectoryData;
 		this.hashCodes = new int[maxSize];
 		this.centralDirectoryOffsets = Offsets.from(endRecord);
-		this.positions = new int[maxSize];
+		this.nameOffsets = new int[maxSize + 1];
+		// Names can't be longer than the central directory itself, the array is trimmed at the end
+		this.names = new byte[(int) Math.min(centralDirectoryData.getSize(), Integer.MAX_VALUE - 8)];
 	}
 
 	@Override
@@ -116,58 +139,233 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 	}
 
 	private void add(Bytes.AsciiBytes name, long dataOffset) {
+		int nameOffset = this.nameOffsets[this.size];
+		int nameLength = name.length();
+		if (nameOffset + nameLength > this.names.length) {
+			// A filter may have made the name longer than the one in the central directory
+			this.names = Arrays.copyOf(this.names, Math.max(this.names.length * 2, nameOffset + nameLength));
+		}
+		name.copyTo(this.names, nameOffset);
+		this.nameOffsets[this.size + 1] = nameOffset + nameLength;
 		this.hashCodes[this.size] = name.hashCode();
 		this.centralDirectoryOffsets.set(this.size, dataOffset);
-		this.positions[this.size] = this.size;
+		if (!this.hasVersionedEntries && startsWith(this.size, VERSIONS_PREFIX_BYTES)) {
+			this.hasVersionedEntries = true;
+		}
 		this.size++;
 	}
 
 	@Override
 	public void visitEnd() {
-		sort(0, this.size - 1);
-		int[] positions = this.positions;
-		this.positions = new int[positions.length];
+		this.names = Arrays.copyOf(this.names, this.nameOffsets[this.size]);
+		buildTable();
+		buildNameFilter();
+		this.entriesCache = new FileHeaderCache(this.size);
+	}
+
+	/**
+	 * Write the parsed entries, so that they can be restored by {@link #read} without
+	 * parsing the central directory again.
+	 * @param output the destination
+	 * @param multiRelease whether the manifest of the jar declares it as multi-release
+	 * @throws IOException if the entries cannot be written
+	 */
+	void write(DataOutput output, boolean multiRelease) throws IOException {
+		output.writeInt(this.size);
+		output.writeBoolean(this.centralDirectoryOffsets instanceof Zip64Offsets);
+		output.writeBoolean(this.hasVersionedEntries);
+		output.writeBoolean(multiRelease);
 		for (int i = 0; i < this.size; i++) {
-			this.positions[positions[i]] = i;
+			output.writeInt(this.hashCodes[i]);
+		}
+		this.centralDirectoryOffsets.write(output, this.size);
+		for (int i = 0; i <= this.size; i++) {
+			output.writeInt(this.nameOffsets[i]);
 		}
+		output.write(this.names, 0, this.nameOffsets[this.size]);
 	}
 
-	int getSize() {
-		return this.size;
+	/**
+	 * Restore the entries of a jar file from the data written by {@link #write}.
+	 * @param jarFile the jar file
+	 * @param buffer the source data, positioned at the beginning of the entries
+	 * @param centralDirectoryData the central directory of the jar file
+	 * @return the entries
+	 * @throws IllegalArgumentException if the data is not consistent
+	 * @throws java.nio.BufferUnderflowException if the data is truncated
+	 */
+	static JarFileEntries read(JarFile jarFile, ByteBuffer buffer, RandomAccessData centralDirectoryData) {
+		JarFileEntries entries = new JarFileEntries(jarFile, null);
+		int size = buffer.getInt();
+		boolean zip64 = buffer.get() != 0;
+		entries.hasVersionedEntries = buffer.get() != 0;
+		boolean multiRelease = buffer.get() != 0;
+		long entrySize = Integer.BYTES * 2 + (zip64 ? Long.BYTES : Integer.BYTES);
+		if (size < 0 || size * entrySize + Integer.BYTES > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid number of entries " + size);
+		}
+		entries.multiReleaseJar = entries.hasVersionedEntries && multiRelease;
+		entries.centralDirectoryData = centralDirectoryData;
+		entries.size = size;
+		entries.hashCodes = readInts(buffer, size);
+		entries.centralDirectoryOffsets = Offsets.read(buffer, size, zip64);
+		entries.nameOffsets = readInts(buffer, size + 1);
+		long centralDirectorySize = centralDirectoryData.getSize();
+		for (int i = 0; i < size; i++) {
+			long offset = entries.centralDirectoryOffsets.get(i);
+			if (offset < 0 || offset >= centralDirectorySize || entries.nameOffsets[i] < 0
+					|| entries.nameOffsets[i] > entries.nameOffsets[i + 1]) {
+				throw new IllegalArgumentException("Invalid entry " + i);
+			}
+		}
+		if (entries.nameOffsets[0] != 0 || entries.nameOffsets[size] != buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid length of entry names");
+		}
+		entries.names = new byte[entries.nameOffsets[size]];
+		buffer.get(entries.names);
+		entries.buildTable();
+		entries.buildNameFilter();
+		entries.entriesCache = new FileHeaderCache(size);
+		return entries;
 	}
 
-	private void sort(int left, int right) {
-		// Quick sort algorithm, uses hashCodes as the source but sorts all arrays
-		if (left < right) {
-			int pivot = this.hashCodes[left + (right - left) / 2];
-			int i = left;
-			int j = right;
-			while (i <= j) {
-				while (this.hashCodes[i] < pivot) {
-					i++;
-				}
-				while (this.hashCodes[j] > pivot) {
-					j--;
-				}
-				if (i <= j) {
-					swap(i, j);
-					i++;
-					j--;
-				}
+	private static int[] readInts(ByteBuffer buffer, int length) {
+		int[] result = new int[length];
+		buffer.asIntBuffer().get(result);
+		((Buffer) buffer).position(buffer.position() + length * Integer.BYTES);
+		return result;
+	}
+
+	private void buildTable() {
+		// Keep the load factor at 0.5 at most, so that probe sequences stay short
+		int capacity = Integer.highestOneBit(Math.max(1, this.size) * 2 - 1) << 1;
+		int[] table = new int[capacity];
+		this.tableShift = Integer.numberOfLeadingZeros(capacity) + 1;
+		int mask = capacity - 1;
+		for (int i = 0; i < this.size; i++) {
+			int slot = getSlot(this.hashCodes[i]);
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
 			}
-			if (left < j) {
-				sort(left, j);
+			table[slot] = i + 1;
+		}
+		this.table = table;
+	}
+
+	private void buildNameFilter() {
+		BloomFilter filter = new BloomFilter(this.size);
+		for (int i = 0; i < this.size; i++) {
+			filter.add(this.hashCodes[i]);
+			if (this.hasVersionedEntries && getVersion(i) > 0) {
+				// Versioned entries can also be looked up by their base name
+				int start = getBaseNameStart(i);
+				filter.add(new Bytes.AsciiBytes(this.names, start, this.nameOffsets[i + 1] - start).hashCode());
 			}
-			if (right > i) {
-				sort(i, right);
+		}
+		this.nameFilter = filter;
+	}
+
+	/**
+	 * Pass each directory containing at least one entry to the given action, directories are
+	 * represented by their name followed by a slash, the root directory by an empty string.
+	 * Versioned entries count as part of the directory of their base name, an entry that is
+	 * itself a directory also counts as part of its parent directory. Adjacent duplicates are
+	 * skipped, but a directory can still be passed more than once.
+	 * @param action the action receiving the directory names
+	 */
+	void forEachDirectory(Consumer<String> action) {
+		int previousStart = 0;
+		int previousLength = -1;
+		for (int i = 0; i < this.size; i++) {
+			int start = this.nameOffsets[i];
+			int end = this.nameOffsets[i + 1];
+			if (this.hasVersionedEntries && getVersion(i) > 0) {
+				start = getBaseNameStart(i);
 			}
+			else if (startsWith(i, VERSIONS_PREFIX_BYTES)) {
+				continue;
+			}
+			int length = getDirectoryLength(start, end);
+			if (length != previousLength || !regionEquals(start, previousStart, length)) {
+				action.accept(new String(this.names, start, length, StandardCharsets.UTF_8));
+				previousStart = start;
+				previousLength = length;
+			}
+			if (length == end - start && length > 0) {
+				int parentLength = getDirectoryLength(start, end - 1);
+				action.accept(new String(this.names, start, parentLength, StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	private int getDirectoryLength(int start, int end) {
+		int position = end - 1;
+		while (position >= start && this.names[position] != SLASH) {
+			position--;
 		}
+		return position + 1 - start;
 	}
 
-	private void swap(int i, int j) {
-		swap(this.hashCodes, i, j);
-		this.centralDirectoryOffsets.swap(i, j);
-		swap(this.positions, i, j);
+	private boolean regionEquals(int start, int otherStart, int length) {
+		for (int i = 0; i < length; i++) {
+			if (this.names[start + i] != this.names[otherStart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the number of bytes used by the Bloom filter of the entry names.
+	 * @return the filter footprint in bytes
+	 */
+	long getNameFilterFootprint() {
+		return this.nameFilter.getFootprint();
+	}
+
+	/**
+	 * Return the number of bytes used by the arrays indexing the entries, including the
+	 * entry names and the Bloom filter, but excluding the cached headers.
+	 * @return the index footprint in bytes
+	 */
+	long getFootprint() {
+		return (long) (this.hashCodes.length + this.nameOffsets.length + this.table.length) * Integer.BYTES
+				+ this.names.length + this.centralDirectoryOffsets.getFootprint() + getNameFilterFootprint();
+	}
+
+	private int getSlot(int hashCode) {
+		return (hashCode * 0x9E3779B9) >>> this.tableShift;
+	}
+
+	/**
+	 * Return the position of the first entry with the given name.
+	 * @param hashCode the hash code of the name followed by the suffix
+	 * @param name the name to look for
+	 * @param suffix an additional suffix (or {@code 0})
+	 * @return the position of the entry or {@code -1} if there is no such entry
+	 */
+	private int findIndex(int hashCode, CharSequence name, char suffix) {
+		int[] table = this.table;
+		int mask = table.length - 1;
+		int slot = getSlot(hashCode);
+		int candidate;
+		while ((candidate = table[slot]) != 0) {
+			int index = candidate - 1;
+			if (this.hashCodes[index] == hashCode && Bytes.AsciiBytes.matches(this.names, this.nameOffsets[index],
+					this.nameOffsets[index + 1] - this.nameOffsets[index], name, suffix)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	int getSize() {
+		return this.size;
+	}
+
+	boolean hasVersionedEntries() {
+		return this.hasVersionedEntries;
 	}
 
 	@Override
@@ -179,6 +377,17 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 		return new EntryIterator(validator);
 	}
 
+	/**
+	 * Return an iterator over the entries as seen by the running JVM: versioned entries
+	 * replace their base entries and appear under the base name, versioned entries of other
+	 * releases and {@code META-INF/versions/} directories are skipped.
+	 * @param validator run before each access to the iterator
+	 * @return the iterator
+	 */
+	Iterator<JarEntry> versionedIterator(Runnable validator) {
+		return new VersionedEntryIterator(validator);
+	}
+
 	boolean containsEntry(CharSequence name) {
 		return getEntry(name, FileHeader.class, true) != null;
 	}
@@ -196,6 +405,20 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 		if (entry == null) {
 			return null;
 		}
+		if (entry.getMethod() == ZipEntry.DEFLATED && isCacheable(entry)) {
+			// Class files are usually read only once, so only resources are cached
+			EntryDataCache cache = EntryDataCache.getInstance();
+			long offset = entry.getLocalHeaderOffset();
+			ByteBuffer buffer = cache.get(this, offset);
+			if (buffer == null) {
+				buffer = cache.put(this, offset, getInflatedInputStream(entry), (int) entry.getSize());
+			}
+			return new EntryDataCache.ByteBufferInputStream(buffer);
+		}
+		return getInflatedInputStream(entry);
+	}
+
+	private InputStream getInflatedInputStream(FileHeader entry) throws IOException {
 		InputStream inputStream = getEntryData(entry).getInputStream();
 		if (entry.getMethod() == ZipEntry.DEFLATED) {
 			inputStream = new ZipInflaterInputStream(inputStream, (int) entry.getSize());
@@ -203,6 +426,15 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 		return inputStream;
 	}
 
+	private boolean isCacheable(FileHeader entry) {
+		if (!EntryDataCache.getInstance().accepts(entry.getSize())) {
+			return false;
+		}
+		Bytes.AsciiBytes name = (entry instanceof JarEntry) ? ((JarEntry) entry).getAsciiBytesName()
+				: ((CentralDirectoryFileHeader) entry).getName();
+		return !name.endsWith(CLASS_SUFFIX);
+	}
+
 	RandomAccessData getEntryData(String name) throws IOException {
 		FileHeader entry = getEntry(name, FileHeader.class, false);
 		if (entry == null) {
@@ -224,24 +456,54 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 	}
 
 	private <T extends FileHeader> T getEntry(CharSequence name, Class<T> type, boolean cacheEntry) {
-		T entry = doGetEntry(name, type, cacheEntry, null);
-		if (!isMetaInfEntry(name) && isMultiReleaseJar()) {
-			int version = RUNTIME_VERSION;
-			Bytes.AsciiBytes nameAlias = (entry instanceof JarEntry) ? ((JarEntry) entry).getAsciiBytesName()
-					: new Bytes.AsciiBytes(name.toString());
-			while (version > BASE_VERSION) {
-				T versionedEntry = doGetEntry("META-INF/versions/" + version + "/" + name, type, cacheEntry, nameAlias);
-				if (versionedEntry != null) {
-					return versionedEntry;
-				}
-				version--;
+		int hashCode = Bytes.AsciiBytes.hashCode(name);
+		int directoryHashCode = Bytes.AsciiBytes.hashCode(hashCode, SLASH);
+		if (!this.nameFilter.mightContain(hashCode) && !this.nameFilter.mightContain(directoryHashCode)) {
+			return null;
+		}
+		if (isMultiReleaseJar() && !isMetaInfEntry(name)) {
+			T versionedEntry = getVersionedEntry(hashCode, directoryHashCode, name, type, cacheEntry);
+			if (versionedEntry != null) {
+				return versionedEntry;
 			}
 		}
-		return entry;
+		return doGetEntry(hashCode, directoryHashCode, name, type, cacheEntry, null);
+	}
+
+	private <T extends FileHeader> T getVersionedEntry(int hashCode, int directoryHashCode, CharSequence name,
+			Class<T> type, boolean cacheEntry) {
+		VersionOverlay overlay = getVersionOverlay();
+		int slot = overlay.find(hashCode, name, NO_SUFFIX);
+		if (slot < 0) {
+			slot = overlay.find(directoryHashCode, name, SLASH);
+		}
+		return (slot >= 0) ? getEntry(overlay.getIndex(slot), type, cacheEntry, overlay.getAlias(slot)) : null;
+	}
+
+	private static boolean isMetaInfEntry(CharSequence name) {
+		int length = META_INF_PREFIX.length();
+		if (name.length() < length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (name.charAt(i) != META_INF_PREFIX.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
-	private boolean isMetaInfEntry(CharSequence name) {
-		return name.toString().startsWith(META_INF_PREFIX);
+	private boolean startsWith(int index, byte[] prefix) {
+		int offset = this.nameOffsets[index];
+		if (this.nameOffsets[index + 1] - offset < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (this.names[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	private boolean isMultiReleaseJar() {
@@ -250,13 +512,17 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 			return multiRelease;
 		}
 		try {
-			Manifest manifest = this.jarFile.getManifest();
-			if (manifest == null) {
+			// A jar without versioned entries behaves the same whether it is multi-release or not
+			if (!this.hasVersionedEntries) {
 				multiRelease = false;
 			}
+			else if (this.filter != null) {
+				// Filtered jars may get their manifest from elsewhere
+				Manifest manifest = this.jarFile.getManifest();
+				multiRelease = manifest != null && manifest.getMainAttributes().containsKey(MULTI_RELEASE);
+			}
 			else {
-				Attributes attributes = manifest.getMainAttributes();
-				multiRelease = attributes.containsKey(MULTI_RELEASE);
+				multiRelease = hasMainAttribute(readManifest(), MULTI_RELEASE_BYTES);
 			}
 		}
 		catch (IOException ex) {
@@ -266,42 +532,179 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 		return multiRelease;
 	}
 
+	private byte[] readManifest() throws IOException {
+		FileHeader entry = doGetEntry(java.util.jar.JarFile.MANIFEST_NAME, FileHeader.class, false, null);
+		if (entry == null || entry.getSize() > Integer.MAX_VALUE) {
+			return new byte[0];
+		}
+		byte[] manifest = new byte[(int) entry.getSize()];
+		try (InputStream inputStream = getInputStream(entry)) {
+			int read = 0;
+			while (read < manifest.length) {
+				int chunk = inputStream.read(manifest, read, manifest.length - read);
+				if (chunk < 0) {
+					break;
+				}
+				read += chunk;
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Check whether the main section of a raw manifest contains the given attribute,
+	 * without parsing the whole manifest.
+	 * @param manifest the manifest bytes
+	 * @param name the attribute name, compared ignoring the case
+	 * @return {@code true} if the attribute is present
+	 */
+	static boolean hasMainAttribute(byte[] manifest, byte[] name) {
+		int lineStart = 0;
+		while (lineStart < manifest.length) {
+			int lineEnd = lineStart;
+			while (lineEnd < manifest.length && manifest[lineEnd] != '\n' && manifest[lineEnd] != '\r') {
+				lineEnd++;
+			}
+			if (lineEnd == lineStart) {
+				// An empty line ends the main section
+				return false;
+			}
+			if (lineEnd - lineStart > name.length && manifest[lineStart + name.length] == ':') {
+				boolean matches = true;
+				for (int i = 0; i < name.length && matches; i++) {
+					matches = Character.toLowerCase(manifest[lineStart + i]) == Character.toLowerCase(name[i]);
+				}
+				if (matches) {
+					return true;
+				}
+			}
+			if (lineEnd < manifest.length && manifest[lineEnd] == '\r') {
+				lineEnd++;
+			}
+			if (lineEnd < manifest.length && manifest[lineEnd] == '\n') {
+				lineEnd++;
+			}
+			lineStart = lineEnd;
+		}
+		return false;
+	}
+
+	private VersionOverlay getVersionOverlay() {
+		VersionOverlay overlay = this.versionOverlay;
+		if (overlay == null) {
+			overlay = buildVersionOverlay();
+			this.versionOverlay = overlay;
+		}
+		return overlay;
+	}
+
+	private VersionOverlay buildVersionOverlay() {
+		// Candidates are sorted by descending version, so the first one added for a name wins
+		long[] candidates = new long[this.size];
+		int count = 0;
+		for (int i = 0; i < this.size; i++) {
+			int version = getVersion(i);
+			if (version > BASE_VERSION && version <= RUNTIME_VERSION) {
+				candidates[count++] = ((long) (RUNTIME_VERSION - version) << 32) | i;
+			}
+		}
+		Arrays.sort(candidates, 0, count);
+		VersionOverlay overlay = new VersionOverlay(count);
+		for (int i = 0; i < count; i++) {
+			overlay.add((int) candidates[i]);
+		}
+		return overlay;
+	}
+
+	/**
+	 * Return the version of an entry under {@code META-INF/versions/}.
+	 * @param index the entry position
+	 * @return the version or {@code -1} if the entry is not a versioned entry, is a
+	 * version directory or is a versioned {@code META-INF} entry
+	 */
+	private int getVersion(int index) {
+		if (!startsWith(index, VERSIONS_PREFIX_BYTES)) {
+			return -1;
+		}
+		int end = this.nameOffsets[index + 1];
+		int position = this.nameOffsets[index] + VERSIONS_PREFIX_BYTES.length;
+		int version = 0;
+		int digits = 0;
+		while (position < end && this.names[position] != SLASH) {
+			int digit = this.names[position++] - '0';
+			if (digit < 0 || digit > 9 || ++digits > 9) {
+				return -1;
+			}
+			version = version * 10 + digit;
+		}
+		int baseStart = position + 1;
+		if (digits == 0 || baseStart >= end || isMetaInfName(baseStart, end)) {
+			return -1;
+		}
+		return version;
+	}
+
+	/**
+	 * Return the position in {@code names} of the base name of a versioned entry.
+	 * @param index the position of an entry for which {@link #getVersion(int)} is positive
+	 * @return the position of the first byte after the version directory
+	 */
+	private int getBaseNameStart(int index) {
+		int start = this.nameOffsets[index] + VERSIONS_PREFIX_BYTES.length;
+		while (this.names[start] != SLASH) {
+			start++;
+		}
+		return start + 1;
+	}
+
+	private boolean isMetaInfName(int start, int end) {
+		if (end - start < META_INF_PREFIX_BYTES.length) {
+			return false;
+		}
+		for (int i = 0; i < META_INF_PREFIX_BYTES.length; i++) {
+			if (this.names[start + i] != META_INF_PREFIX_BYTES[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private <T extends FileHeader> T doGetEntry(CharSequence name, Class<T> type, boolean cacheEntry,
 			Bytes.AsciiBytes nameAlias) {
 		int hashCode = Bytes.AsciiBytes.hashCode(name);
+		return doGetEntry(hashCode, Bytes.AsciiBytes.hashCode(hashCode, SLASH), name, type, cacheEntry, nameAlias);
+	}
+
+	private <T extends FileHeader> T doGetEntry(int hashCode, int directoryHashCode, CharSequence name,
+			Class<T> type, boolean cacheEntry, Bytes.AsciiBytes nameAlias) {
 		T entry = getEntry(hashCode, name, NO_SUFFIX, type, cacheEntry, nameAlias);
 		if (entry == null) {
-			hashCode = Bytes.AsciiBytes.hashCode(hashCode, SLASH);
-			entry = getEntry(hashCode, name, SLASH, type, cacheEntry, nameAlias);
+			entry = getEntry(directoryHashCode, name, SLASH, type, cacheEntry, nameAlias);
 		}
 		return entry;
 	}
 
 	private <T extends FileHeader> T getEntry(int hashCode, CharSequence name, char suffix, Class<T> type,
 			boolean cacheEntry, Bytes.AsciiBytes nameAlias) {
-		int index = getFirstIndex(hashCode);
-		while (index >= 0 && index < this.size && this.hashCodes[index] == hashCode) {
-			T entry = getEntry(index, type, cacheEntry, nameAlias);
-			if (entry.hasName(name, suffix)) {
-				return entry;
-			}
-			index++;
-		}
-		return null;
+		int index = findIndex(hashCode, name, suffix);
+		return (index >= 0) ? getEntry(index, type, cacheEntry, nameAlias) : null;
 	}
 
 	@SuppressWarnings("unchecked")
 	private <T extends FileHeader> T getEntry(int index, Class<T> type, boolean cacheEntry, Bytes.AsciiBytes nameAlias) {
 		try {
 			long offset = this.centralDirectoryOffsets.get(index);
-			FileHeader cached = this.entriesCache.get(index);
+			// Entries looked up through an alias carry the alias as their name, a versioned entry
+			// has a single alias so it is cached under a second key
+			int cacheKey = (nameAlias != null) ? index + this.size : index;
+			FileHeader cached = this.entriesCache.get(cacheKey);
 			FileHeader entry = (cached != null) ? cached
 					: CentralDirectoryFileHeader.fromRandomAccessData(this.centralDirectoryData, offset, this.filter);
 			if (CentralDirectoryFileHeader.class.equals(entry.getClass()) && type.equals(JarEntry.class)) {
 				entry = new JarEntry(this.jarFile, index, (CentralDirectoryFileHeader) entry, nameAlias);
 			}
 			if (cacheEntry && cached != entry) {
-				this.entriesCache.put(index, entry);
+				this.entriesCache.put(cacheKey, entry);
 			}
 			return (T) entry;
 		}
@@ -310,19 +713,17 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 		}
 	}
 
-	private int getFirstIndex(int hashCode) {
-		int index = Arrays.binarySearch(this.hashCodes, 0, this.size, hashCode);
-		if (index < 0) {
-			return -1;
-		}
-		while (index > 0 && this.hashCodes[index - 1] == hashCode) {
-			index--;
-		}
-		return index;
-	}
-
 	void clearCache() {
 		this.entriesCache.clear();
+		EntryDataCache.getInstance().evict(this);
+	}
+
+	long getCentralDirectorySize() {
+		return this.centralDirectoryData.getSize();
+	}
+
+	FileHeaderCache getEntriesCache() {
+		return this.entriesCache;
 	}
 
 	private Bytes.AsciiBytes applyFilter(Bytes.AsciiBytes name) {
@@ -353,28 +754,7 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 	}
 
 	private int getEntryIndex(CharSequence name) {
-		int hashCode = Bytes.AsciiBytes.hashCode(name);
-		int index = getFirstIndex(hashCode);
-		while (index >= 0 && index < this.size && this.hashCodes[index] == hashCode) {
-			FileHeader candidate = getEntry(index, FileHeader.class, false, null);
-			if (candidate.hasName(name, NO_SUFFIX)) {
-				return index;
-			}
-			index++;
-		}
-		return -1;
-	}
-
-	private static void swap(int[] array, int i, int j) {
-		int temp = array[i];
-		array[i] = array[j];
-		array[j] = temp;
-	}
-
-	private static void swap(long[] array, int i, int j) {
-		long temp = array[i];
-		array[i] = array[j];
-		array[j] = temp;
+		return findIndex(Bytes.AsciiBytes.hashCode(name), name, NO_SUFFIX);
 	}
 
 	private static int javaSpecificationVersion() {
@@ -412,9 +792,179 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 			if (!hasNext()) {
 				throw new NoSuchElementException();
 			}
-			int entryIndex = JarFileEntries.this.positions[this.index];
-			this.index++;
-			return getEntry(entryIndex, JarEntry.class, false, null);
+			return getEntry(this.index++, JarEntry.class, false, null);
+		}
+
+	}
+
+	/**
+	 * Iterator for the entries visible to the running JVM.
+	 */
+	private final class VersionedEntryIterator implements Iterator<JarEntry> {
+
+		private final Runnable validator;
+
+		private final VersionOverlay overlay;
+
+		private final boolean[] replaced;
+
+		private int index = 0;
+
+		private int slot = 0;
+
+		private JarEntry next;
+
+		private VersionedEntryIterator(Runnable validator) {
+			this.validator = validator;
+			validator.run();
+			this.overlay = isMultiReleaseJar() ? getVersionOverlay() : null;
+			this.replaced = (this.overlay != null) ? new boolean[this.overlay.getCapacity()] : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			this.validator.run();
+			advance();
+			return this.next != null;
+		}
+
+		@Override
+		public JarEntry next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			JarEntry result = this.next;
+			this.next = null;
+			return result;
+		}
+
+		private void advance() {
+			while (this.next == null && this.index < JarFileEntries.this.size) {
+				int entryIndex = this.index++;
+				if (startsWith(entryIndex, VERSIONS_PREFIX_BYTES)) {
+					continue;
+				}
+				int versionedSlot = (this.overlay != null) ? this.overlay.find(entryIndex) : -1;
+				if (versionedSlot >= 0) {
+					this.replaced[versionedSlot] = true;
+					this.next = getEntry(this.overlay.getIndex(versionedSlot), JarEntry.class, false,
+							this.overlay.getAlias(versionedSlot));
+				}
+				else {
+					this.next = getEntry(entryIndex, JarEntry.class, false, null);
+				}
+			}
+			// Versioned entries without a base entry come last
+			while (this.next == null && this.overlay != null && this.slot < this.overlay.getCapacity()) {
+				int versionedSlot = this.slot++;
+				if (this.overlay.getIndex(versionedSlot) >= 0 && !this.replaced[versionedSlot]) {
+					this.next = getEntry(this.overlay.getIndex(versionedSlot), JarEntry.class, false,
+							this.overlay.getAlias(versionedSlot));
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Open-addressing table from base names to the position of the versioned entry with
+	 * the highest version supported by the running JVM. The base name of a versioned entry is
+	 * the tail of its name in the {@code names} array, so it takes no extra space.
+	 */
+	private final class VersionOverlay {
+
+		private final int[] entries;
+
+		private final int[] hashCodes;
+
+		private final int[] nameStarts;
+
+		private final int shift;
+
+		private VersionOverlay(int count) {
+			int capacity = Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+			this.entries = new int[capacity];
+			this.hashCodes = new int[capacity];
+			this.nameStarts = new int[capacity];
+			this.shift = Integer.numberOfLeadingZeros(capacity) + 1;
+		}
+
+		private void add(int index) {
+			int end = JarFileEntries.this.nameOffsets[index + 1];
+			int start = getBaseNameStart(index);
+			int hashCode = new Bytes.AsciiBytes(JarFileEntries.this.names, start, end - start).hashCode();
+			int slot = findSlot(hashCode, start, end);
+			if (this.entries[slot] == 0) {
+				this.entries[slot] = index + 1;
+				this.hashCodes[slot] = hashCode;
+				this.nameStarts[slot] = start;
+			}
+		}
+
+		/**
+		 * Return the slot holding the given base name, or the empty slot where it would be added.
+		 */
+		private int findSlot(int hashCode, int start, int end) {
+			byte[] names = JarFileEntries.this.names;
+			int mask = this.entries.length - 1;
+			int slot = (hashCode * 0x9E3779B9) >>> this.shift;
+			while (this.entries[slot] != 0) {
+				if (this.hashCodes[slot] == hashCode) {
+					int candidateStart = this.nameStarts[slot];
+					int candidateEnd = JarFileEntries.this.nameOffsets[this.entries[slot]];
+					if (candidateEnd - candidateStart == end - start) {
+						int i = 0;
+						while (i < end - start && names[candidateStart + i] == names[start + i]) {
+							i++;
+						}
+						if (i == end - start) {
+							return slot;
+						}
+					}
+				}
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		/**
+		 * Return the slot of the versioned entry replacing a base entry.
+		 * @param index the position of the base entry
+		 * @return the slot or {@code -1} if the entry is not replaced
+		 */
+		private int find(int index) {
+			int slot = findSlot(JarFileEntries.this.hashCodes[index], JarFileEntries.this.nameOffsets[index],
+					JarFileEntries.this.nameOffsets[index + 1]);
+			return (this.entries[slot] != 0) ? slot : -1;
+		}
+
+		private int find(int hashCode, CharSequence name, char suffix) {
+			int mask = this.entries.length - 1;
+			int slot = (hashCode * 0x9E3779B9) >>> this.shift;
+			int candidate;
+			while ((candidate = this.entries[slot]) != 0) {
+				int start = this.nameStarts[slot];
+				if (this.hashCodes[slot] == hashCode && Bytes.AsciiBytes.matches(JarFileEntries.this.names, start,
+						JarFileEntries.this.nameOffsets[candidate] - start, name, suffix)) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private int getCapacity() {
+			return this.entries.length;
+		}
+
+		private int getIndex(int slot) {
+			return this.entries[slot] - 1;
+		}
+
+		private Bytes.AsciiBytes getAlias(int slot) {
+			int start = this.nameStarts[slot];
+			return new Bytes.AsciiBytes(JarFileEntries.this.names, start,
+					JarFileEntries.this.nameOffsets[this.entries[slot]] - start);
 		}
 
 	}
@@ -430,13 +980,28 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 
 		long get(int index);
 
-		void swap(int i, int j);
+		void write(DataOutput output, int size) throws IOException;
+
+		long getFootprint();
 
 		static Offsets from(CentralDirectoryEndRecord endRecord) {
 			int size = endRecord.getNumberOfRecords();
 			return endRecord.isZip64() ? new Zip64Offsets(size) : new ZipOffsets(size);
 		}
 
+		static Offsets read(ByteBuffer buffer, int size, boolean zip64) {
+			if (zip64) {
+				Zip64Offsets offsets = new Zip64Offsets(size);
+				buffer.asLongBuffer().get(offsets.offsets);
+				((Buffer) buffer).position(buffer.position() + size * Long.BYTES);
+				return offsets;
+			}
+			ZipOffsets offsets = new ZipOffsets(size);
+			buffer.asIntBuffer().get(offsets.offsets);
+			((Buffer) buffer).position(buffer.position() + size * Integer.BYTES);
+			return offsets;
+		}
+
 	}
 
 	/**
@@ -450,11 +1015,6 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 			this.offsets = new int[size];
 		}
 
-		@Override
-		public void swap(int i, int j) {
-			JarFileEntries.swap(this.offsets, i, j);
-		}
-
 		@Override
 		public void set(int index, long value) {
 			this.offsets[index] = (int) value;
@@ -465,6 +1025,18 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 			return this.offsets[index];
 		}
 
+		@Override
+		public void write(DataOutput output, int size) throws IOException {
+			for (int i = 0; i < size; i++) {
+				output.writeInt(this.offsets[i]);
+			}
+		}
+
+		@Override
+		public long getFootprint() {
+			return (long) this.offsets.length * Integer.BYTES;
+		}
+
 	}
 
 	/**
@@ -478,11 +1050,6 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 			this.offsets = new long[size];
 		}
 
-		@Override
-		public void swap(int i, int j) {
-			JarFileEntries.swap(this.offsets, i, j);
-		}
-
 		@Override
 		public void set(int index, long value) {
 			this.offsets[index] = value;
@@ -493,6 +1060,18 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 			return this.offsets[index];
 		}
 
+		@Override
+		public void write(DataOutput output, int size) throws IOException {
+			for (int i = 0; i < size; i++) {
+				output.writeLong(this.offsets[i]);
+			}
+		}
+
+		@Override
+		public long getFootprint() {
+			return (long) this.offsets.length * Long.BYTES;
+		}
+
 	}
 
 }
@@ -22,6 +22,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.Permission;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.jar.JarEntry;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
@@ -73,6 +74,10 @@ class JarFileWrapper extends AbstractJarFile {
 		return this.parent.stream();
 	}
 
+	Iterator<JarEntry> versionedIterator() {
+		return this.parent.versionedIterator();
+	}
+
 	@Override
 	public JarEntry getJarEntry(String name) {
 		return this.parent.getJarEntry(name);
@@ -252,11 +252,11 @@ final class JarURLConnection extends java.net.JarURLConnection {
 		int separator;
 		while ((separator = spec.indexOf(SEPARATOR, index)) > 0) {
 			JarEntryName entryName = JarEntryName.get(spec.subSequence(index, separator));
-			JarEntry jarEntry = jarFile.getJarEntry(entryName.toCharSequence());
-			if (jarEntry == null) {
+			JarFile nestedJarFile = jarFile.getNestedJarFile(entryName.toCharSequence());
+			if (nestedJarFile == null) {
 				return JarURLConnection.notFound(jarFile, entryName);
 			}
-			jarFile = jarFile.getNestedJarFile(jarEntry);
+			jarFile = nestedJarFile;
 			index = separator + SEPARATOR.length();
 		}
 		JarEntryName jarEntryName = JarEntryName.get(spec, index);
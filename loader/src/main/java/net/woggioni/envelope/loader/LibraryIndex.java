@@ -0,0 +1,344 @@
+package net.woggioni.envelope.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Pre-parsed central directories of the libraries nested in an envelope jar, written at build time
+ * in the {@value #ENTRY_NAME} entry of the envelope jar, so that the launcher can open its libraries
+ * without locating and parsing their end records and central directories.
+ * <p>
+ * The index starts with a directory mapping the name of each library entry to the CRC-32 and size
+ * of the library and to the position of its section; a section holds the location of the central
+ * directory in the library and the entry arrays of its {@link JarFileEntries}.
+ * A library is only opened from its section when both its CRC-32 and size match the ones
+ * recorded in the directory, otherwise its central directory is parsed as usual.
+ * <p>
+ * The sections hold the hash codes of the entry names, so the header records the hash code of
+ * a reference name and an index written with a different hash function is ignored.
+ * An index that is truncated or has inconsistent offsets and counts is ignored as well, as is a
+ * section inconsistent with the library it describes.
+ * <p>
+ * The header also records the alignment of the stored entries of the envelope jar, so that the launcher
+ * only looks for aligned libraries to map on their own in the archives built with an alignment.
+ */
+public final class LibraryIndex {
+
+    public static final String ENTRY_NAME = "META-INF/envelope.idx";
+
+    private static final int MAGIC = 0x454e5649;
+
+    /**
+     * The version of the index format, to be incremented whenever the layout of the directory
+     * or of the sections changes
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * The hash code of a reference name, identifying the hash function of the entry names
+     */
+    private static final int HASH_CHECK = new Bytes.AsciiBytes("META-INF/versions/9/\u00e9/\u20ac\ud834\udd1e.class").hashCode();
+
+    private static final int HEADER_SIZE = Integer.BYTES * 5;
+
+    private static final int MAX_ALIGNMENT = 0xFFFF;
+
+    private static final int MIN_DIRECTORY_ENTRY_SIZE = Short.BYTES + Long.BYTES * 2 + Integer.BYTES * 2;
+
+    private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+
+    static final LibraryIndex EMPTY = new LibraryIndex(Collections.emptyMap(), 0);
+
+    private final Map<String, Section> sections;
+
+    private final int alignment;
+
+    private LibraryIndex(Map<String, Section> sections, int alignment) {
+        this.sections = sections;
+        this.alignment = alignment;
+    }
+
+    /**
+     * Read an index written by {@link Writer#write(OutputStream)}
+     * @param data the index content
+     * @return the index, or an empty index if the data is not a valid index of a supported version
+     * @throws IOException if the data cannot be read
+     */
+    static LibraryIndex read(RandomAccessData data) throws IOException {
+        return read(ByteBuffer.wrap(data.read()));
+    }
+
+    /**
+     * Read an index written by {@link Writer#write(OutputStream)}
+     * @param buffer the index content, from its current position
+     * @return the index, or an empty index if the data is not a valid index of a supported version
+     */
+    public static LibraryIndex read(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != HASH_CHECK) {
+                return EMPTY;
+            }
+            int alignment = buffer.getInt();
+            if (alignment < 0 || alignment > MAX_ALIGNMENT) {
+                return EMPTY;
+            }
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / MIN_DIRECTORY_ENTRY_SIZE) {
+                return EMPTY;
+            }
+            Map<String, Section> sections = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[buffer.getShort() & 0xffff];
+                buffer.get(name);
+                long crc = buffer.getLong();
+                long size = buffer.getLong();
+                int offset = buffer.getInt();
+                int length = buffer.getInt();
+                if (offset < HEADER_SIZE || length < 0 || (long) offset + length > buffer.limit()) {
+                    return EMPTY;
+                }
+                sections.put(new String(name, StandardCharsets.UTF_8), new Section(buffer, crc, size, offset, length));
+            }
+            return new LibraryIndex(sections, alignment);
+        } catch (BufferUnderflowException bue) {
+            return EMPTY;
+        }
+    }
+
+    /**
+     * @return the alignment of the data of the stored entries of the envelope jar, {@code 0} if they are not aligned
+     */
+    int getAlignment() {
+        return alignment;
+    }
+
+    /**
+     * Return the section of a library, positioned at its beginning
+     * @param name the name of the library entry
+     * @param crc the CRC-32 of the library entry
+     * @param size the size of the library entry
+     * @return the section or {@code null} if the library is not indexed or has changed since the index was written
+     */
+    public ByteBuffer getSection(String name, long crc, long size) {
+        Section section = sections.get(name);
+        if (section == null || section.crc != crc || section.size != size) {
+            return null;
+        }
+        ByteBuffer buffer = section.buffer.duplicate();
+        ((Buffer) buffer).position(section.offset);
+        ((Buffer) buffer).limit(section.offset + section.length);
+        return buffer.slice();
+    }
+
+    private static final class Section {
+
+        private final ByteBuffer buffer;
+
+        private final long crc;
+
+        private final long size;
+
+        private final int offset;
+
+        private final int length;
+
+        private Section(ByteBuffer buffer, long crc, long size, int offset, int length) {
+            this.buffer = buffer;
+            this.crc = crc;
+            this.size = size;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Builds an index from the library files, in the order they are added.
+     */
+    public static final class Writer {
+
+        private final List<String> names = new ArrayList<>();
+
+        private final List<long[]> checksums = new ArrayList<>();
+
+        private final List<byte[]> sections = new ArrayList<>();
+
+        private int alignment;
+
+        /**
+         * Record the alignment of the data of the stored entries of the envelope jar
+         * @param alignment the alignment, {@code 0} if the entries are not aligned
+         */
+        public void setAlignment(int alignment) {
+            if (alignment < 0 || alignment > MAX_ALIGNMENT) {
+                throw new IllegalArgumentException(String.format("Invalid alignment %d", alignment));
+            }
+            this.alignment = alignment;
+        }
+
+        /**
+         * Parse the central directory of a library and add it to the index
+         * @param name the name of the library entry in the envelope jar
+         * @param library the library file
+         * @param crc the CRC-32 of the library file
+         * @param size the size of the library file
+         * @return {@code true} if the library has been indexed, {@code false} if it is not a valid zip archive
+         */
+        public boolean add(String name, File library, long crc, long size) {
+            byte[] section = section(library);
+            if (section == null) {
+                return false;
+            }
+            add(name, crc, size, section);
+            return true;
+        }
+
+        /**
+         * Add a library whose section has already been computed
+         * @param name the name of the library entry in the envelope jar
+         * @param crc the CRC-32 of the library file
+         * @param size the size of the library file
+         * @param section the section returned by {@link #section(File)} for the library file
+         */
+        public void add(String name, long crc, long size, byte[] section) {
+            names.add(name);
+            checksums.add(new long[]{crc, size});
+            sections.add(section);
+        }
+
+        /**
+         * Parse the central directory of a library
+         * @param library the library file
+         * @return the section of the library, or {@code null} if it is not a valid zip archive
+         */
+        public static byte[] section(File library) {
+            try {
+                return writeSection(library);
+            } catch (IOException | RuntimeException e) {
+                // The loader parses the central directory of libraries missing from the index
+                return null;
+            }
+        }
+
+        private static byte[] writeSection(File library) throws IOException {
+            RandomAccessDataFile data = new RandomAccessDataFile(library);
+            try {
+                CentralDirectoryParser parser = new CentralDirectoryParser();
+                JarFileEntries entries = parser.addVisitor(new JarFileEntries(null, null));
+                LibraryVisitor visitor = parser.addVisitor(new LibraryVisitor(data));
+                parser.parse(data, true);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream output = new DataOutputStream(bos);
+                output.writeLong(visitor.archiveOffset);
+                output.writeLong(visitor.centralDirectoryOffset);
+                output.writeLong(visitor.centralDirectoryLength);
+                byte[] comment = visitor.comment.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(comment.length);
+                output.write(comment);
+                output.writeBoolean(visitor.signed);
+                entries.write(output, entries.hasVersionedEntries() && isMultiRelease(library));
+                output.flush();
+                return bos.toByteArray();
+            } finally {
+                data.close();
+            }
+        }
+
+        private static boolean isMultiRelease(File library) throws IOException {
+            try (java.util.jar.JarFile jarFile = new java.util.jar.JarFile(library, false)) {
+                Manifest manifest = jarFile.getManifest();
+                return manifest != null && manifest.getMainAttributes().containsKey(MULTI_RELEASE);
+            }
+        }
+
+        /**
+         * Write the index
+         * @param outputStream the destination, it is not closed by this method
+         * @throws IOException if the index cannot be written
+         */
+        public void write(OutputStream outputStream) throws IOException {
+            List<byte[]> encodedNames = new ArrayList<>(names.size());
+            int headerSize = HEADER_SIZE;
+            for (String name : names) {
+                byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+                encodedNames.add(encodedName);
+                headerSize += MIN_DIRECTORY_ENTRY_SIZE + encodedName.length;
+            }
+            DataOutputStream output = new DataOutputStream(outputStream);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(HASH_CHECK);
+            output.writeInt(alignment);
+            output.writeInt(names.size());
+            int offset = headerSize;
+            for (int i = 0; i < names.size(); i++) {
+                byte[] encodedName = encodedNames.get(i);
+                output.writeShort(encodedName.length);
+                output.write(encodedName);
+                output.writeLong(checksums.get(i)[0]);
+                output.writeLong(checksums.get(i)[1]);
+                output.writeInt(offset);
+                output.writeInt(sections.get(i).length);
+                offset += sections.get(i).length;
+            }
+            for (byte[] section : sections) {
+                output.write(section);
+            }
+            output.flush();
+        }
+    }
+
+    /**
+     * Collects the details of a library stored in its section besides its entries.
+     */
+    private static final class LibraryVisitor implements CentralDirectoryVisitor {
+
+        private final RandomAccessData data;
+
+        private long archiveOffset;
+
+        private long centralDirectoryOffset;
+
+        private long centralDirectoryLength;
+
+        private String comment;
+
+        private boolean signed;
+
+        private LibraryVisitor(RandomAccessData data) {
+            this.data = data;
+        }
+
+        @Override
+        public void visitStart(CentralDirectoryEndRecord endRecord, RandomAccessData centralDirectoryData) {
+            archiveOffset = endRecord.getStartOfArchive(data);
+            centralDirectoryOffset = endRecord.getCentralDirectoryOffset();
+            centralDirectoryLength = endRecord.getCentralDirectoryLength();
+            comment = endRecord.getComment();
+        }
+
+        @Override
+        public void visitFileHeader(CentralDirectoryFileHeader fileHeader, long dataOffset) {
+            if (JarFile.isSignatureFile(fileHeader.getName())) {
+                signed = true;
+            }
+        }
+
+        @Override
+        public void visitEnd() {
+        }
+    }
+}
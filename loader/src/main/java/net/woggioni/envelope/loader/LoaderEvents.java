@@ -0,0 +1,36 @@
+package net.woggioni.envelope.loader;
+
+/**
+ * Emits JDK Flight Recorder events for the hot operations of the loader.
+ * <p>
+ * Java 8 has no JFR API, so this implementation does nothing: the one in the {@code java11}
+ * source set of the multi-release jar emits the events. Every operation is recorded by a
+ * {@code begin} method, whose result is passed to the matching {@code commit} method once the
+ * operation has completed; the result is {@code null} when the event is not being recorded.
+ */
+final class LoaderEvents {
+
+    private LoaderEvents() {
+    }
+
+    static Object beginNestedJarOpen() {
+        return null;
+    }
+
+    static void commitNestedJarOpen(Object event, JarFile jarFile, boolean indexed, int entries, long centralDirectorySize) {
+    }
+
+    static Object beginClassDefine() {
+        return null;
+    }
+
+    static void commitClassDefine(Object event, String className, String source, int size, long readTime) {
+    }
+
+    static Object beginFileRead() {
+        return null;
+    }
+
+    static void commitFileRead(Object event, RandomAccessDataFile file, long position, int bytes) {
+    }
+}
@@ -0,0 +1,168 @@
+package net.woggioni.envelope.loader;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in collector of the loader statistics exposed through {@link LoaderStatisticsMXBean}.
+ * <p>
+ * The MBean is registered when this class is initialized, which happens when the first jar file is read,
+ * if the {@value #JMX_PROPERTY} system property is set to {@code true}; otherwise the counters
+ * of the hot paths are never updated and cost a single check of a constant.
+ */
+public final class LoaderStatistics implements LoaderStatisticsMXBean {
+
+    public static final String JMX_PROPERTY = "envelope.jmx";
+
+    public static final String OBJECT_NAME = "net.woggioni.envelope:type=LoaderStatistics";
+
+    public static final String CLASSPATH = "<classpath>";
+
+    static final boolean ENABLED = Boolean.getBoolean(JMX_PROPERTY);
+
+    private static final LongAdder BYTES_READ = new LongAdder();
+
+    private static final LongAdder SYSTEM_CALLS = new LongAdder();
+
+    private static final LongAdder CLASS_DEFINITION_TIME = new LongAdder();
+
+    private static final ConcurrentMap<String, LongAdder> DEFINED_CLASSES = new ConcurrentHashMap<>();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new LoaderStatistics(), new ObjectName(OBJECT_NAME));
+            } catch (JMException jme) {
+                System.err.printf("Unable to register the '%s' MBean: %s%n", OBJECT_NAME, jme.getMessage());
+            }
+        }
+    }
+
+    private LoaderStatistics() {
+    }
+
+    static void fileRead(int bytes) {
+        if (bytes > 0) {
+            BYTES_READ.add(bytes);
+        }
+    }
+
+    static void systemCalls(int count) {
+        SYSTEM_CALLS.add(count);
+    }
+
+    /**
+     * @return the current timestamp to be passed to {@link #classDefined(String, long)}, {@code 0} if statistics are disabled
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    static void classDefined(String moduleName, long start) {
+        if (ENABLED) {
+            CLASS_DEFINITION_TIME.add(System.nanoTime() - start);
+            DEFINED_CLASSES.computeIfAbsent(moduleName, key -> new LongAdder()).increment();
+        }
+    }
+
+    @Override
+    public int getOpenNestedJarFiles() {
+        int result = 0;
+        for (JarFile jarFile : JarFile.getOpenJarFiles()) {
+            if (jarFile.getType() == AbstractJarFile.JarFileType.NESTED_JAR) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getNestedJarIndexFootprint() {
+        long result = 0;
+        for (JarFile jarFile : JarFile.getOpenJarFiles()) {
+            if (jarFile.getType() == AbstractJarFile.JarFileType.NESTED_JAR) {
+                result += jarFile.getIndexFootprint();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return BYTES_READ.sum();
+    }
+
+    @Override
+    public long getSystemCalls() {
+        return SYSTEM_CALLS.sum();
+    }
+
+    @Override
+    public int getActiveInflaters() {
+        return InflaterPool.getInstance().getActive();
+    }
+
+    @Override
+    public long getCreatedInflaters() {
+        return InflaterPool.getInstance().getMisses();
+    }
+
+    @Override
+    public long getEntryCacheHits() {
+        long result = 0;
+        for (JarFile jarFile : JarFile.getOpenJarFiles()) {
+            result += jarFile.getEntryCacheHits();
+        }
+        return result;
+    }
+
+    @Override
+    public long getEntryCacheMisses() {
+        long result = 0;
+        for (JarFile jarFile : JarFile.getOpenJarFiles()) {
+            result += jarFile.getEntryCacheMisses();
+        }
+        return result;
+    }
+
+    @Override
+    public double getEntryCacheHitRatio() {
+        return ratio(getEntryCacheHits(), getEntryCacheMisses());
+    }
+
+    @Override
+    public double getEntryDataCacheHitRatio() {
+        EntryDataCache cache = EntryDataCache.getInstance();
+        return ratio(cache.getHits(), cache.getMisses());
+    }
+
+    @Override
+    public long getEntryDataCacheUsed() {
+        return EntryDataCache.getInstance().getUsed();
+    }
+
+    @Override
+    public Map<String, Long> getDefinedClasses() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : DEFINED_CLASSES.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public long getClassDefinitionTime() {
+        return CLASS_DEFINITION_TIME.sum();
+    }
+
+    private static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+}
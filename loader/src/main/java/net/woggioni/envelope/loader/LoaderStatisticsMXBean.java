@@ -0,0 +1,77 @@
+package net.woggioni.envelope.loader;
+
+import java.util.Map;
+
+/**
+ * Live statistics of the loader, registered in the platform MBean server as
+ * {@value LoaderStatistics#OBJECT_NAME} when the {@value LoaderStatistics#JMX_PROPERTY}
+ * system property is set to {@code true}.
+ */
+public interface LoaderStatisticsMXBean {
+
+    /**
+     * @return the number of open jar files nested in another jar file
+     */
+    int getOpenNestedJarFiles();
+
+    /**
+     * @return the memory used by the entry indexes of the open nested jar files, in bytes
+     */
+    long getNestedJarIndexFootprint();
+
+    /**
+     * @return the number of bytes read from the jar files
+     */
+    long getBytesRead();
+
+    /**
+     * @return the number of system calls issued to read the jar files that are not memory mapped
+     */
+    long getSystemCalls();
+
+    /**
+     * @return the number of inflaters currently in use by the streams reading compressed entries
+     */
+    int getActiveInflaters();
+
+    /**
+     * @return the number of inflaters created since startup
+     */
+    long getCreatedInflaters();
+
+    /**
+     * @return the number of entry header lookups served by the caches of the open jar files
+     */
+    long getEntryCacheHits();
+
+    /**
+     * @return the number of entry header lookups that missed the caches of the open jar files
+     */
+    long getEntryCacheMisses();
+
+    /**
+     * @return the ratio of the entry header lookups served by the caches of the open jar files
+     */
+    double getEntryCacheHitRatio();
+
+    /**
+     * @return the ratio of the reads of small entries served by the entry data cache
+     */
+    double getEntryDataCacheHitRatio();
+
+    /**
+     * @return the number of bytes held by the entry data cache
+     */
+    long getEntryDataCacheUsed();
+
+    /**
+     * @return the number of classes defined by the envelope class loaders, by module name,
+     * the classes defined in classpath mode are reported under {@value LoaderStatistics#CLASSPATH}
+     */
+    Map<String, Long> getDefinedClasses();
+
+    /**
+     * @return the time spent reading and defining classes in the envelope class loaders, in nanoseconds
+     */
+    long getClassDefinitionTime();
+}
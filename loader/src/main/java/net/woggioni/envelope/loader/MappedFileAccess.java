@@ -0,0 +1,123 @@
+package net.woggioni.envelope.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link RandomAccessDataFile.FileAccess} implementation that maps the whole file in memory.
+ * <p>
+ * A single {@link java.nio.MappedByteBuffer} cannot address more than 2 GB, so the file is mapped
+ * as a sequence of fixed size windows and reads spanning two windows are split in two copies.
+ * Reads never move the position of the shared buffers (each read works on its own duplicate),
+ * so concurrent readers never contend on a lock and never issue a system call.
+ * <p>
+ * Java 8 provides no supported way to unmap a {@link java.nio.MappedByteBuffer}: {@link #close()}
+ * only drops the references to the mappings, which are released when they are garbage collected,
+ * the file is mapped again if it is read after having been closed.
+ * <p>
+ * A section of the file can be mapped on its own, in which case positions are relative to the start of the section.
+ */
+final class MappedFileAccess implements RandomAccessDataFile.FileAccess {
+
+    private static final int WINDOW_BITS = 30;
+    private static final long WINDOW_SIZE = 1L << WINDOW_BITS;
+
+    private final File file;
+
+    private final long offset;
+
+    private final long length;
+
+    private volatile ByteBuffer[] windows;
+
+    MappedFileAccess(File file) {
+        this(file, 0, -1);
+    }
+
+    /**
+     * Map a section of a file
+     * @param file the file
+     * @param offset the offset of the section in the file
+     * @param length the length of the section, {@code -1} for the rest of the file
+     */
+    MappedFileAccess(File file, long offset, long length) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.windows = map(file, offset, length);
+    }
+
+    private static ByteBuffer[] map(File file, long offset, long length) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = length < 0 ? channel.size() - offset : length;
+            ByteBuffer[] windows = new ByteBuffer[(int) ((size + WINDOW_SIZE - 1) >>> WINDOW_BITS)];
+            for (int i = 0; i < windows.length; i++) {
+                long position = (long) i << WINDOW_BITS;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + position, Math.min(WINDOW_SIZE, size - position));
+            }
+            return windows;
+        } catch (NoSuchFileException ex) {
+            throw new IllegalArgumentException(String.format("File %s must exist", file.getAbsolutePath()));
+        } catch (IOException ex) {
+            throw new IllegalStateException(String.format("Unable to map file %s", file.getAbsolutePath()), ex);
+        }
+    }
+
+    private ByteBuffer[] getWindows() {
+        ByteBuffer[] result = this.windows;
+        if (result == null) {
+            synchronized (this) {
+                result = this.windows;
+                if (result == null) {
+                    result = map(this.file, this.offset, this.length);
+                    this.windows = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public int read(byte[] bytes, long position, int offset, int length) {
+        ByteBuffer[] windows = getWindows();
+        int read = 0;
+        while (read < length) {
+            long cursor = position + read;
+            int index = (int) (cursor >>> WINDOW_BITS);
+            if (index >= windows.length) break;
+            ByteBuffer window = windows[index].duplicate();
+            ((Buffer) window).position((int) (cursor & (WINDOW_SIZE - 1)));
+            int chunk = Math.min(length - read, window.remaining());
+            if (chunk <= 0) break;
+            window.get(bytes, offset + read, chunk);
+            read += chunk;
+        }
+        return read == 0 && length > 0 ? -1 : read;
+    }
+
+    @Override
+    public int readByte(long position) {
+        ByteBuffer[] windows = getWindows();
+        int index = (int) (position >>> WINDOW_BITS);
+        if (index >= windows.length) return -1;
+        ByteBuffer window = windows[index];
+        int windowPosition = (int) (position & (WINDOW_SIZE - 1));
+        if (windowPosition >= window.limit()) return -1;
+        return window.get(windowPosition) & 0xFF;
+    }
+
+    @Override
+    public void close() {
+        this.windows = null;
+    }
+}
@@ -0,0 +1,452 @@
+package net.woggioni.envelope.loader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * JPMS metadata of the libraries nested in an envelope jar, computed at build time and stored in the
+ * {@value #ENTRY_NAME} entry of the envelope jar, so that {@code JarFileModuleFinder} doesn't need to
+ * scan all the entries of each library to find its packages and service providers.
+ * <p>
+ * The metadata of a library is keyed by the name of its entry and records the SHA-256 digest of the library,
+ * it is only used when that digest is the same as the one in the manifest of the envelope jar: metadata
+ * that has been carried over from a previous build, or that has not been replaced together with its library,
+ * is ignored and the library is scanned instead.
+ * <p>
+ * The metadata is written in {@link Properties} format, sorted by key and without a timestamp,
+ * so that the same libraries always give the same content.
+ * The entries of a multi-release library are resolved as seen by a JVM supporting all the versions in the
+ * library, the metadata of such a library is ignored by older JVMs.
+ */
+public final class ModuleMetadata {
+
+    public static final String ENTRY_NAME = "META-INF/modules.properties";
+
+    private static final Attributes.Name DIGEST = new Attributes.Name("SHA-256-Digest");
+
+    private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+
+    private static final Attributes.Name AUTOMATIC_MODULE_NAME = new Attributes.Name("Automatic-Module-Name");
+
+    private static final String MODULE_DESCRIPTOR_ENTRY = "module-info.class";
+
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private static final int BASE_VERSION = 8;
+
+    private static final char KEY_SEPARATOR = '#';
+
+    private static final String SEPARATOR = ",";
+
+    private static final String DIGEST_KEY = "digest";
+
+    private static final String RELEASE_KEY = "release";
+
+    private static final String EXPLICIT_KEY = "explicit";
+
+    private static final String PACKAGES_KEY = "packages";
+
+    private static final String SERVICES_KEY = "services";
+
+    private static final String PROVIDERS_KEY = "providers.";
+
+    private static final String AUTOMATIC_MODULE_NAME_KEY = "automaticModuleName";
+
+    private static final String MAIN_CLASS_KEY = "mainClass";
+
+    static final ModuleMetadata EMPTY = new ModuleMetadata(new Properties(), null);
+
+    private final Properties properties;
+
+    private final Manifest manifest;
+
+    private ModuleMetadata(Properties properties, Manifest manifest) {
+        this.properties = properties;
+        this.manifest = manifest;
+    }
+
+    /**
+     * Read the metadata of the libraries nested in a jar file
+     * @param jarFile the envelope jar file
+     * @return the metadata, empty if the jar file has none
+     * @throws IOException if the metadata cannot be read
+     */
+    public static ModuleMetadata read(JarFile jarFile) throws IOException {
+        java.util.jar.JarEntry entry = jarFile.getJarEntry(ENTRY_NAME);
+        Manifest manifest = jarFile.getManifest();
+        if (entry == null || manifest == null) {
+            return EMPTY;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = jarFile.getInputStream(entry)) {
+            properties.load(inputStream);
+        }
+        return new ModuleMetadata(properties, manifest);
+    }
+
+    /**
+     * Read metadata written by {@link Writer#write(OutputStream)}, without the manifest of the envelope jar:
+     * the metadata of the libraries can only be retrieved with {@link #getValues(String, String)}
+     * @param inputStream the content of the {@value #ENTRY_NAME} entry, it is not closed by this method
+     * @return the metadata
+     * @throws IOException if the metadata cannot be read
+     */
+    public static ModuleMetadata read(InputStream inputStream) throws IOException {
+        Properties properties = new Properties();
+        properties.load(inputStream);
+        return new ModuleMetadata(properties, null);
+    }
+
+    /**
+     * Return the metadata of a library as it has been added to the {@link Writer}
+     * @param name the name of the library entry in the envelope jar
+     * @param digest the Base64 encoded SHA-256 digest of the library file
+     * @return the metadata of the library, or {@code null} if the library has no metadata or it has been
+     * computed for a library with a different digest
+     */
+    public Map<String, String> getValues(String name, String digest) {
+        String prefix = name + KEY_SEPARATOR;
+        if (!digest.equals(properties.getProperty(prefix + DIGEST_KEY))) {
+            return null;
+        }
+        Map<String, String> result = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                result.put(key.substring(prefix.length()), properties.getProperty(key));
+            }
+        }
+        result.remove(DIGEST_KEY);
+        return result;
+    }
+
+    /**
+     * Return the metadata of a nested library
+     * @param jarFile the library
+     * @return the metadata, or {@code null} if the library has no metadata or its digest doesn't match
+     * the one in the manifest of the envelope jar
+     */
+    Library get(JarFile jarFile) {
+        if (manifest == null || jarFile.getType() != AbstractJarFile.JarFileType.NESTED_JAR) {
+            return null;
+        }
+        String pathFromRoot = jarFile.getPathFromRoot();
+        String name = pathFromRoot.substring(pathFromRoot.lastIndexOf("!/") + 2);
+        String digest = properties.getProperty(name + KEY_SEPARATOR + DIGEST_KEY);
+        Attributes attributes = manifest.getAttributes(name);
+        if (digest == null || attributes == null || !digest.equals(attributes.getValue(DIGEST))) {
+            return null;
+        }
+        return new Library(name + KEY_SEPARATOR);
+    }
+
+    /**
+     * Metadata of a single library
+     */
+    final class Library {
+
+        private final String prefix;
+
+        private Library(String prefix) {
+            this.prefix = prefix;
+        }
+
+        private String getProperty(String key) {
+            return properties.getProperty(prefix + key);
+        }
+
+        /**
+         * @return the highest version of the versioned entries of the library, {@code 0} if it is not multi-release
+         */
+        int getRelease() {
+            return Integer.parseInt(getProperty(RELEASE_KEY));
+        }
+
+        /**
+         * @return whether the library contains a module descriptor
+         */
+        boolean isExplicit() {
+            return Boolean.parseBoolean(getProperty(EXPLICIT_KEY));
+        }
+
+        /**
+         * @return for explicit modules the directories of all the entries, for automatic modules
+         * the directories of the class files, with dots as separators
+         */
+        Set<String> getPackages() {
+            return split(getProperty(PACKAGES_KEY));
+        }
+
+        /**
+         * @return the names of the service configuration files under {@code META-INF/services/}
+         */
+        Set<String> getServices() {
+            return split(getProperty(SERVICES_KEY));
+        }
+
+        /**
+         * @param service the name of a service configuration file
+         * @return the provider classes listed in the service configuration file, in order
+         */
+        List<String> getProviders(String service) {
+            String value = getProperty(PROVIDERS_KEY + service);
+            return (value == null || value.isEmpty()) ? Collections.emptyList() : Arrays.asList(value.split(SEPARATOR));
+        }
+
+        String getAutomaticModuleName() {
+            return getProperty(AUTOMATIC_MODULE_NAME_KEY);
+        }
+
+        String getMainClass() {
+            return getProperty(MAIN_CLASS_KEY);
+        }
+    }
+
+    private static Set<String> split(String value) {
+        if (value == null || value.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new LinkedHashSet<>();
+        Collections.addAll(result, value.split(SEPARATOR));
+        return result;
+    }
+
+    /**
+     * Computes the metadata of the libraries from their files.
+     */
+    public static final class Writer {
+
+        private final Map<String, String> properties = new TreeMap<>();
+
+        /**
+         * Scan a library and add its metadata
+         * @param name the name of the library entry in the envelope jar
+         * @param library the library file
+         * @param digest the Base64 encoded SHA-256 digest of the library file, as recorded in the manifest
+         * @return {@code true} if the metadata has been added, {@code false} if the library cannot be read
+         */
+        public boolean add(String name, File library, String digest) {
+            Map<String, String> values = scan(library);
+            if (values == null) {
+                return false;
+            }
+            add(name, digest, values);
+            return true;
+        }
+
+        /**
+         * Add the metadata of a library that has already been scanned
+         * @param name the name of the library entry in the envelope jar
+         * @param digest the Base64 encoded SHA-256 digest of the library file, as recorded in the manifest
+         * @param values the metadata returned by {@link #scan(File)} for the library file
+         */
+        public void add(String name, String digest, Map<String, String> values) {
+            String prefix = name + KEY_SEPARATOR;
+            properties.put(prefix + DIGEST_KEY, digest);
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                properties.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+
+        /**
+         * Scan a library
+         * @param library the library file
+         * @return the metadata of the library, or {@code null} if the library cannot be read
+         */
+        public static Map<String, String> scan(File library) {
+            try {
+                return scanEntries(library);
+            } catch (IOException | RuntimeException e) {
+                // JarFileModuleFinder scans the libraries without metadata
+                return null;
+            }
+        }
+
+        private static Map<String, String> scanEntries(File library) throws IOException {
+            Map<String, String> values = new HashMap<>();
+            try (java.util.jar.JarFile jarFile = new java.util.jar.JarFile(library, false)) {
+                Manifest manifest = jarFile.getManifest();
+                Attributes mainAttributes = (manifest != null) ? manifest.getMainAttributes() : new Attributes();
+                boolean multiRelease = mainAttributes.containsKey(MULTI_RELEASE);
+                // Map each visible name to the entry providing it, versioned entries replace
+                // their base entry only if their version is the highest
+                Map<String, ZipEntry> entries = new TreeMap<>();
+                Map<String, Integer> versions = new HashMap<>();
+                int release = 0;
+                Enumeration<? extends ZipEntry> enumeration = jarFile.entries();
+                while (enumeration.hasMoreElements()) {
+                    ZipEntry entry = enumeration.nextElement();
+                    String entryName = entry.getName();
+                    if (!entryName.startsWith(VERSIONS_PREFIX)) {
+                        entries.putIfAbsent(entryName, entry);
+                        continue;
+                    }
+                    int slash = entryName.indexOf('/', VERSIONS_PREFIX.length());
+                    int version = (multiRelease && slash > 0) ? parseVersion(entryName.substring(VERSIONS_PREFIX.length(), slash)) : -1;
+                    String baseName = (version > BASE_VERSION) ? entryName.substring(slash + 1) : "";
+                    if (baseName.isEmpty() || baseName.startsWith("META-INF/")) {
+                        continue;
+                    }
+                    release = Math.max(release, version);
+                    Integer current = versions.get(baseName);
+                    if (current == null || current < version) {
+                        versions.put(baseName, version);
+                        entries.put(baseName, entry);
+                    }
+                }
+                boolean explicit = entries.containsKey(MODULE_DESCRIPTOR_ENTRY);
+                Set<String> packages = new TreeSet<>();
+                Set<String> services = new TreeSet<>();
+                for (Map.Entry<String, ZipEntry> entry : entries.entrySet()) {
+                    String entryName = entry.getKey();
+                    if (entryName.endsWith("/")) {
+                        continue;
+                    }
+                    int lastSlash = entryName.lastIndexOf('/');
+                    boolean classFile = entryName.endsWith(CLASS_SUFFIX);
+                    if (explicit) {
+                        if (lastSlash >= 0) {
+                            packages.add(entryName.substring(0, lastSlash).replace('/', '.'));
+                        }
+                    } else if (classFile && !entryName.startsWith(SERVICES_PREFIX)) {
+                        if (lastSlash < 0) {
+                            // Top level classes are rejected when the library is scanned at runtime
+                            throw new IllegalArgumentException(entryName + " found in top-level directory");
+                        }
+                        packages.add(entryName.substring(0, lastSlash).replace('/', '.'));
+                    } else if (!classFile && entryName.startsWith(SERVICES_PREFIX) && lastSlash == SERVICES_PREFIX.length() - 1) {
+                        String service = entryName.substring(lastSlash + 1);
+                        services.add(service);
+                        values.put(PROVIDERS_KEY + service, String.join(SEPARATOR, readProviders(jarFile, entry.getValue())));
+                    }
+                }
+                values.put(RELEASE_KEY, Integer.toString(release));
+                values.put(EXPLICIT_KEY, Boolean.toString(explicit));
+                values.put(PACKAGES_KEY, String.join(SEPARATOR, packages));
+                values.put(SERVICES_KEY, String.join(SEPARATOR, services));
+                String automaticModuleName = mainAttributes.getValue(AUTOMATIC_MODULE_NAME);
+                if (automaticModuleName != null) {
+                    values.put(AUTOMATIC_MODULE_NAME_KEY, automaticModuleName);
+                }
+                String mainClass = mainAttributes.getValue(Attributes.Name.MAIN_CLASS);
+                if (mainClass != null) {
+                    values.put(MAIN_CLASS_KEY, mainClass);
+                }
+            }
+            return values;
+        }
+
+        private static int parseVersion(String version) {
+            try {
+                return Integer.parseInt(version);
+            } catch (NumberFormatException nfe) {
+                return -1;
+            }
+        }
+
+        private static List<String> readProviders(java.util.jar.JarFile jarFile, ZipEntry entry) throws IOException {
+            List<String> providers = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(jarFile.getInputStream(entry), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int commentStart = line.indexOf('#');
+                    if (commentStart >= 0) {
+                        line = line.substring(0, commentStart);
+                    }
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        providers.add(line);
+                    }
+                }
+            }
+            return providers;
+        }
+
+        /**
+         * Write the metadata in {@link Properties} format, as {@code key=value} lines sorted by key.
+         * Unlike {@link Properties#store(OutputStream, String)} no timestamp is written, so that the same
+         * libraries always give the same content.
+         * @param outputStream the destination, it is not closed by this method
+         * @throws IOException if the metadata cannot be written
+         */
+        public void write(OutputStream outputStream) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                escape(sb, entry.getKey(), true);
+                sb.append('=');
+                escape(sb, entry.getValue(), false);
+                sb.append('\n');
+            }
+            outputStream.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        /**
+         * Escape a key or a value as {@link Properties#load(InputStream)} expects it
+         */
+        private static void escape(StringBuilder sb, String value, boolean key) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\f':
+                        sb.append("\\f");
+                        break;
+                    case ' ':
+                        // Leading spaces of values and all the spaces of keys would be dropped
+                        if (key || i == 0) {
+                            sb.append('\\');
+                        }
+                        sb.append(c);
+                        break;
+                    case '=':
+                    case ':':
+                    case '#':
+                    case '!':
+                        sb.append('\\').append(c);
+                        break;
+                    default:
+                        if (c < 0x20 || c > 0x7e) {
+                            sb.append(String.format("\\u%04X", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package net.woggioni.envelope.loader;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe registry of the open {@link JarFile}s, used by the statistics and the periodic events
+ * that report on all of them.
+ * <p>
+ * Jar files are held through weak references, so that the ones that are never closed can still be
+ * garbage collected, and are compared by identity. Registering and unregistering a jar file never
+ * takes a global lock: the references cleared by the garbage collector are expunged on registration.
+ */
+final class OpenJarFiles {
+
+    private static final Set<Key> KEYS = ConcurrentHashMap.newKeySet();
+
+    private static final ReferenceQueue<JarFile> QUEUE = new ReferenceQueue<>();
+
+    private OpenJarFiles() {
+    }
+
+    static void add(JarFile jarFile) {
+        expunge();
+        KEYS.add(new Key(jarFile, QUEUE));
+    }
+
+    static void remove(JarFile jarFile) {
+        KEYS.remove(new Key(jarFile, null));
+    }
+
+    /**
+     * @return a snapshot of the open jar files
+     */
+    static List<JarFile> snapshot() {
+        List<JarFile> result = new ArrayList<>(KEYS.size());
+        for (Key key : KEYS) {
+            JarFile jarFile = key.get();
+            if (jarFile != null) {
+                result.add(jarFile);
+            }
+        }
+        return result;
+    }
+
+    private static void expunge() {
+        for (Reference<? extends JarFile> reference = QUEUE.poll(); reference != null; reference = QUEUE.poll()) {
+            KEYS.remove(reference);
+        }
+    }
+
+    private static final class Key extends WeakReference<JarFile> {
+
+        private final int hashCode;
+
+        Key(JarFile jarFile, ReferenceQueue<JarFile> queue) {
+            super(jarFile, queue);
+            this.hashCode = System.identityHashCode(jarFile);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            JarFile jarFile = get();
+            return jarFile != null && jarFile == ((Key) obj).get();
+        }
+    }
+}
@@ -24,7 +24,8 @@ import java.io.InputStream;
 import java.io.RandomAccessFile;
 
 /**
- * {@link RandomAccessData} implementation backed by a {@link RandomAccessFile}.
+ * {@link RandomAccessData} implementation backed by a {@link RandomAccessFile} or, when
+ * requested, by a read-only memory mapping of the whole file.
  *
  * @author Phillip Webb
  * @author Andy Wilkinson
@@ -32,6 +33,12 @@ import java.io.RandomAccessFile;
  */
 public class RandomAccessDataFile implements RandomAccessData {
 
+	/**
+	 * Name of the system property that makes {@link #RandomAccessDataFile(File)} use a
+	 * memory mapped backend instead of a {@link RandomAccessFile}.
+	 */
+	public static final String MEMORY_MAPPED_PROPERTY = "envelope.memory.mapped";
+
 	private final FileAccess fileAccess;
 
 	private final long offset;
@@ -39,21 +46,36 @@ public class RandomAccessDataFile implements RandomAccessData {
 	private final long length;
 
 	/**
-	 * Create a new {@link RandomAccessDataFile} backed by the specified file.
+	 * Create a new {@link RandomAccessDataFile} backed by the specified file, the file is
+	 * memory mapped if the {@value #MEMORY_MAPPED_PROPERTY} system property is set to
+	 * {@code true}.
 	 * @param file the underlying file
 	 * @throws IllegalArgumentException if the file is null or does not exist
 	 */
 	public RandomAccessDataFile(File file) {
+		this(file, Boolean.getBoolean(MEMORY_MAPPED_PROPERTY));
+	}
+
+	/**
+	 * Create a new {@link RandomAccessDataFile} backed by the specified file.
+	 * @param file the underlying file
+	 * @param memoryMapped whether the file should be accessed through a read-only memory
+	 * mapping rather than through a {@link RandomAccessFile}
+	 * @throws IllegalArgumentException if the file is null or does not exist
+	 */
+	public RandomAccessDataFile(File file, boolean memoryMapped) {
 		if (file == null) {
 			throw new IllegalArgumentException("File must not be null");
 		}
-		this.fileAccess = new FileAccess(file);
+		this.fileAccess = memoryMapped ? new MappedFileAccess(file) : new RandomFileAccess(file);
 		this.offset = 0L;
 		this.length = file.length();
 	}
 
 	/**
-	 * Private constructor used to create a {@link #getSubsection(long, long) subsection}.
+	 * Private constructor used to create a {@link #getSubsection(long, long) subsection},
+	 * subsections share the {@link FileAccess} of their parent, so subsections of a memory
+	 * mapped file are views over the same mapping and never copy or re-map any data.
 	 * @param fileAccess provides access to the underlying file
 	 * @param offset the offset of the section
 	 * @param length the length of the section
@@ -69,7 +91,15 @@ public class RandomAccessDataFile implements RandomAccessData {
 	 * @return the underlying file
 	 */
 	public File getFile() {
-		return this.fileAccess.file;
+		return this.fileAccess.getFile();
+	}
+
+	/**
+	 * Returns whether the underlying file is accessed through a memory mapping.
+	 * @return {@code true} if the file is memory mapped
+	 */
+	public boolean isMemoryMapped() {
+		return this.fileAccess instanceof MappedFileAccess;
 	}
 
 	@Override
@@ -85,6 +115,20 @@ public class RandomAccessDataFile implements RandomAccessData {
 		return new RandomAccessDataFile(this.fileAccess, this.offset + offset, length);
 	}
 
+	/**
+	 * Map this section of the file on its own, regardless of how the rest of the file is
+	 * accessed, if it starts at a multiple of the specified alignment.
+	 * @param alignment the alignment of the section in the underlying file
+	 * @return a new {@link RandomAccessDataFile} that has to be closed on its own, or
+	 * {@code null} if the section is not aligned
+	 */
+	RandomAccessDataFile mapAligned(int alignment) {
+		if (alignment <= 0 || this.offset % alignment != 0) {
+			return null;
+		}
+		return new RandomAccessDataFile(new MappedFileAccess(getFile(), this.offset, this.length), 0L, this.length);
+	}
+
 	@Override
 	public byte[] read() throws IOException {
 		return read(0, this.length);
@@ -107,14 +151,24 @@ public class RandomAccessDataFile implements RandomAccessData {
 		if (position >= this.length) {
 			return -1;
 		}
-		return this.fileAccess.readByte(this.offset + position);
+		int read = this.fileAccess.readByte(this.offset + position);
+		if (LoaderStatistics.ENABLED && read >= 0) {
+			LoaderStatistics.fileRead(1);
+		}
+		return read;
 	}
 
 	private int read(byte[] bytes, long position, int offset, int length) throws IOException {
 		if (position > this.length) {
 			return -1;
 		}
-		return this.fileAccess.read(bytes, this.offset + position, offset, length);
+		Object event = LoaderEvents.beginFileRead();
+		int read = this.fileAccess.read(bytes, this.offset + position, offset, length);
+		LoaderEvents.commitFileRead(event, this, this.offset + position, read);
+		if (LoaderStatistics.ENABLED) {
+			LoaderStatistics.fileRead(read);
+		}
+		return read;
 	}
 
 	@Override
@@ -207,7 +261,26 @@ public class RandomAccessDataFile implements RandomAccessData {
 
 	}
 
-	private static final class FileAccess {
+	/**
+	 * Positional read access to the underlying file, implementations must be thread-safe.
+	 */
+	interface FileAccess {
+
+		File getFile();
+
+		int read(byte[] bytes, long position, int offset, int length) throws IOException;
+
+		int readByte(long position) throws IOException;
+
+		void close() throws IOException;
+
+	}
+
+	/**
+	 * {@link FileAccess} backed by a {@link RandomAccessFile}, reads are serialized on a
+	 * single monitor as they need to move the shared file pointer.
+	 */
+	private static final class RandomFileAccess implements FileAccess {
 
 		private final Object monitor = new Object();
 
@@ -215,14 +288,23 @@ public class RandomAccessDataFile implements RandomAccessData {
 
 		private RandomAccessFile randomAccessFile;
 
-		private FileAccess(File file) {
+		private RandomFileAccess(File file) {
 			this.file = file;
 			openIfNecessary();
 		}
 
-		private int read(byte[] bytes, long position, int offset, int length) throws IOException {
+		@Override
+		public File getFile() {
+			return this.file;
+		}
+
+		@Override
+		public int read(byte[] bytes, long position, int offset, int length) throws IOException {
 			synchronized (this.monitor) {
 				openIfNecessary();
+				if (LoaderStatistics.ENABLED) {
+					LoaderStatistics.systemCalls(2);
+				}
 				this.randomAccessFile.seek(position);
 				return this.randomAccessFile.read(bytes, offset, length);
 			}
@@ -240,7 +322,8 @@ public class RandomAccessDataFile implements RandomAccessData {
 			}
 		}
 
-		private void close() throws IOException {
+		@Override
+		public void close() throws IOException {
 			synchronized (this.monitor) {
 				if (this.randomAccessFile != null) {
 					this.randomAccessFile.close();
@@ -249,9 +332,13 @@ public class RandomAccessDataFile implements RandomAccessData {
 			}
 		}
 
-		private int readByte(long position) throws IOException {
+		@Override
+		public int readByte(long position) throws IOException {
 			synchronized (this.monitor) {
 				openIfNecessary();
+				if (LoaderStatistics.ENABLED) {
+					LoaderStatistics.systemCalls(2);
+				}
 				this.randomAccessFile.seek(position);
 				return this.randomAccessFile.read();
 			}
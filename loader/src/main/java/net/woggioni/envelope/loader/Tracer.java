@@ -0,0 +1,163 @@
+package net.woggioni.envelope.loader;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Opt-in recorder of the duration of the startup phases and of the class definitions, written as a
+ * <a href="https://docs.google.com/document/d/1CvAClvFfyA5R-PhYUmn5OOQtYMH4h6I0nSsKchNAySU">Chrome trace-event</a>
+ * JSON file, that can be opened with Perfetto or {@code chrome://tracing}, when the JVM exits.
+ * <p>
+ * Tracing is enabled by setting the {@value #FILE_PROPERTY} system property to the path of the output file
+ * on the command line; when it is not set, {@link #start()} and {@link #end(String, String, long)} reduce
+ * to the check of a constant and record nothing.
+ */
+public final class Tracer {
+
+    public static final String FILE_PROPERTY = "envelope.trace.file";
+
+    public static final String PHASE = "phase";
+
+    public static final String LIBRARY = "library";
+
+    public static final String MODULE = "module";
+
+    public static final String CLASS = "class";
+
+    private static final String FILE = System.getProperty(FILE_PROPERTY);
+
+    private static final boolean ENABLED = FILE != null;
+
+    private static final long ORIGIN = System.nanoTime();
+
+    private static final Queue<Event> EVENTS = ENABLED ? new ConcurrentLinkedQueue<>() : null;
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(Tracer::write, "envelope-tracer"));
+        }
+    }
+
+    private Tracer() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @return the current timestamp to be passed to {@link #end(String, String, long)}, {@code 0} if tracing is disabled
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Record an event that started at the given timestamp and ends now, on the current thread
+     * @param category the event category
+     * @param name the event name
+     * @param start the value returned by {@link #start()} when the event started
+     */
+    public static void end(String category, String name, long start) {
+        if (ENABLED) {
+            long end = System.nanoTime();
+            Thread thread = Thread.currentThread();
+            EVENTS.add(new Event(category, name, start, end - start, thread.getId(), thread.getName()));
+        }
+    }
+
+    private static void write() {
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(FILE), StandardCharsets.UTF_8))) {
+            writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            Map<Long, String> threads = new HashMap<>();
+            boolean first = true;
+            for (Event event : EVENTS) {
+                threads.putIfAbsent(event.threadId, event.threadName);
+                if (!first) writer.write(',');
+                first = false;
+                writer.write("\n{\"ph\":\"X\",\"pid\":1,\"tid\":");
+                writer.write(Long.toString(event.threadId));
+                writer.write(",\"cat\":");
+                writeString(writer, event.category);
+                writer.write(",\"name\":");
+                writeString(writer, event.name);
+                writer.write(",\"ts\":");
+                writeMicros(writer, event.start - ORIGIN);
+                writer.write(",\"dur\":");
+                writeMicros(writer, event.duration);
+                writer.write('}');
+            }
+            for (Map.Entry<Long, String> thread : threads.entrySet()) {
+                if (!first) writer.write(',');
+                first = false;
+                writer.write("\n{\"ph\":\"M\",\"pid\":1,\"tid\":");
+                writer.write(Long.toString(thread.getKey()));
+                writer.write(",\"name\":\"thread_name\",\"args\":{\"name\":");
+                writeString(writer, thread.getValue());
+                writer.write("}}");
+            }
+            writer.write("\n]}\n");
+        } catch (IOException ioe) {
+            System.err.printf("Unable to write envelope trace to '%s': %s%n", FILE, ioe.getMessage());
+        }
+    }
+
+    private static void writeMicros(Writer writer, long nanos) throws IOException {
+        writer.write(Long.toString(nanos / 1000));
+        writer.write('.');
+        String fraction = Long.toString(nanos % 1000);
+        for (int i = fraction.length(); i < 3; i++) {
+            writer.write('0');
+        }
+        writer.write(fraction);
+    }
+
+    private static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    private static final class Event {
+
+        private final String category;
+
+        private final String name;
+
+        private final long start;
+
+        private final long duration;
+
+        private final long threadId;
+
+        private final String threadName;
+
+        private Event(String category, String name, long start, long duration, long threadId, String threadName) {
+            this.category = category;
+            this.name = name;
+            this.start = start;
+            this.duration = duration;
+            this.threadId = threadId;
+            this.threadName = threadName;
+        }
+    }
+}
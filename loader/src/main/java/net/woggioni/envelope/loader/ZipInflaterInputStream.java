@@ -24,7 +24,8 @@ import java.util.zip.InflaterInputStream;
 
 /**
  * {@link InflaterInputStream} that supports the writing of an extra "dummy" byte (which
- * is required with JDK 6) and returns accurate available() results.
+ * is required with JDK 6) and returns accurate available() results. The {@link Inflater}
+ * and the input buffer are borrowed from the {@link InflaterPool} and returned on close.
  *
  * @author Phillip Webb
  */
@@ -34,8 +35,11 @@ class ZipInflaterInputStream extends InflaterInputStream {
 
 	private boolean extraBytesWritten;
 
+	private boolean released;
+
 	ZipInflaterInputStream(InputStream inputStream, int size) {
-		super(inputStream, new Inflater(true), getInflaterBufferSize(size));
+		super(inputStream, InflaterPool.getInstance().acquireInflater(), 1);
+		this.buf = InflaterPool.getInstance().acquireBuffer();
 		this.available = size;
 	}
 
@@ -59,7 +63,12 @@ class ZipInflaterInputStream extends InflaterInputStream {
 	@Override
 	public void close() throws IOException {
 		super.close();
-		this.inf.end();
+		if (!this.released) {
+			this.released = true;
+			InflaterPool pool = InflaterPool.getInstance();
+			pool.releaseInflater(this.inf);
+			pool.releaseBuffer(this.buf);
+		}
 	}
 
 	@Override
@@ -78,11 +87,4 @@ class ZipInflaterInputStream extends InflaterInputStream {
 		}
 	}
 
-	private static int getInflaterBufferSize(long size) {
-		size += 2; // inflater likes some space
-		size = (size > 65536) ? 8192 : size;
-		size = (size <= 0) ? 4096 : size;
-		return (int) size;
-	}
-
 }
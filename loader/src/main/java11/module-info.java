@@ -1,5 +1,7 @@
 module net.woggioni.envelope.loader {
     requires java.logging;
+    requires static java.management;
+    requires static jdk.jfr;
     requires static lombok;
     exports net.woggioni.envelope.loader;
     exports net.woggioni.envelope.loader.jar;
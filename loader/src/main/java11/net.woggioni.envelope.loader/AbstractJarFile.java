@@ -22,10 +22,12 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.Permission;
-import java.util.Objects;
-import java.util.zip.ZipFile;
-import java.util.stream.Stream;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.jar.JarEntry;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Base class for extended variants of {@link java.util.jar.JarFile}.
@@ -34,42 +36,23 @@ import java.util.jar.JarEntry;
  */
 abstract class AbstractJarFile extends java.util.jar.JarFile {
 
-	private static final String META_INF_VERSION_PREFIX = "META-INF/versions/";
-
-	private final Runtime.Version version;  // current version
-	private final int versionFeature;       // version.feature()
-
-	private String getBasename(String name) {
-		if (name.startsWith(META_INF_VERSION_PREFIX)) {
-			int off = META_INF_VERSION_PREFIX.length();
-			int index = name.indexOf('/', off);
-			try {
-				// filter out dir META-INF/versions/ and META-INF/versions/*/
-				// and any entry with version > 'version'
-				if (index == -1 || index == (name.length() - 1) ||
-						Integer.parseInt(name, off, index, 10) > versionFeature) {
-					return null;
-				}
-			} catch (NumberFormatException x) {
-				return null; // remove malformed entries silently
-			}
-			// map to its base name
-			return name.substring(index + 1);
-		}
-		return name;
-	}
-
+	/**
+	 * Entries under {@code META-INF/versions/} are resolved once when the jar is opened,
+	 * so there is no need to look up the base name of every entry again.
+	 */
 	@Override
 	public Stream<JarEntry> versionedStream() {
-		return stream()
-				.map(JarEntry::getName)
-				.map(this::getBasename)
-				.filter(Objects::nonNull)
-				.distinct()
-				.map(this::getJarEntry)
-				.filter(Objects::nonNull);
+		Spliterator<JarEntry> spliterator = Spliterators.spliteratorUnknownSize(versionedIterator(),
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.IMMUTABLE | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false);
 	}
 
+	/**
+	 * Return an iterator for the entries visible to the running JVM.
+	 * @return the iterator
+	 */
+	abstract Iterator<JarEntry> versionedIterator();
+
 	/**
 	 * Create a new {@link AbstractJarFile}.
 	 * @param file the root jar file.
@@ -77,8 +60,6 @@ abstract class AbstractJarFile extends java.util.jar.JarFile {
 	 */
 	AbstractJarFile(File file, boolean verify, int mode) throws IOException {
 		super(file, verify, mode);
-		this.version = Runtime.version();
-		this.versionFeature = this.version.feature();
 	}
 
 	/**
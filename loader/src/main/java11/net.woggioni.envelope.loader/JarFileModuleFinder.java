@@ -28,6 +28,10 @@ import java.util.Optional;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import java.util.jar.Attributes.Name;
 import java.util.jar.JarEntry;
 import java.util.jar.Manifest;
@@ -112,6 +116,8 @@ public class JarFileModuleFinder implements ModuleFinder {
         "_"
     );
 
+    private static final int RUNTIME_VERSION = Runtime.version().feature();
+
     private final Map<String, Map.Entry<ModuleReference, Handler>> modules;
 
     @SneakyThrows
@@ -189,6 +195,11 @@ public class JarFileModuleFinder implements ModuleFinder {
     public JarFileModuleFinder(JarFile ...jarFiles) {
         this(Arrays.asList(jarFiles));
     }
+
+    public JarFileModuleFinder(Iterable<JarFile> jarFiles) {
+        this(jarFiles, ModuleMetadata.EMPTY);
+    }
+
     private static Set<String> collectPackageNames(JarFile jarFile) {
         Set<String> result = jarFile
             .versionedStream()
@@ -203,57 +214,97 @@ public class JarFileModuleFinder implements ModuleFinder {
             .collect(Collectors.toSet());
         return Collections.unmodifiableSet(result);
     }
-    @SneakyThrows
-    public JarFileModuleFinder(Iterable<JarFile> jarFiles) {
 
-        TreeMap<String, Map.Entry<ModuleReference, Handler>> modules = new TreeMap<>();
+    /**
+     * Create a module finder for the given jar files, taking their packages, service providers
+     * and manifest attributes from the metadata computed at build time for the jar files it describes,
+     * so that only the jar files without metadata have to be scanned.
+     * @param jarFiles the jar files
+     * @param metadata the metadata of the libraries of the envelope jar
+     */
+    public JarFileModuleFinder(Iterable<JarFile> jarFiles, ModuleMetadata metadata) {
+        this(jarFiles, metadata, Runnable::run);
+    }
 
+    /**
+     * Create a module finder for the given jar files, building their module descriptors concurrently.
+     * When more jar files provide a module with the same name, the last one wins, as if the descriptors
+     * were built sequentially.
+     * @param jarFiles the jar files
+     * @param metadata the metadata of the libraries of the envelope jar
+     * @param executor the executor running the tasks that build the module descriptors
+     */
+    @SneakyThrows
+    public JarFileModuleFinder(Iterable<JarFile> jarFiles, ModuleMetadata metadata, Executor executor) {
+        List<CompletableFuture<Map.Entry<ModuleReference, Handler>>> futures = new ArrayList<>();
         for(JarFile jarFile : jarFiles) {
-            URI uri = jarFile.getUrl().toURI();
-            String moduleName = null;
-            ModuleDescriptor moduleDescriptor;
-            JarEntry moduleDescriptorEntry = jarFile.getJarEntry(MODULE_DESCRIPTOR_ENTRY);
-            if (moduleDescriptorEntry != null) {
-                try(InputStream is = jarFile.getInputStream(moduleDescriptorEntry)) {
-                    moduleDescriptor = ModuleDescriptor.read(is, () -> collectPackageNames(jarFile));
-                }
-            } else {
-                  moduleDescriptor = deriveModuleDescriptor(jarFile);
+            futures.add(CompletableFuture.supplyAsync(() -> createModule(jarFile, metadata), executor));
+        }
+        TreeMap<String, Map.Entry<ModuleReference, Handler>> modules = new TreeMap<>();
+        for(CompletableFuture<Map.Entry<ModuleReference, Handler>> future : futures) {
+            Map.Entry<ModuleReference, Handler> module;
+            try {
+                module = future.join();
+            } catch (CompletionException ce) {
+                throw ce.getCause();
             }
-        
-            modules.put(moduleDescriptor.name(),
-                new AbstractMap.SimpleEntry<>(new ModuleReference(moduleDescriptor, uri) {
-                    @Override
-                    public ModuleReader open() throws IOException {
-                        return new ModuleReader() {
-                            @Override
-                            public Optional<URI> find(String name) throws IOException {
-                                JarEntry jarEntry = jarFile.getJarEntry(name);
-                                if(jarEntry == null) return Optional.empty();
-                                return Optional.of(uri.resolve('!' + name));
-                            }
-
-                            @Override
-                            public Optional<InputStream> open(String name) throws IOException {
-                                JarEntry jarEntry = jarFile.getJarEntry(name);
-                                if(jarEntry == null) return Optional.empty();
-                                return Optional.of(jarFile.getInputStream(jarEntry));
-                            }
-
-                            @Override
-                            public Stream<String> list() throws IOException {
-                                return jarFile.stream().map(JarEntry::getName);
-                            }
-
-                            @Override
-                            public void close() throws IOException {}
-                        };
-                    }
-            }, new Handler(jarFile)));
+            modules.put(module.getKey().descriptor().name(), module);
         }
         this.modules = Collections.unmodifiableMap(modules);
     }
 
+    @SneakyThrows
+    private Map.Entry<ModuleReference, Handler> createModule(JarFile jarFile, ModuleMetadata metadata) {
+        long start = Tracer.start();
+        URI uri = jarFile.getUrl().toURI();
+        ModuleDescriptor moduleDescriptor;
+        ModuleMetadata.Library library = metadata.get(jarFile);
+        if (library != null && library.getRelease() > RUNTIME_VERSION) {
+            // The metadata describes versioned entries this JVM doesn't see
+            library = null;
+        }
+        JarEntry moduleDescriptorEntry = jarFile.getJarEntry(MODULE_DESCRIPTOR_ENTRY);
+        if (moduleDescriptorEntry != null) {
+            Supplier<Set<String>> packageFinder = library != null ?
+                library::getPackages : () -> collectPackageNames(jarFile);
+            try(InputStream is = jarFile.getInputStream(moduleDescriptorEntry)) {
+                moduleDescriptor = ModuleDescriptor.read(is, packageFinder);
+            }
+        } else {
+              moduleDescriptor = deriveModuleDescriptor(jarFile, library);
+        }
+        Tracer.end(Tracer.MODULE, moduleDescriptor.name(), start);
+
+        return new AbstractMap.SimpleEntry<>(new ModuleReference(moduleDescriptor, uri) {
+                @Override
+                public ModuleReader open() throws IOException {
+                    return new ModuleReader() {
+                        @Override
+                        public Optional<URI> find(String name) throws IOException {
+                            JarEntry jarEntry = jarFile.getJarEntry(name);
+                            if(jarEntry == null) return Optional.empty();
+                            return Optional.of(uri.resolve('!' + name));
+                        }
+
+                        @Override
+                        public Optional<InputStream> open(String name) throws IOException {
+                            JarEntry jarEntry = jarFile.getJarEntry(name);
+                            if(jarEntry == null) return Optional.empty();
+                            return Optional.of(jarFile.getInputStream(jarEntry));
+                        }
+
+                        @Override
+                        public Stream<String> list() throws IOException {
+                            return jarFile.stream().map(JarEntry::getName);
+                        }
+
+                        @Override
+                        public void close() throws IOException {}
+                    };
+                }
+        }, new Handler(jarFile));
+    }
+
     @Override
     public Optional<ModuleReference> find(String name) {
         return Optional.ofNullable(modules.get(name)).map(Map.Entry::getKey);
@@ -266,17 +317,21 @@ public class JarFileModuleFinder implements ModuleFinder {
             .collect(Collectors.toSet()));
     }
 
-    private ModuleDescriptor deriveModuleDescriptor(JarFile jf)
+    private ModuleDescriptor deriveModuleDescriptor(JarFile jf, ModuleMetadata.Library library)
         throws IOException
     {
-        // Read Automatic-Module-Name attribute if present
-        Manifest man = jf.getManifest();
-        Attributes attrs = null;
+        // Read Automatic-Module-Name and Main-Class attributes if present
         String moduleName = null;
-        if (man != null) {
-            attrs = man.getMainAttributes();
+        String mainClass = null;
+        if (library != null) {
+            moduleName = library.getAutomaticModuleName();
+            mainClass = library.getMainClass();
+        } else {
+            Manifest man = jf.getManifest();
+            Attributes attrs = (man != null) ? man.getMainAttributes() : null;
             if (attrs != null) {
                 moduleName = attrs.getValue(AUTOMATIC_MODULE_NAME_MANIFEST_ENTRY);
+                mainClass = attrs.getValue(Attributes.Name.MAIN_CLASS);
             }
         }
 
@@ -322,66 +377,67 @@ public class JarFileModuleFinder implements ModuleFinder {
         if (vs != null)
             builder.version(vs);
 
-        // scan the names of the entries in the JAR file
-        Map<Boolean, Set<String>> map = jf.versionedStream()
-            .filter(e -> !e.isDirectory())
-            .map(JarEntry::getName)
-            .filter(e -> (e.endsWith(".class") ^ e.startsWith(SERVICES_PREFIX)))
-            .collect(Collectors.partitioningBy(e -> e.startsWith(SERVICES_PREFIX),
-                Collectors.toSet()));
-
-        Set<String> classFiles = map.get(Boolean.FALSE);
-        Set<String> configFiles = map.get(Boolean.TRUE);
-
-        // the packages containing class files
-        Set<String> packages = classFiles.stream()
-            .map(this::toPackageName)
-            .flatMap(Optional::stream)
-            .distinct()
-            .collect(Collectors.toSet());
+        Set<String> packages;
+        Set<String> serviceNames;
+        if (library != null) {
+            // the entries have already been scanned when the envelope jar was built
+            packages = library.getPackages().stream()
+                .filter(JarFileModuleFinder::isPackageName)
+                .collect(Collectors.toSet());
+            serviceNames = library.getServices().stream()
+                .filter(JarFileModuleFinder::isClassName)
+                .collect(Collectors.toSet());
+        } else {
+            // scan the names of the entries in the JAR file
+            Map<Boolean, Set<String>> map = jf.versionedStream()
+                .filter(e -> !e.isDirectory())
+                .map(JarEntry::getName)
+                .filter(e -> (e.endsWith(".class") ^ e.startsWith(SERVICES_PREFIX)))
+                .collect(Collectors.partitioningBy(e -> e.startsWith(SERVICES_PREFIX),
+                    Collectors.toSet()));
+
+            Set<String> classFiles = map.get(Boolean.FALSE);
+            Set<String> configFiles = map.get(Boolean.TRUE);
+
+            // the packages containing class files
+            packages = classFiles.stream()
+                .map(this::toPackageName)
+                .flatMap(Optional::stream)
+                .distinct()
+                .collect(Collectors.toSet());
+
+            // map names of service configuration files to service names
+            serviceNames = configFiles.stream()
+                .map(this::toServiceName)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toSet());
+        }
 
         // all packages are exported and open
         builder.packages(packages);
 
-        // map names of service configuration files to service names
-        Set<String> serviceNames = configFiles.stream()
-            .map(this::toServiceName)
-            .flatMap(Optional::stream)
-            .collect(Collectors.toSet());
-
         // parse each service configuration file
         for (String sn : serviceNames) {
-            JarEntry entry = jf.getJarEntry(SERVICES_PREFIX + sn);
             List<String> providerClasses = new ArrayList<>();
-            try (InputStream in = jf.getInputStream(entry)) {
-                BufferedReader reader
-                    = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
-                String cn;
-                while ((cn = nextLine(reader)) != null) {
-                    if (!cn.isEmpty()) {
-                        String pn = packageName(cn);
-                        if (!packages.contains(pn)) {
-                            String msg = "Provider class " + cn + " not in module";
-                            throw new InvalidModuleDescriptorException(msg);
-                        }
-                        providerClasses.add(cn);
-                    }
+            for (String cn : (library != null ? library.getProviders(sn) : readProviders(jf, sn))) {
+                String pn = packageName(cn);
+                if (!packages.contains(pn)) {
+                    String msg = "Provider class " + cn + " not in module";
+                    throw new InvalidModuleDescriptorException(msg);
                 }
+                providerClasses.add(cn);
             }
             if (!providerClasses.isEmpty())
                 builder.provides(sn, providerClasses);
         }
 
         // Main-Class attribute if it exists
-        if (attrs != null) {
-            String mainClass = attrs.getValue(Attributes.Name.MAIN_CLASS);
-            if (mainClass != null) {
-                mainClass = mainClass.replace('/', '.');
-                if (isClassName(mainClass)) {
-                    String pn = packageName(mainClass);
-                    if (packages.contains(pn)) {
-                        builder.mainClass(mainClass);
-                    }
+        if (mainClass != null) {
+            mainClass = mainClass.replace('/', '.');
+            if (isClassName(mainClass)) {
+                String pn = packageName(mainClass);
+                if (packages.contains(pn)) {
+                    builder.mainClass(mainClass);
                 }
             }
         }
@@ -389,6 +445,22 @@ public class JarFileModuleFinder implements ModuleFinder {
         return builder.build();
     }
 
+    private List<String> readProviders(JarFile jf, String sn) throws IOException {
+        JarEntry entry = jf.getJarEntry(SERVICES_PREFIX + sn);
+        List<String> providerClasses = new ArrayList<>();
+        try (InputStream in = jf.getInputStream(entry)) {
+            BufferedReader reader
+                = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String cn;
+            while ((cn = nextLine(reader)) != null) {
+                if (!cn.isEmpty()) {
+                    providerClasses.add(cn);
+                }
+            }
+        }
+        return providerClasses;
+    }
+
     private Optional<String> toServiceName(String cf) {
         assert cf.startsWith(SERVICES_PREFIX);
         int index = cf.lastIndexOf("/") + 1;
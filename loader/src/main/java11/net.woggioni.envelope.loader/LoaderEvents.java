@@ -0,0 +1,250 @@
+package net.woggioni.envelope.loader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits JDK Flight Recorder events for the hot operations of the loader.
+ * <p>
+ * Every operation is recorded by a {@code begin} method, whose result is passed to the matching
+ * {@code commit} method once the operation has completed; the result is {@code null} when the event
+ * is not being recorded.
+ * <p>
+ * Loading an event class, or registering a periodic event, starts Flight Recorder, which takes
+ * hundreds of milliseconds: none of them is touched until {@link FlightRecorder#isInitialized()} reports
+ * that Flight Recorder has been started by someone else, e.g. by {@code -XX:StartFlightRecording}
+ * or by {@code jcmd JFR.start}. The statistics of the entry header caches of the open jar files are
+ * emitted periodically, the periodic event is registered by the first operation that finds Flight Recorder
+ * started.
+ * <p>
+ * {@code jdk.jfr} is an optional dependency of the loader module: when it is missing from the
+ * runtime image no event class is ever loaded and no event is emitted.
+ */
+final class LoaderEvents {
+
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    private LoaderEvents() {
+    }
+
+    /**
+     * @return whether Flight Recorder has been started, only {@link FlightRecorder} is loaded to find out
+     */
+    private static boolean recorderInitialized() {
+        if (!AVAILABLE || !FlightRecorder.isInitialized()) {
+            return false;
+        }
+        Jfr.registerPeriodicEvents();
+        return true;
+    }
+
+    static Object beginNestedJarOpen() {
+        return recorderInitialized() ? Jfr.beginNestedJarOpen() : null;
+    }
+
+    static void commitNestedJarOpen(Object event, JarFile jarFile, boolean indexed, int entries, long centralDirectorySize) {
+        if (event != null) {
+            Jfr.commitNestedJarOpen(event, jarFile, indexed, entries, centralDirectorySize);
+        }
+    }
+
+    static Object beginClassDefine() {
+        return recorderInitialized() ? Jfr.beginClassDefine() : null;
+    }
+
+    static void commitClassDefine(Object event, String className, String source, int size, long readTime) {
+        if (event != null) {
+            Jfr.commitClassDefine(event, className, source, size, readTime);
+        }
+    }
+
+    static Object beginFileRead() {
+        return recorderInitialized() ? Jfr.beginFileRead() : null;
+    }
+
+    static void commitFileRead(Object event, RandomAccessDataFile file, long position, int bytes) {
+        if (event != null) {
+            Jfr.commitFileRead(event, file, position, bytes);
+        }
+    }
+
+    /**
+     * Holds all the references to the event classes, it is only loaded once Flight Recorder has been started.
+     */
+    private static final class Jfr {
+
+        private static volatile boolean periodicEventsRegistered;
+
+        private static Object beginNestedJarOpen() {
+            return begin(new NestedJarOpenEvent());
+        }
+
+        private static Object beginClassDefine() {
+            return begin(new ClassDefineEvent());
+        }
+
+        private static Object beginFileRead() {
+            return begin(new FileReadEvent());
+        }
+
+        private static Object begin(Event event) {
+            if (!event.isEnabled()) {
+                return null;
+            }
+            event.begin();
+            return event;
+        }
+
+        private static void commitNestedJarOpen(Object event, JarFile jarFile, boolean indexed, int entries,
+                                                long centralDirectorySize) {
+            NestedJarOpenEvent nestedJarOpen = (NestedJarOpenEvent) event;
+            nestedJarOpen.end();
+            if (nestedJarOpen.shouldCommit()) {
+                nestedJarOpen.path = jarFile.getName();
+                nestedJarOpen.indexed = indexed;
+                nestedJarOpen.entries = entries;
+                nestedJarOpen.centralDirectorySize = centralDirectorySize;
+                nestedJarOpen.commit();
+            }
+        }
+
+        private static void commitClassDefine(Object event, String className, String source, int size, long readTime) {
+            ClassDefineEvent classDefine = (ClassDefineEvent) event;
+            classDefine.end();
+            if (classDefine.shouldCommit()) {
+                classDefine.className = className;
+                classDefine.source = source;
+                classDefine.size = size;
+                classDefine.readTime = readTime;
+                classDefine.commit();
+            }
+        }
+
+        private static void commitFileRead(Object event, RandomAccessDataFile file, long position, int bytes) {
+            FileReadEvent fileRead = (FileReadEvent) event;
+            fileRead.end();
+            if (fileRead.shouldCommit()) {
+                fileRead.path = file.getFile().getPath();
+                fileRead.position = position;
+                fileRead.bytes = bytes;
+                fileRead.commit();
+            }
+        }
+
+        private static void registerPeriodicEvents() {
+            if (!periodicEventsRegistered) {
+                synchronized (Jfr.class) {
+                    if (!periodicEventsRegistered) {
+                        addPeriodicEvents();
+                        periodicEventsRegistered = true;
+                    }
+                }
+            }
+        }
+
+        private static void addPeriodicEvents() {
+            FlightRecorder.addPeriodicEvent(EntryCacheStatisticsEvent.class, () -> {
+                for (JarFile jarFile : JarFile.getOpenJarFiles()) {
+                    EntryCacheStatisticsEvent event = new EntryCacheStatisticsEvent();
+                    event.path = jarFile.getName();
+                    event.capacity = jarFile.getEntryCacheCapacity();
+                    event.hits = jarFile.getEntryCacheHits();
+                    event.misses = jarFile.getEntryCacheMisses();
+                    event.commit();
+                }
+            });
+        }
+    }
+
+    @Name("net.woggioni.envelope.NestedJarOpen")
+    @Label("Nested Jar Open")
+    @Category({"Envelope", "Loader"})
+    @Description("Opening of a jar file nested in another jar file")
+    private static final class NestedJarOpenEvent extends Event {
+
+        @Label("Path")
+        private String path;
+
+        @Label("Indexed")
+        @Description("Whether the entries have been read from the library index instead of the central directory")
+        private boolean indexed;
+
+        @Label("Entries")
+        private int entries;
+
+        @Label("Central Directory Size")
+        @DataAmount
+        private long centralDirectorySize;
+    }
+
+    @Name("net.woggioni.envelope.ClassDefine")
+    @Label("Class Define")
+    @Category({"Envelope", "Loader"})
+    @Description("Definition of a class read from a jar file by an envelope class loader")
+    private static final class ClassDefineEvent extends Event {
+
+        @Label("Class Name")
+        private String className;
+
+        @Label("Source")
+        @Description("The module or the library containing the class")
+        private String source;
+
+        @Label("Size")
+        @DataAmount
+        private int size;
+
+        @Label("Read Time")
+        @Description("Time spent reading and inflating the class file")
+        @Timespan(Timespan.NANOSECONDS)
+        private long readTime;
+    }
+
+    @Name("net.woggioni.envelope.FileRead")
+    @Label("Jar File Read")
+    @Category({"Envelope", "Loader"})
+    @Description("Read from a jar file opened by the loader")
+    @Threshold("20 ms")
+    private static final class FileReadEvent extends Event {
+
+        @Label("Path")
+        private String path;
+
+        @Label("Position")
+        private long position;
+
+        @Label("Bytes Read")
+        @DataAmount
+        private int bytes;
+    }
+
+    @Name("net.woggioni.envelope.EntryCacheStatistics")
+    @Label("Entry Cache Statistics")
+    @Category({"Envelope", "Loader"})
+    @Description("Statistics of the entry header cache of an open jar file")
+    @Period("60 s")
+    @StackTrace(false)
+    private static final class EntryCacheStatisticsEvent extends Event {
+
+        @Label("Path")
+        private String path;
+
+        @Label("Capacity")
+        private int capacity;
+
+        @Label("Hits")
+        private long hits;
+
+        @Label("Misses")
+        private long misses;
+    }
+}
@@ -133,8 +133,13 @@ public final class ModuleClassLoader extends SecureClassLoader {
         if (Objects.equals(moduleReference.descriptor().name(), moduleName)) {
             String resource = className.replace('.', '/').concat(".class");
             Optional<ByteBuffer> byteBufferOptional;
+            long start = Tracer.start();
+            long statisticsStart = LoaderStatistics.start();
+            Object event = LoaderEvents.beginClassDefine();
+            long readStart = (event != null) ? System.nanoTime() : 0L;
             try(ModuleReader reader = moduleReference.open()) {
                 byteBufferOptional = reader.read(resource);
+                long readTime = (event != null) ? System.nanoTime() - readStart : 0L;
                 if (byteBufferOptional.isPresent()) {
                     ByteBuffer byteBuffer = byteBufferOptional.get();
                     try {
@@ -143,9 +148,14 @@ public final class ModuleClassLoader extends SecureClassLoader {
                                 .map(urlConverter)
                                 .orElse(null);
                         CodeSource codeSource = new CodeSource(location, (CodeSigner[]) null);
-                        return defineClass(className, byteBuffer, codeSource);
+                        int size = byteBuffer.remaining();
+                        Class<?> result = defineClass(className, byteBuffer, codeSource);
+                        LoaderEvents.commitClassDefine(event, className, moduleName, size, readTime);
+                        LoaderStatistics.classDefined(moduleName, statisticsStart);
+                        return result;
                     } finally {
                         reader.release(byteBuffer);
+                        Tracer.end(Tracer.CLASS, className, start);
                     }
                 } else {
                     return null;
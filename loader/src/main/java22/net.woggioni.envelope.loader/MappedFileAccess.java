@@ -0,0 +1,102 @@
+package net.woggioni.envelope.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link RandomAccessDataFile.FileAccess} implementation that maps the whole file in memory
+ * as a single {@link MemorySegment}, so that files larger than 2 GB do not need to be split
+ * in multiple windows.
+ * <p>
+ * The mapping belongs to an automatic {@link Arena}: closing a shared arena would unmap the file
+ * under the threads that are still reading it, so {@link #close()} only drops the reference to the mapping,
+ * which is unmapped once it is no longer reachable, the file is mapped again if it is read after having been closed.
+ * <p>
+ * A section of the file can be mapped on its own, in which case positions are relative to the start of the section.
+ */
+final class MappedFileAccess implements RandomAccessDataFile.FileAccess {
+
+    private final File file;
+
+    private final long offset;
+
+    private final long length;
+
+    private volatile MemorySegment segment;
+
+    MappedFileAccess(File file) {
+        this(file, 0, -1);
+    }
+
+    /**
+     * Map a section of a file
+     * @param file the file
+     * @param offset the offset of the section in the file
+     * @param length the length of the section, {@code -1} for the rest of the file
+     */
+    MappedFileAccess(File file, long offset, long length) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.segment = map(file, offset, length);
+    }
+
+    private static MemorySegment map(File file, long offset, long length) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = length < 0 ? channel.size() - offset : length;
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, size, Arena.ofAuto());
+        } catch (NoSuchFileException ex) {
+            throw new IllegalArgumentException(String.format("File %s must exist", file.getAbsolutePath()));
+        } catch (IOException ex) {
+            throw new IllegalStateException(String.format("Unable to map file %s", file.getAbsolutePath()), ex);
+        }
+    }
+
+    private MemorySegment getSegment() {
+        MemorySegment result = this.segment;
+        if (result == null) {
+            synchronized (this) {
+                result = this.segment;
+                if (result == null) {
+                    result = map(this.file, this.offset, this.length);
+                    this.segment = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public int read(byte[] bytes, long position, int offset, int length) {
+        MemorySegment segment = getSegment();
+        int read = (int) Math.min(length, segment.byteSize() - position);
+        if (read <= 0) {
+            return length > 0 ? -1 : 0;
+        }
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, position, bytes, offset, read);
+        return read;
+    }
+
+    @Override
+    public int readByte(long position) {
+        MemorySegment segment = getSegment();
+        if (position >= segment.byteSize()) return -1;
+        return segment.get(ValueLayout.JAVA_BYTE, position) & 0xFF;
+    }
+
+    @Override
+    public void close() {
+        this.segment = null;
+    }
+}
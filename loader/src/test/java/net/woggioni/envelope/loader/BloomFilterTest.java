@@ -0,0 +1,88 @@
+package net.woggioni.envelope.loader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class BloomFilterTest {
+
+    private static final int ELEMENTS = 10000;
+
+    private static Set<Integer> randomHashCodes(Random random, int count) {
+        Set<Integer> result = new HashSet<>();
+        while (result.size() < count) {
+            result.add(random.nextInt());
+        }
+        return result;
+    }
+
+    @Test
+    void noFalseNegatives() {
+        Set<Integer> hashCodes = randomHashCodes(new Random(101325), ELEMENTS);
+        BloomFilter filter = new BloomFilter(ELEMENTS);
+        for (int hashCode : hashCodes) {
+            filter.add(hashCode);
+        }
+        for (int hashCode : hashCodes) {
+            Assertions.assertTrue(filter.mightContain(hashCode));
+        }
+    }
+
+    @Test
+    void negatives() {
+        Random random = new Random(101325);
+        Set<Integer> hashCodes = randomHashCodes(random, ELEMENTS);
+        BloomFilter filter = new BloomFilter(ELEMENTS);
+        for (int hashCode : hashCodes) {
+            filter.add(hashCode);
+        }
+        int lookups = 0;
+        int falsePositives = 0;
+        while (lookups < 100 * ELEMENTS) {
+            int hashCode = random.nextInt();
+            if (hashCodes.contains(hashCode)) continue;
+            lookups++;
+            if (filter.mightContain(hashCode)) falsePositives++;
+        }
+        double rate = (double) falsePositives / lookups;
+        Assertions.assertTrue(rate < 0.012, "False positive rate is " + rate);
+    }
+
+    @Test
+    void sequentialHashCodes() {
+        // Names differing only in their last character have consecutive hash codes
+        BloomFilter filter = new BloomFilter(ELEMENTS);
+        for (int i = 0; i < ELEMENTS; i++) {
+            filter.add(i * 2);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < ELEMENTS; i++) {
+            Assertions.assertTrue(filter.mightContain(i * 2));
+            if (filter.mightContain(i * 2 + 1)) falsePositives++;
+        }
+        Assertions.assertTrue(falsePositives < ELEMENTS * 0.012, falsePositives + " false positives");
+    }
+
+    @Test
+    void emptyFilter() {
+        BloomFilter filter = new BloomFilter(0);
+        Random random = new Random(101325);
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertFalse(filter.mightContain(random.nextInt()));
+        }
+        Assertions.assertFalse(filter.mightContain(0));
+    }
+
+    @Test
+    void footprint() {
+        for (int elements : new int[]{0, 1, 7, 100, 1000, ELEMENTS}) {
+            long bits = new BloomFilter(elements).getFootprint() * Byte.SIZE;
+            Assertions.assertTrue(bits >= (long) elements * BloomFilter.BITS_PER_ELEMENT);
+            Assertions.assertTrue(bits < Math.max(Long.SIZE * 2, (long) elements * BloomFilter.BITS_PER_ELEMENT * 2));
+            Assertions.assertEquals(1, Long.bitCount(bits));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package net.woggioni.envelope.loader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+public class JarFileEntriesTest {
+
+    @TempDir
+    Path testDir;
+
+    private JarFile open(Map<String, byte[]> entries) throws IOException {
+        return new JarFile(TestJars.create(testDir.resolve("test.jar"), null, entries).toFile());
+    }
+
+    private static Map<String, byte[]> entries(String... names) {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (String name : names) {
+            result.put(name, null);
+        }
+        return result;
+    }
+
+    private static void assertEntry(JarFile jarFile, String lookup, String expectedName) throws IOException {
+        ZipEntry entry = jarFile.getEntry(lookup);
+        Assertions.assertNotNull(entry, "Entry " + lookup + " not found");
+        Assertions.assertEquals(expectedName, entry.getName());
+        if (!entry.isDirectory()) {
+            Assertions.assertEquals(expectedName, TestJars.readString(jarFile, entry));
+        }
+    }
+
+    /**
+     * @return all the names made of {@code blocks} repetitions of "Aa" or "BB", which share the same hash code
+     */
+    private static List<String> collidingNames(String prefix, int blocks) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < 1 << blocks; i++) {
+            StringBuilder sb = new StringBuilder(prefix);
+            for (int j = 0; j < blocks; j++) {
+                sb.append((i & (1 << j)) == 0 ? "Aa" : "BB");
+            }
+            result.add(sb.toString());
+        }
+        return result;
+    }
+
+    @Test
+    void collisions() throws IOException {
+        List<String> names = collidingNames("c/", 5);
+        for (String name : names) {
+            Assertions.assertEquals(names.get(0).hashCode(), name.hashCode());
+        }
+        // Only half of the colliding names are in the jar, the others must be probed past and rejected
+        List<String> present = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            (i % 2 == 0 ? present : missing).add(names.get(i));
+        }
+        try (JarFile jarFile = open(entries(present.toArray(new String[0])))) {
+            for (String name : present) {
+                assertEntry(jarFile, name, name);
+            }
+            for (String name : missing) {
+                Assertions.assertNull(jarFile.getEntry(name), name);
+            }
+        }
+    }
+
+    @Test
+    void tableGrowth() throws IOException {
+        // Table sizes are powers of two, check the sizes around the thresholds
+        for (int size : new int[]{0, 1, 2, 3, 4, 7, 8, 9, 15, 16, 17, 1023, 1024, 1025}) {
+            String[] names = new String[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = "e/" + i + ".txt";
+            }
+            try (JarFile jarFile = open(entries(names))) {
+                Assertions.assertEquals(size, jarFile.size());
+                for (String name : names) {
+                    assertEntry(jarFile, name, name);
+                }
+                Assertions.assertNull(jarFile.getEntry("e/" + size + ".txt"));
+                List<String> iterated = new ArrayList<>();
+                for (Enumeration<java.util.jar.JarEntry> it = jarFile.entries(); it.hasMoreElements(); ) {
+                    iterated.add(it.nextElement().getName());
+                }
+                Assertions.assertEquals(Arrays.asList(names), iterated);
+            }
+        }
+    }
+
+    @Test
+    void missingNames() throws IOException {
+        try (JarFile jarFile = open(entries("a/", "a/bc.txt", "a/bd.txt"))) {
+            Assertions.assertNull(jarFile.getEntry("a/bc"));
+            Assertions.assertNull(jarFile.getEntry("a/bc.tx"));
+            Assertions.assertNull(jarFile.getEntry("a/bc.txtx"));
+            Assertions.assertNull(jarFile.getEntry("a/bc.txt/"));
+            Assertions.assertNull(jarFile.getEntry("A/bc.txt"));
+            Assertions.assertNull(jarFile.getEntry("b/bc.txt"));
+            Assertions.assertNull(jarFile.getEntry(""));
+            Assertions.assertNull(jarFile.getEntry("/"));
+            Assertions.assertFalse(jarFile.containsEntry("a/be.txt"));
+            Assertions.assertTrue(jarFile.containsEntry("a/bd.txt"));
+        }
+        try (JarFile jarFile = open(Collections.emptyMap())) {
+            Assertions.assertEquals(0, jarFile.size());
+            Assertions.assertNull(jarFile.getEntry("a"));
+            Assertions.assertNull(jarFile.getEntry(""));
+            Assertions.assertFalse(jarFile.entries().hasMoreElements());
+        }
+    }
+
+    @Test
+    void directoryLookups() throws IOException {
+        // "Aa/" and "BB/" share the same hash code, as do "Aa" and "BB"
+        try (JarFile jarFile = open(entries("dir/", "dir/file.txt", "implicit/file.txt", "Aa/", "BB"))) {
+            assertEntry(jarFile, "dir", "dir/");
+            assertEntry(jarFile, "dir/", "dir/");
+            Assertions.assertTrue(jarFile.getEntry("dir").isDirectory());
+            assertEntry(jarFile, "dir/file.txt", "dir/file.txt");
+            Assertions.assertFalse(jarFile.getEntry("dir/file.txt").isDirectory());
+            Assertions.assertNull(jarFile.getEntry("dir/file.txt/"));
+
+            // Directories without their own entry cannot be looked up
+            Assertions.assertNull(jarFile.getEntry("implicit"));
+            Assertions.assertNull(jarFile.getEntry("implicit/"));
+            assertEntry(jarFile, "implicit/file.txt", "implicit/file.txt");
+
+            assertEntry(jarFile, "Aa", "Aa/");
+            assertEntry(jarFile, "Aa/", "Aa/");
+            assertEntry(jarFile, "BB", "BB");
+            Assertions.assertNull(jarFile.getEntry("BB/"));
+        }
+    }
+
+    @Test
+    void forEachDirectory() throws IOException {
+        try (JarFile jarFile = open(entries("dir/", "dir/file.txt", "implicit/sub/file.txt", "root.txt"))) {
+            List<String> directories = new ArrayList<>();
+            jarFile.forEachDirectory(directories::add);
+            Assertions.assertTrue(directories.contains("dir/"));
+            Assertions.assertTrue(directories.contains("implicit/sub/"));
+            Assertions.assertTrue(directories.contains(""));
+            Assertions.assertFalse(directories.contains("dir/file.txt"));
+        }
+    }
+}
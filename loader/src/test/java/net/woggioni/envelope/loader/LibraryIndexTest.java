@@ -0,0 +1,411 @@
+package net.woggioni.envelope.loader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class LibraryIndexTest {
+
+    private static final String PLAIN = "LIB-INF/plain.jar";
+
+    private static final String MULTI_RELEASE = "LIB-INF/multi-release.jar";
+
+    private static final String CLASSES = "LIB-INF/classes.jar";
+
+    private static final int ALIGNMENT = 4096;
+
+    /**
+     * Identifier of the extra field used to pad the local headers of aligned entries
+     */
+    private static final int PADDING_EXTRA_FIELD = 0xD935;
+
+    @TempDir
+    Path testDir;
+
+    private Map<String, Path> libraries() throws IOException {
+        Map<String, byte[]> plainEntries = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            plainEntries.put("p/" + i + ".txt", null);
+        }
+        plainEntries.put("p/", null);
+        Map<String, byte[]> multiReleaseEntries = new LinkedHashMap<>();
+        multiReleaseEntries.put("a/A.class", null);
+        multiReleaseEntries.put("META-INF/versions/9/a/A.class", null);
+        multiReleaseEntries.put("META-INF/versions/9/b/B.class", null);
+        Map<String, Path> result = new LinkedHashMap<>();
+        result.put(PLAIN, TestJars.create(testDir.resolve("plain.jar"), TestJars.manifest(false), plainEntries));
+        result.put(MULTI_RELEASE, TestJars.create(testDir.resolve("multi-release.jar"),
+                TestJars.manifest(true), multiReleaseEntries));
+        return result;
+    }
+
+    private static long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(file));
+        return crc.getValue();
+    }
+
+    private static byte[] index(Map<String, Path> libraries) throws IOException {
+        return index(libraries, 0);
+    }
+
+    private static byte[] index(Map<String, Path> libraries, int alignment) throws IOException {
+        LibraryIndex.Writer writer = new LibraryIndex.Writer();
+        writer.setAlignment(alignment);
+        for (Map.Entry<String, Path> library : libraries.entrySet()) {
+            Path file = library.getValue();
+            Assertions.assertTrue(writer.add(library.getKey(), file.toFile(), crc(file), Files.size(file)));
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writer.write(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Write an envelope jar holding the libraries and the given index, all stored
+     */
+    private Path envelope(Map<String, Path> libraries, byte[] index) throws IOException {
+        return envelope(libraries, index, 0);
+    }
+
+    /**
+     * Write an envelope jar holding the libraries and the given index, all stored,
+     * with the data of the libraries starting at a multiple of {@code alignment}
+     */
+    private Path envelope(Map<String, Path> libraries, byte[] index, int alignment) throws IOException {
+        Path file = testDir.resolve("envelope.jar");
+        try (CountingOutputStream outputStream = new CountingOutputStream(Files.newOutputStream(file));
+             ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+            putStored(zipOutputStream, LibraryIndex.ENTRY_NAME, index, null);
+            for (Map.Entry<String, Path> library : libraries.entrySet()) {
+                byte[] padding = null;
+                if (alignment > 0) {
+                    long dataOffset = outputStream.count + 30 +
+                            library.getKey().getBytes(StandardCharsets.UTF_8).length + 4;
+                    padding = new byte[4 + (int) ((alignment - dataOffset % alignment) % alignment)];
+                    ByteBuffer.wrap(padding).order(ByteOrder.LITTLE_ENDIAN)
+                            .putShort((short) PADDING_EXTRA_FIELD)
+                            .putShort((short) (padding.length - 4));
+                }
+                putStored(zipOutputStream, library.getKey(), Files.readAllBytes(library.getValue()), padding);
+            }
+        }
+        return file;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static void putStored(ZipOutputStream zipOutputStream, String name, byte[] content, byte[] extra)
+            throws IOException {
+        ZipEntry zipEntry = new ZipEntry(name);
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setExtra(extra);
+        zipEntry.setSize(content.length);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        zipEntry.setCrc(crc.getValue());
+        zipOutputStream.putNextEntry(zipEntry);
+        zipOutputStream.write(content);
+        zipOutputStream.closeEntry();
+    }
+
+    /**
+     * Check that the nested libraries of the envelope have the same entries, with the same content,
+     * as the library files
+     */
+    private void assertLibraries(Map<String, Path> libraries, byte[] index) throws IOException {
+        assertLibraries(libraries, envelope(libraries, index));
+    }
+
+    private static void assertLibraries(Map<String, Path> libraries, Path file) throws IOException {
+        try (JarFile envelope = new JarFile(file.toFile())) {
+            for (Map.Entry<String, Path> library : libraries.entrySet()) {
+                JarFile nested = envelope.getNestedJarFile(envelope.getEntry(library.getKey()));
+                // Lookups of multi-release jars return versioned entries, so entries are compared as iterated
+                Map<String, ZipEntry> entries = new HashMap<>();
+                for (Enumeration<java.util.jar.JarEntry> it = nested.entries(); it.hasMoreElements(); ) {
+                    ZipEntry entry = it.nextElement();
+                    entries.put(entry.getName(), entry);
+                }
+                try (ZipFile expected = new ZipFile(library.getValue().toFile())) {
+                    Assertions.assertEquals(expected.size(), nested.size());
+                    Assertions.assertEquals(expected.size(), entries.size());
+                    Enumeration<? extends ZipEntry> expectedEntries = expected.entries();
+                    while (expectedEntries.hasMoreElements()) {
+                        ZipEntry expectedEntry = expectedEntries.nextElement();
+                        Assertions.assertNotNull(nested.getEntry(expectedEntry.getName()), expectedEntry.getName());
+                        ZipEntry entry = entries.get(expectedEntry.getName());
+                        Assertions.assertNotNull(entry, expectedEntry.getName());
+                        Assertions.assertEquals(expectedEntry.getCrc(), entry.getCrc());
+                        if (!expectedEntry.isDirectory()) {
+                            try (InputStream inputStream = expected.getInputStream(expectedEntry)) {
+                                Assertions.assertArrayEquals(readAll(inputStream), TestJars.read(nested, entry));
+                            }
+                        }
+                    }
+                    Assertions.assertNull(nested.getEntry("missing"));
+                }
+            }
+            JarFile multiRelease = envelope.getNestedJarFile(envelope.getEntry(MULTI_RELEASE));
+            Assertions.assertEquals("META-INF/versions/9/a/A.class",
+                    TestJars.readString(multiRelease, multiRelease.getEntry("a/A.class")));
+            Assertions.assertEquals("META-INF/versions/9/b/B.class",
+                    TestJars.readString(multiRelease, multiRelease.getEntry("b/B.class")));
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[0x1000];
+        while (true) {
+            int read = inputStream.read(buffer);
+            if (read < 0) break;
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * @return the position of the section of a library in the index
+     */
+    private static int sectionOffset(byte[] index, String name) {
+        ByteBuffer buffer = ByteBuffer.wrap(index);
+        buffer.position(Integer.BYTES * 4);
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] entryName = new byte[buffer.getShort() & 0xffff];
+            buffer.get(entryName);
+            buffer.position(buffer.position() + Long.BYTES * 2);
+            int offset = buffer.getInt();
+            buffer.getInt();
+            if (name.equals(new String(entryName, StandardCharsets.UTF_8))) {
+                return offset;
+            }
+        }
+        throw new AssertionError("Library " + name + " not found");
+    }
+
+    private static byte[] modified(byte[] index, Consumer<ByteBuffer> modification) {
+        byte[] result = Arrays.copyOf(index, index.length);
+        modification.accept(ByteBuffer.wrap(result));
+        return result;
+    }
+
+    private static void assertEmpty(byte[] index, Map<String, Path> libraries) throws IOException {
+        LibraryIndex libraryIndex = LibraryIndex.read(ByteBuffer.wrap(index));
+        for (Map.Entry<String, Path> library : libraries.entrySet()) {
+            Path file = library.getValue();
+            Assertions.assertNull(libraryIndex.getSection(library.getKey(), crc(file), Files.size(file)));
+        }
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        Map<String, Path> libraries = libraries();
+        byte[] index = index(libraries);
+        LibraryIndex libraryIndex = LibraryIndex.read(ByteBuffer.wrap(index));
+        for (Map.Entry<String, Path> library : libraries.entrySet()) {
+            Path file = library.getValue();
+            long crc = crc(file);
+            long size = Files.size(file);
+            ByteBuffer section = libraryIndex.getSection(library.getKey(), crc, size);
+            Assertions.assertNotNull(section);
+            Assertions.assertArrayEquals(LibraryIndex.Writer.section(file.toFile()), readAll(section));
+            Assertions.assertNull(libraryIndex.getSection(library.getKey(), crc + 1, size));
+            Assertions.assertNull(libraryIndex.getSection(library.getKey(), crc, size + 1));
+        }
+        Assertions.assertNull(libraryIndex.getSection("LIB-INF/missing.jar", 0, 0));
+        Assertions.assertEquals(0, libraryIndex.getAlignment());
+        assertLibraries(libraries, index);
+    }
+
+    @Test
+    void alignment() throws IOException {
+        LibraryIndex.Writer writer = new LibraryIndex.Writer();
+        writer.setAlignment(4096);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writer.write(outputStream);
+        Assertions.assertEquals(4096, LibraryIndex.read(ByteBuffer.wrap(outputStream.toByteArray())).getAlignment());
+        Assertions.assertEquals(0, LibraryIndex.EMPTY.getAlignment());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> writer.setAlignment(-1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> writer.setAlignment(0x10000));
+    }
+
+    /**
+     * @return a class file declaring an empty class
+     * @param name the internal name of the class
+     */
+    private static byte[] classFile(String name) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(0xCAFEBABE);
+        // Java 8
+        dataOutputStream.writeShort(0);
+        dataOutputStream.writeShort(52);
+        // Constant pool
+        dataOutputStream.writeShort(5);
+        dataOutputStream.writeByte(1);
+        dataOutputStream.writeUTF(name);
+        dataOutputStream.writeByte(7);
+        dataOutputStream.writeShort(1);
+        dataOutputStream.writeByte(1);
+        dataOutputStream.writeUTF("java/lang/Object");
+        dataOutputStream.writeByte(7);
+        dataOutputStream.writeShort(3);
+        // Public super class, this class, super class
+        dataOutputStream.writeShort(0x21);
+        dataOutputStream.writeShort(2);
+        dataOutputStream.writeShort(4);
+        // Interfaces, fields, methods, attributes
+        dataOutputStream.writeShort(0);
+        dataOutputStream.writeShort(0);
+        dataOutputStream.writeShort(0);
+        dataOutputStream.writeShort(0);
+        dataOutputStream.flush();
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    void alignedLibraries() throws IOException, ClassNotFoundException {
+        Map<String, Path> libraries = libraries();
+        Map<String, byte[]> classEntries = new LinkedHashMap<>();
+        classEntries.put("aligned/", null);
+        classEntries.put("aligned/Hello.class", classFile("aligned/Hello"));
+        libraries.put(CLASSES, TestJars.create(testDir.resolve("classes.jar"), TestJars.manifest(false), classEntries));
+        Path file = envelope(libraries, index(libraries, ALIGNMENT), ALIGNMENT);
+        try (JarFile envelope = new JarFile(file.toFile())) {
+            Assertions.assertFalse(envelope.getRootJarFile().isMemoryMapped());
+            for (String name : libraries.keySet()) {
+                JarFile nested = envelope.getNestedJarFile(envelope.getEntry(name));
+                // Each library is mapped on its own
+                RandomAccessData data = nested.getData();
+                Assertions.assertTrue(data instanceof RandomAccessDataFile, name);
+                Assertions.assertTrue(((RandomAccessDataFile) data).isMemoryMapped(), name);
+            }
+            JarFile classes = envelope.getNestedJarFile(envelope.getEntry(CLASSES));
+            EnvelopeClassLoader classLoader = new EnvelopeClassLoader(Collections.singletonList(classes), null);
+            Class<?> cls = classLoader.loadClass("aligned.Hello");
+            Assertions.assertEquals("aligned.Hello", cls.getName());
+            Assertions.assertSame(classLoader, cls.getClassLoader());
+            Assertions.assertNotNull(classLoader.getResource("aligned/Hello.class"));
+        }
+        assertLibraries(libraries, file);
+
+        // The libraries are aligned, but the index doesn't say so
+        file = envelope(libraries, index(libraries), ALIGNMENT);
+        try (JarFile envelope = new JarFile(file.toFile())) {
+            for (String name : libraries.keySet()) {
+                RandomAccessData data = envelope.getNestedJarFile(envelope.getEntry(name)).getData();
+                Assertions.assertFalse(data instanceof RandomAccessDataFile && ((RandomAccessDataFile) data).isMemoryMapped(), name);
+            }
+        }
+        assertLibraries(libraries, file);
+    }
+
+    private static byte[] readAll(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    @Test
+    void invalidIndex() throws IOException {
+        Map<String, Path> libraries = libraries();
+        byte[] index = index(libraries);
+        for (int length = 0; length < index.length; length++) {
+            assertEmpty(Arrays.copyOf(index, length), libraries);
+        }
+        // Version
+        assertEmpty(modified(index, buffer -> buffer.putInt(4, buffer.getInt(4) + 1)), libraries);
+        // Hash function
+        assertEmpty(modified(index, buffer -> buffer.putInt(8, buffer.getInt(8) + 1)), libraries);
+        // Alignment
+        assertEmpty(modified(index, buffer -> buffer.putInt(12, -1)), libraries);
+        assertEmpty(modified(index, buffer -> buffer.putInt(12, 0x10000)), libraries);
+        // Number of libraries
+        assertEmpty(modified(index, buffer -> buffer.putInt(16, -1)), libraries);
+        assertEmpty(modified(index, buffer -> buffer.putInt(16, Integer.MAX_VALUE)), libraries);
+        int directoryEntry = 20 + Short.BYTES + PLAIN.length() + Long.BYTES * 2;
+        // Section offset
+        assertEmpty(modified(index, buffer -> buffer.putInt(directoryEntry, -1)), libraries);
+        assertEmpty(modified(index, buffer -> buffer.putInt(directoryEntry, 0)), libraries);
+        assertEmpty(modified(index, buffer -> buffer.putInt(directoryEntry, index.length)), libraries);
+        // Section length
+        assertEmpty(modified(index, buffer -> buffer.putInt(directoryEntry + 4, -1)), libraries);
+        assertEmpty(modified(index, buffer -> buffer.putInt(directoryEntry + 4, index.length)), libraries);
+        // Garbage
+        assertEmpty(new byte[1024], libraries);
+        assertLibraries(libraries, new byte[1024]);
+    }
+
+    @Test
+    void invalidSection() throws IOException {
+        Map<String, Path> libraries = libraries();
+        byte[] index = index(libraries);
+        int section = sectionOffset(index, PLAIN);
+        int entries = section + Long.BYTES * 3 + Integer.BYTES + 1;
+        // The index is read, but opening the library from its section fails and falls back to its central directory
+        // Archive offset
+        assertLibraries(libraries, modified(index, buffer -> buffer.putLong(section, Long.MAX_VALUE)));
+        // Central directory offset and length
+        assertLibraries(libraries, modified(index, buffer -> buffer.putLong(section + Long.BYTES, -1)));
+        assertLibraries(libraries, modified(index, buffer -> buffer.putLong(section + Long.BYTES * 2, Long.MAX_VALUE)));
+        // Comment length
+        assertLibraries(libraries, modified(index, buffer -> buffer.putInt(section + Long.BYTES * 3, -1)));
+        assertLibraries(libraries, modified(index, buffer -> buffer.putInt(section + Long.BYTES * 3, 0x10000)));
+        // Number of entries
+        assertLibraries(libraries, modified(index, buffer -> buffer.putInt(entries, -1)));
+        assertLibraries(libraries, modified(index, buffer -> buffer.putInt(entries, Integer.MAX_VALUE)));
+        assertLibraries(libraries, modified(index, buffer -> buffer.putInt(entries, buffer.getInt(entries) - 1)));
+        int count = ByteBuffer.wrap(index).getInt(entries);
+        // Central directory offset of the first entry
+        int offsets = entries + Integer.BYTES + 3 + Integer.BYTES * count;
+        assertLibraries(libraries, modified(index, buffer -> buffer.putInt(offsets, Integer.MAX_VALUE)));
+        // Offset of the first name
+        int nameOffsets = offsets + Integer.BYTES * count;
+        assertLibraries(libraries, modified(index, buffer -> buffer.putInt(nameOffsets, 1)));
+        assertLibraries(libraries, modified(index, buffer -> buffer.putInt(nameOffsets + Integer.BYTES, -1)));
+    }
+}
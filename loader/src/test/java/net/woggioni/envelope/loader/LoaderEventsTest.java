@@ -0,0 +1,132 @@
+package net.woggioni.envelope.loader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Flight Recorder must not be started by the loader, the tests assume to run on Java 11 or later
+ */
+public class LoaderEventsTest {
+
+    private static final Pattern CLASS_LOAD = Pattern.compile("\\[class,load *\\] (\\S+) ");
+
+    @TempDir
+    Path testDir;
+
+    /**
+     * Read all the entries of the jar file passed as argument and of the jar files nested in it
+     */
+    public static void main(String[] args) throws IOException {
+        try (JarFile jarFile = new JarFile(new File(args[0]))) {
+            for (Enumeration<java.util.jar.JarEntry> it = jarFile.entries(); it.hasMoreElements(); ) {
+                java.util.jar.JarEntry entry = it.nextElement();
+                TestJars.read(jarFile, entry);
+                if (entry.getName().endsWith(".jar")) {
+                    try (JarFile nested = jarFile.getNestedJarFile(entry)) {
+                        for (Enumeration<java.util.jar.JarEntry> nestedEntries = nested.entries(); nestedEntries.hasMoreElements(); ) {
+                            TestJars.read(nested, nestedEntries.nextElement());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Path createJar() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a/A.class", null);
+        entries.put("b/B.class", null);
+        byte[] library = Files.readAllBytes(TestJars.create(testDir.resolve("library.jar"), TestJars.manifest(false), entries));
+        Path file = testDir.resolve("test.jar");
+        try (JarOutputStream jarOutputStream = new JarOutputStream(Files.newOutputStream(file), TestJars.manifest(false))) {
+            jarOutputStream.putNextEntry(new ZipEntry("c/C.class"));
+            jarOutputStream.write(TestJars.content("c/C.class"));
+            jarOutputStream.closeEntry();
+            // Nested jar files must be stored
+            ZipEntry entry = new ZipEntry("LIB-INF/library.jar");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(library.length);
+            CRC32 crc = new CRC32();
+            crc.update(library, 0, library.length);
+            entry.setCrc(crc.getValue());
+            jarOutputStream.putNextEntry(entry);
+            jarOutputStream.write(library);
+            jarOutputStream.closeEntry();
+        }
+        return file;
+    }
+
+    /**
+     * Run {@link #main(String[])} in a new JVM
+     * @return the classes loaded by the JVM
+     */
+    private static List<String> loadedClasses(Path jar, String... jvmArgs) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(Arrays.asList(jvmArgs));
+        command.add("-verbose:class");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(LoaderEventsTest.class.getName());
+        command.add(jar.toString());
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (InputStream inputStream = process.getInputStream()) {
+            byte[] buffer = new byte[0x1000];
+            while (true) {
+                int read = inputStream.read(buffer);
+                if (read < 0) break;
+                outputStream.write(buffer, 0, read);
+            }
+        }
+        String output = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        Assertions.assertEquals(0, process.waitFor(), output);
+        List<String> result = new ArrayList<>();
+        Matcher matcher = CLASS_LOAD.matcher(output);
+        while (matcher.find()) {
+            result.add(matcher.group(1));
+        }
+        return result;
+    }
+
+    @Test
+    void noFlightRecorderWithoutRecording() throws IOException, InterruptedException {
+        List<String> classes = loadedClasses(createJar());
+        Assertions.assertTrue(classes.contains(LoaderEvents.class.getName()), "The loader events have not been used");
+        for (String name : classes) {
+            Assertions.assertFalse(name.startsWith("jdk.jfr.internal."), name + " has been loaded");
+            Assertions.assertFalse(name.startsWith(LoaderEvents.class.getName() + "$"), name + " has been loaded");
+        }
+    }
+
+    @Test
+    void eventsWithRecording() throws IOException, InterruptedException {
+        if (LoaderEvents.class.getDeclaredClasses().length == 0) {
+            // The Java 8 implementation, which emits no events, is on the classpath
+            return;
+        }
+        List<String> classes = loadedClasses(createJar(), "-XX:StartFlightRecording");
+        Assertions.assertTrue(classes.contains(LoaderEvents.class.getName() + "$FileReadEvent"));
+        Assertions.assertTrue(classes.contains(LoaderEvents.class.getName() + "$NestedJarOpenEvent"));
+    }
+}
@@ -0,0 +1,120 @@
+package net.woggioni.envelope.loader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+public class MappedFileAccessTest {
+
+    private static final int SIZE = 0x40000;
+
+    @TempDir
+    Path testDir;
+
+    private File createFile() throws IOException {
+        byte[] content = new byte[SIZE];
+        new Random(101325).nextBytes(content);
+        Path file = testDir.resolve("data.bin");
+        Files.write(file, content);
+        return file.toFile();
+    }
+
+    @Test
+    void readAfterClose() throws IOException {
+        File file = createFile();
+        byte[] expected = Files.readAllBytes(file.toPath());
+        RandomAccessDataFile data = new RandomAccessDataFile(file, true);
+        Assertions.assertTrue(data.isMemoryMapped());
+        Assertions.assertArrayEquals(expected, data.read());
+        data.close();
+        Assertions.assertArrayEquals(expected, data.read());
+        data.close();
+    }
+
+    @Test
+    void readSection() throws IOException {
+        File file = createFile();
+        byte[] expected = Files.readAllBytes(file.toPath());
+        RandomAccessDataFile data = new RandomAccessDataFile(file, true);
+        RandomAccessData section = data.getSubsection(4096, 8192);
+        byte[] bytes = section.read();
+        for (int i = 0; i < bytes.length; i++) {
+            Assertions.assertEquals(expected[4096 + i], bytes[i]);
+        }
+        data.close();
+    }
+
+    @Test
+    @Timeout(value = 1, unit = MINUTES)
+    void concurrentReadsAndClose() throws Exception {
+        File file = createFile();
+        byte[] expected = Files.readAllBytes(file.toPath());
+        RandomAccessDataFile data = new RandomAccessDataFile(file, true);
+        int readers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(readers + 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                long seed = i;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    while (running.get()) {
+                        int offset = random.nextInt(SIZE);
+                        int length = random.nextInt(SIZE - offset);
+                        byte[] bytes = data.read(offset, length);
+                        for (int j = 0; j < length; j++) {
+                            if (bytes[j] != expected[offset + j]) {
+                                throw new AssertionError("Wrong byte at position " + (offset + j));
+                            }
+                        }
+                        try (InputStream inputStream = data.getSubsection(offset, length).getInputStream()) {
+                            int read = inputStream.read();
+                            if (length > 0 && read != (expected[offset] & 0xFF)) {
+                                throw new AssertionError("Wrong byte at position " + offset);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            Future<?> closer = executor.submit(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        data.close();
+                        Thread.yield();
+                    }
+                } finally {
+                    running.set(false);
+                }
+                return null;
+            });
+            closer.get();
+            for (Future<?> future : futures) {
+                // Rethrows the IllegalStateException of a reader whose mapping has been closed under it
+                future.get();
+            }
+        } finally {
+            running.set(false);
+            executor.shutdown();
+            executor.awaitTermination(1, MINUTES);
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.woggioni.envelope.loader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+public class ModuleMetadataTest {
+
+    @TempDir
+    Path testDir;
+
+    private static byte[] write(ModuleMetadata.Writer writer) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writer.write(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    void sortedWithoutTimestamp() throws IOException {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("release", "0");
+        values.put("packages", "b,a");
+        values.put("explicit", "false");
+        ModuleMetadata.Writer writer = new ModuleMetadata.Writer();
+        writer.add("LIB-INF/z.jar", "z", values);
+        writer.add("LIB-INF/a.jar", "a", values);
+        byte[] content = write(writer);
+
+        ModuleMetadata.Writer reversed = new ModuleMetadata.Writer();
+        reversed.add("LIB-INF/a.jar", "a", new TreeMap<>(values));
+        reversed.add("LIB-INF/z.jar", "z", new TreeMap<>(values));
+        Assertions.assertArrayEquals(content, write(reversed));
+
+        List<String> lines = Arrays.asList(new String(content, StandardCharsets.ISO_8859_1).split("\n"));
+        List<String> sorted = new ArrayList<>(lines);
+        sorted.sort(null);
+        Assertions.assertEquals(sorted, lines);
+        Assertions.assertEquals(8, lines.size());
+        for (String line : lines) {
+            Assertions.assertFalse(line.startsWith("#"), line);
+        }
+        Assertions.assertEquals("LIB-INF/a.jar\\#digest=a", lines.get(0));
+    }
+
+    @Test
+    void escaping() throws IOException {
+        Map<String, String> values = new TreeMap<>();
+        values.put("providers.a b=c:d", " leading space, trailing space ");
+        values.put("providers.#comment", "!bang\\backslash\ttab\nnewline\rreturn\fform");
+        values.put("providers.unicode", "\u00e9\u20ac\ud834\udd1e\u0001");
+        values.put("empty", "");
+        ModuleMetadata.Writer writer = new ModuleMetadata.Writer();
+        writer.add("LIB-INF/a b.jar", "digest", values);
+        byte[] content = write(writer);
+        for (byte b : content) {
+            Assertions.assertTrue(b == '\n' || (b >= 0x20 && b <= 0x7e), "Unexpected byte " + b);
+        }
+        Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(content));
+        Assertions.assertEquals(values.size() + 1, properties.size());
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            Assertions.assertEquals(entry.getValue(), properties.getProperty("LIB-INF/a b.jar#" + entry.getKey()));
+        }
+    }
+
+    @Test
+    void scan() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("com/example/A.class", null);
+        entries.put("com/example/impl/B.class", null);
+        entries.put("META-INF/services/com.example.Service",
+                "# comment\ncom.example.impl.B\n\ncom.example.A # trailing\n".getBytes(StandardCharsets.UTF_8));
+        entries.put("META-INF/versions/11/com/example/v11/C.class", null);
+        Path library = TestJars.create(testDir.resolve("library.jar"), TestJars.manifest(true), entries);
+        Map<String, String> values = ModuleMetadata.Writer.scan(library.toFile());
+        Assertions.assertNotNull(values);
+        Assertions.assertEquals("11", values.get("release"));
+        Assertions.assertEquals("false", values.get("explicit"));
+        Assertions.assertEquals("com.example,com.example.impl,com.example.v11", values.get("packages"));
+        Assertions.assertEquals("com.example.Service", values.get("services"));
+        Assertions.assertEquals("com.example.impl.B,com.example.A", values.get("providers.com.example.Service"));
+
+        Assertions.assertNull(ModuleMetadata.Writer.scan(testDir.resolve("missing.jar").toFile()));
+    }
+
+    @Test
+    void digest() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("com/example/A.class", null);
+        Path library = TestJars.create(testDir.resolve("library.jar"), TestJars.manifest(false), entries);
+        ModuleMetadata.Writer writer = new ModuleMetadata.Writer();
+        Assertions.assertTrue(writer.add("LIB-INF/a.jar", library.toFile(), "a-digest"));
+        Assertions.assertTrue(writer.add("LIB-INF/b.jar", library.toFile(), "b-digest"));
+        byte[] content = write(writer);
+
+        ModuleMetadata metadata = ModuleMetadata.read(new ByteArrayInputStream(content));
+        Map<String, String> values = metadata.getValues("LIB-INF/a.jar", "a-digest");
+        Assertions.assertEquals(ModuleMetadata.Writer.scan(library.toFile()), values);
+        Assertions.assertNull(metadata.getValues("LIB-INF/a.jar", "b-digest"));
+        Assertions.assertNull(metadata.getValues("LIB-INF/c.jar", "a-digest"));
+
+        // Only the library whose digest matches the manifest of the envelope jar gets its metadata
+        Manifest manifest = TestJars.manifest(false);
+        manifest.getEntries().computeIfAbsent("LIB-INF/a.jar", it -> new Attributes()).putValue("SHA-256-Digest", "a-digest");
+        manifest.getEntries().computeIfAbsent("LIB-INF/b.jar", it -> new Attributes()).putValue("SHA-256-Digest", "changed");
+        Path envelope = testDir.resolve("envelope.jar");
+        byte[] libraryContent = Files.readAllBytes(library);
+        try (JarOutputStream jarOutputStream = new JarOutputStream(Files.newOutputStream(envelope), manifest)) {
+            jarOutputStream.putNextEntry(new ZipEntry(ModuleMetadata.ENTRY_NAME));
+            jarOutputStream.write(content);
+            jarOutputStream.closeEntry();
+            for (String name : new String[]{"LIB-INF/a.jar", "LIB-INF/b.jar"}) {
+                ZipEntry entry = new ZipEntry(name);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(libraryContent.length);
+                CRC32 crc = new CRC32();
+                crc.update(libraryContent, 0, libraryContent.length);
+                entry.setCrc(crc.getValue());
+                jarOutputStream.putNextEntry(entry);
+                jarOutputStream.write(libraryContent);
+                jarOutputStream.closeEntry();
+            }
+        }
+        try (JarFile jarFile = new JarFile(envelope.toFile());
+             JarFile a = jarFile.getNestedJarFile(jarFile.getEntry("LIB-INF/a.jar"));
+             JarFile b = jarFile.getNestedJarFile(jarFile.getEntry("LIB-INF/b.jar"))) {
+            ModuleMetadata envelopeMetadata = ModuleMetadata.read(jarFile);
+            ModuleMetadata.Library libraryMetadata = envelopeMetadata.get(a);
+            Assertions.assertNotNull(libraryMetadata);
+            Assertions.assertEquals(Collections.singleton("com.example"), libraryMetadata.getPackages());
+            Assertions.assertNull(envelopeMetadata.get(b));
+            // Without the manifest nothing can be checked
+            Assertions.assertNull(metadata.get(a));
+        }
+    }
+}
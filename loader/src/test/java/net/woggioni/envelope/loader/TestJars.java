@@ -0,0 +1,79 @@
+package net.woggioni.envelope.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Helpers creating the jar files read by the loader tests
+ */
+final class TestJars {
+
+    private TestJars() {
+    }
+
+    static Manifest manifest(boolean multiRelease) {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (multiRelease) {
+            attributes.putValue("Multi-Release", "true");
+        }
+        return manifest;
+    }
+
+    /**
+     * Write a jar with the given entries, in iteration order, each one containing its own name
+     * unless a content is given. Entries whose name ends with a slash are written as directories.
+     * @param file the destination
+     * @param manifest the manifest, {@code null} to write a plain zip archive
+     * @param entries the entry names mapped to their content, or to {@code null}
+     * @return the destination
+     */
+    static Path create(Path file, Manifest manifest, Map<String, byte[]> entries) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(file);
+             ZipOutputStream zipOutputStream = manifest != null ?
+                     new JarOutputStream(outputStream, manifest) : new ZipOutputStream(outputStream)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                String name = entry.getKey();
+                zipOutputStream.putNextEntry(new ZipEntry(name));
+                if (!name.endsWith("/")) {
+                    zipOutputStream.write(entry.getValue() != null ? entry.getValue() : content(name));
+                }
+                zipOutputStream.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    static byte[] content(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] read(JarFile jarFile, ZipEntry entry) throws IOException {
+        try (InputStream inputStream = jarFile.getInputStream(entry)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[0x1000];
+            while (true) {
+                int read = inputStream.read(buffer);
+                if (read < 0) break;
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    static String readString(JarFile jarFile, ZipEntry entry) throws IOException {
+        return new String(read(jarFile, entry), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+package net.woggioni.envelope.loader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Multi-release lookups, the tests assume to run on Java 11 or later
+ */
+public class VersionOverlayTest {
+
+    /**
+     * A release no JVM running the tests can support
+     */
+    private static final int FUTURE_VERSION = 999;
+
+    @TempDir
+    Path testDir;
+
+    private JarFile open(Manifest manifest) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (String name : new String[]{
+                "a/A.class",
+                "META-INF/versions/9/a/A.class",
+                "META-INF/versions/10/a/A.class",
+                "META-INF/versions/9/b/B.class",
+                "c/C.class",
+                "META-INF/versions/" + FUTURE_VERSION + "/c/C.class",
+                "META-INF/versions/9/d/",
+                "META-INF/versions/9/d/D.class",
+                "META-INF/versions/9/META-INF/services/x",
+        }) {
+            entries.put(name, null);
+        }
+        return new JarFile(TestJars.create(testDir.resolve("test.jar"), manifest, entries).toFile());
+    }
+
+    private static void assertEntry(JarFile jarFile, String name, String source) throws IOException {
+        ZipEntry entry = jarFile.getEntry(name);
+        Assertions.assertNotNull(entry, "Entry " + name + " not found");
+        Assertions.assertEquals(name, entry.getName());
+        Assertions.assertEquals(source, TestJars.readString(jarFile, entry));
+    }
+
+    @Test
+    void highestSupportedVersionWins() throws IOException {
+        try (JarFile jarFile = open(TestJars.manifest(true))) {
+            assertEntry(jarFile, "a/A.class", "META-INF/versions/10/a/A.class");
+            // Only the versions up to the running one apply
+            assertEntry(jarFile, "c/C.class", "c/C.class");
+            // Versioned entries can be looked up even without a base entry
+            assertEntry(jarFile, "b/B.class", "META-INF/versions/9/b/B.class");
+            assertEntry(jarFile, "d/D.class", "META-INF/versions/9/d/D.class");
+            ZipEntry directory = jarFile.getEntry("d");
+            Assertions.assertNotNull(directory);
+            Assertions.assertEquals("d/", directory.getName());
+            Assertions.assertTrue(directory.isDirectory());
+        }
+    }
+
+    @Test
+    void explicitVersionedNames() throws IOException {
+        try (JarFile jarFile = open(TestJars.manifest(true))) {
+            assertEntry(jarFile, "META-INF/versions/9/a/A.class", "META-INF/versions/9/a/A.class");
+            assertEntry(jarFile, "META-INF/versions/" + FUTURE_VERSION + "/c/C.class",
+                    "META-INF/versions/" + FUTURE_VERSION + "/c/C.class");
+            // META-INF entries are never versioned
+            Assertions.assertNull(jarFile.getEntry("META-INF/services/x"));
+            Assertions.assertNull(jarFile.getEntry("a/Missing.class"));
+        }
+    }
+
+    @Test
+    void notMultiRelease() throws IOException {
+        try (JarFile jarFile = open(TestJars.manifest(false))) {
+            assertEntry(jarFile, "a/A.class", "a/A.class");
+            assertEntry(jarFile, "c/C.class", "c/C.class");
+            Assertions.assertNull(jarFile.getEntry("b/B.class"));
+            Assertions.assertNull(jarFile.getEntry("d/D.class"));
+        }
+    }
+
+    @Test
+    void versionedIterator() throws IOException {
+        // Versioned entries without a base entry come last, in no particular order
+        Map<String, String> expected = new HashMap<>();
+        expected.put("META-INF/MANIFEST.MF", null);
+        expected.put("a/A.class", "META-INF/versions/10/a/A.class");
+        expected.put("c/C.class", "c/C.class");
+        expected.put("b/B.class", "META-INF/versions/9/b/B.class");
+        expected.put("d/", null);
+        expected.put("d/D.class", "META-INF/versions/9/d/D.class");
+        try (JarFile jarFile = open(TestJars.manifest(true))) {
+            Map<String, String> actual = new HashMap<>();
+            for (Iterator<java.util.jar.JarEntry> it = jarFile.versionedIterator(); it.hasNext(); ) {
+                java.util.jar.JarEntry entry = it.next();
+                String content = entry.isDirectory() || entry.getName().startsWith("META-INF/") ?
+                        null : TestJars.readString(jarFile, entry);
+                Assertions.assertNull(actual.put(entry.getName(), content), "Duplicate entry " + entry.getName());
+            }
+            Assertions.assertEquals(expected, actual);
+        }
+    }
+}
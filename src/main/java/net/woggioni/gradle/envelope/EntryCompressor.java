@@ -0,0 +1,274 @@
+package net.woggioni.gradle.envelope;
+
+import lombok.Getter;
+import net.woggioni.envelope.Common;
+import net.woggioni.envelope.Constants;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Deflates archive entries, either on the calling thread or on a pool of threads.
+ * <p>
+ * Every entry is compressed independently with a new {@link Deflater} at the same level, so the compressed data
+ * only depends on the entry content and not on the number of threads or on the order in which entries are
+ * compressed. Compressed data is kept in memory up to {@value #IN_MEMORY_LIMIT} bytes and spilled
+ * to a temporary file beyond that.
+ * <p>
+ * Closing the compressor skips the entries that have not started yet and waits for the ones being compressed,
+ * so that all the submitted entries are complete afterwards and can be released with {@link #release(Future)}.
+ */
+final class EntryCompressor implements Closeable {
+
+    private static final int IN_MEMORY_LIMIT = 0x100000;
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final int level;
+
+    private final File spillDirectory;
+
+    private final ExecutorService executor;
+
+    @Getter
+    private final int threads;
+
+    private volatile boolean closed;
+
+    /**
+     * @param threads the number of threads compressing the entries, the entries are compressed
+     *                on the calling thread when it is less than 2
+     * @param level the compression level
+     * @param spillDirectory the directory of the temporary files holding the entries too big to be kept in memory
+     */
+    EntryCompressor(int threads, int level, File spillDirectory) {
+        this.threads = Math.max(threads, 1);
+        this.level = level;
+        this.spillDirectory = spillDirectory;
+        if (this.threads > 1) {
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "envelope-compressor-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            executor = Executors.newFixedThreadPool(this.threads, threadFactory);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Deflate the content of a file, asynchronously if the compressor has more than one thread
+     */
+    Future<CompressedEntry> submit(File file) {
+        if (executor == null) {
+            CompletableFuture<CompressedEntry> result = new CompletableFuture<>();
+            try {
+                result.complete(compress(file));
+            } catch (IOException ioe) {
+                result.completeExceptionally(ioe);
+            }
+            return result;
+        } else {
+            return CompletableFuture.supplyAsync(() -> {
+                if (closed) {
+                    throw new IllegalStateException("The compressor has been closed");
+                }
+                try {
+                    return compress(file);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }, executor);
+        }
+    }
+
+    /**
+     * Wait for an entry submitted with {@link #submit(File)}
+     */
+    static CompressedEntry get(Future<CompressedEntry> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Release the data of an entry submitted with {@link #submit(File)} that is not going to be written,
+     * the compressor has to be closed first so that the entry is complete
+     */
+    static void release(Future<CompressedEntry> future) {
+        try {
+            get(future).close();
+        } catch (Exception e) {
+            // An entry that failed has no data to release
+        }
+    }
+
+    CompressedEntry compress(File file) throws IOException {
+        try (InputStream inputStream = Common.read(file, false)) {
+            return compress(inputStream);
+        }
+    }
+
+    CompressedEntry compress(byte[] content) throws IOException {
+        return compress(new ByteArrayInputStream(content));
+    }
+
+    private CompressedEntry compress(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[Constants.BUFFER_SIZE];
+        byte[] output = new byte[Constants.BUFFER_SIZE];
+        Deflater deflater = new Deflater(level, true);
+        CRC32 crc32 = new CRC32();
+        CompressedEntry result = new CompressedEntry();
+        try {
+            while (true) {
+                int read = inputStream.read(buffer);
+                if (read < 0) break;
+                result.size += read;
+                crc32.update(buffer, 0, read);
+                deflater.setInput(buffer, 0, read);
+                while (!deflater.needsInput()) {
+                    result.append(output, deflater.deflate(output));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                result.append(output, deflater.deflate(output));
+            }
+            result.crc = crc32.getValue();
+            result.finish();
+            return result;
+        } catch (IOException | RuntimeException e) {
+            result.close();
+            throw e;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            closed = true;
+            executor.shutdown();
+            // The entries being compressed are waited for even if interrupted, so that none of them is left behind
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The deflated data of an entry, to be released with {@link #close()} once written
+     */
+    final class CompressedEntry implements Closeable {
+
+        private final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+        private File spillFile;
+
+        private OutputStream spill;
+
+        private long size;
+
+        private long compressedSize;
+
+        private long crc;
+
+        private void append(byte[] data, int length) throws IOException {
+            if (length == 0) return;
+            if (spill == null && memory.size() + length > IN_MEMORY_LIMIT) {
+                spillFile = File.createTempFile("entry", ".deflated", spillDirectory);
+                spill = Common.write(spillFile, true);
+                memory.writeTo(spill);
+                memory.reset();
+            }
+            if (spill != null) {
+                spill.write(data, 0, length);
+            } else {
+                memory.write(data, 0, length);
+            }
+            compressedSize += length;
+        }
+
+        private void finish() throws IOException {
+            if (spill != null) {
+                spill.close();
+                spill = null;
+            }
+        }
+
+        /**
+         * Set the method, the CRC-32 and the sizes of the entry
+         */
+        void configure(ZipEntry zipEntry) {
+            zipEntry.setMethod(ZipEntry.DEFLATED);
+            zipEntry.setSize(size);
+            zipEntry.setCompressedSize(compressedSize);
+            zipEntry.setCrc(crc);
+        }
+
+        void writeTo(ZipWriter zipWriter, byte[] buffer) throws IOException {
+            if (spillFile != null) {
+                try (InputStream inputStream = Common.read(spillFile, false)) {
+                    while (true) {
+                        int read = inputStream.read(buffer);
+                        if (read < 0) break;
+                        zipWriter.write(buffer, 0, read);
+                    }
+                }
+            } else {
+                byte[] data = memory.toByteArray();
+                zipWriter.write(data, 0, data.length);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            if (spillFile != null) {
+                Files.deleteIfExists(spillFile.toPath());
+                spillFile = null;
+            }
+        }
+    }
+}
@@ -8,6 +8,8 @@ import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import net.woggioni.envelope.Common;
 import net.woggioni.envelope.Constants;
+import net.woggioni.envelope.loader.LibraryIndex;
+import net.woggioni.envelope.loader.ModuleMetadata;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
@@ -17,6 +19,8 @@ import org.gradle.api.internal.file.copy.CopyAction;
 import org.gradle.api.internal.file.copy.CopyActionProcessingStream;
 import org.gradle.api.internal.file.copy.FileCopyDetailsInternal;
 import org.gradle.api.java.archives.internal.DefaultManifest;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.plugins.BasePlugin;
 import org.gradle.api.plugins.BasePluginExtension;
@@ -27,6 +31,7 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.TaskContainer;
 import org.gradle.api.tasks.WorkResult;
@@ -36,15 +41,24 @@ import org.gradle.util.GradleVersion;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -52,17 +66,14 @@ import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.function.Supplier;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import static java.util.zip.Deflater.BEST_COMPRESSION;
-import static java.util.zip.Deflater.NO_COMPRESSION;
 import static net.woggioni.gradle.envelope.EnvelopePlugin.ENVELOPE_GROUP_NAME;
 
 @CacheableTask
@@ -72,6 +83,8 @@ public abstract class EnvelopeJarTask extends AbstractArchiveTask {
     private static final String DEFAULT_ARCHIVE_APPENDIX = ENVELOPE_GROUP_NAME;
     private static final String MINIMUM_GRADLE_VERSION = "6.0";
     private static final String EXTRACT_LAUNCHER_TASK_NAME = "extractEnvelopeLauncher";
+    private static final int COMPRESSION_WINDOW = 4;
+    private static final Logger logger = Logging.getLogger(EnvelopeJarTask.class);
 
     static {
         if (GradleVersion.current().compareTo(GradleVersion.version(MINIMUM_GRADLE_VERSION)) < 0) {
@@ -98,6 +111,60 @@ public abstract class EnvelopeJarTask extends AbstractArchiveTask {
     @Input
     public abstract ListProperty<String> getExtraClasspath();
 
+    @Input
+    @Optional
+    public abstract Property<Boolean> getMemoryMapped();
+
+    /**
+     * When set, the data of the stored jar entries of the archive, such as the libraries, starts at a multiple
+     * of this number of bytes (e.g. 4096 to align them to memory pages), so that the launcher can map them on their own
+     */
+    @Input
+    @Optional
+    public abstract Property<Integer> getAlignment();
+
+    /**
+     * When enabled, the library jars are rewritten with their class files stored uncompressed,
+     * so that the launcher can load classes without inflating them, at the cost of a bigger archive
+     */
+    @Input
+    public abstract Property<Boolean> getRepackLibraries();
+
+    /**
+     * The glob patterns of the library entries that are stored uncompressed, besides class files,
+     * when libraries are repacked
+     */
+    @Input
+    public abstract ListProperty<String> getStoredResources();
+
+    /**
+     * The number of threads compressing the entries of the archive, the archive content does not depend on it
+     */
+    @Internal
+    public abstract Property<Integer> getCompressionThreads();
+
+    /**
+     * When enabled, the libraries whose source files have the same path, size and modification time
+     * as in the previous execution are copied from the previous archive instead of being read and hashed again
+     */
+    @Internal
+    public abstract Property<Boolean> getIncremental();
+
+    /**
+     * The maximum number of libraries whose digest, CRC-32, index section and module metadata are cached
+     * across executions, keyed by the path, size, modification time and file key of the library;
+     * {@code 0} disables the cache
+     */
+    @Internal
+    public abstract Property<Integer> getLibraryCacheSize();
+
+    /**
+     * When enabled, the values found in the library cache and the digests of the libraries copied from the previous
+     * archive are computed again from the library files and the task fails if they differ
+     */
+    @Internal
+    public abstract Property<Boolean> getValidateLibraryCache();
+
     private final org.gradle.api.java.archives.Manifest manifest;
 
     public org.gradle.api.java.archives.Manifest manifest() {
@@ -166,6 +233,12 @@ public abstract class EnvelopeJarTask extends AbstractArchiveTask {
 
         manifest = new DefaultManifest(fileResolver);
         getSystemProperties().convention(new TreeMap<>());
+        getCompressionThreads().convention(1);
+        getIncremental().convention(false);
+        getRepackLibraries().convention(false);
+        getStoredResources().convention(Collections.emptyList());
+        getLibraryCacheSize().convention(10000);
+        getValidateLibraryCache().convention(false);
         JavaApplication javaApplication = getProject().getExtensions().findByType(JavaApplication.class);
         if(!Objects.isNull(javaApplication)) {
             getMainClass().convention(javaApplication.getMainClass());
@@ -174,10 +247,33 @@ public abstract class EnvelopeJarTask extends AbstractArchiveTask {
         from(getProject().tarTree(extractLauncherTaskProvider.map(ExtractLauncherTask::getLauncherTar)), copySpec -> exclude(JarFile.MANIFEST_NAME));
     }
 
+    /**
+     * An entry of the archive together with the location of its content
+     */
+    @RequiredArgsConstructor
+    private static final class ArchiveEntry {
+        private final ZipEntry zipEntry;
+
+        /**
+         * The file holding the content of the entry, {@code null} for directories
+         */
+        private final File file;
+
+        /**
+         * The offset of the content of the entry in {@link #file}
+         */
+        private final long offset;
+    }
+
+    /**
+     * Collects the entries of the archive, computing the library digests and the library index
+     * on the way, without writing anything: the manifest and the other metadata entries
+     * can only be written once all the libraries are known.
+     */
     @RequiredArgsConstructor
     private static class StreamAction implements CopyActionProcessingStreamAction {
 
-        private final ZipOutputStream zoos;
+        private final List<ArchiveEntry> entries;
         private final Manifest manifest;
         private final MessageDigest md;
         private final ZipEntryFactory zipEntryFactory;
@@ -185,6 +281,29 @@ public abstract class EnvelopeJarTask extends AbstractArchiveTask {
 
         private final List<String> libraries;
 
+        private final LibraryIndex.Writer libraryIndex;
+
+        private final ModuleMetadata.Writer moduleMetadata;
+
+        /**
+         * The archive written by the previous execution, {@code null} if it cannot be reused
+         */
+        private final PreviousArchive previousArchive;
+
+        private final Map<String, String> libraryFingerprints;
+
+        private final LibraryCache libraryCache;
+
+        /**
+         * Whether the values found in {@link #libraryCache} and {@link #previousArchive} are computed again and checked
+         */
+        private final boolean validateLibraryCache;
+
+        /**
+         * The repacker of the library jars, {@code null} if libraries are not repacked
+         */
+        private final LibraryRepacker libraryRepacker;
+
         private static final String LIBRARY_PREFIX = Constants.LIBRARIES_FOLDER + '/';
 
         @Override
@@ -192,39 +311,127 @@ public abstract class EnvelopeJarTask extends AbstractArchiveTask {
         public void processFile(FileCopyDetailsInternal fileCopyDetails) {
             String entryName = fileCopyDetails.getRelativePath().toString();
             int start = LIBRARY_PREFIX.length() + 1;
-            if (!fileCopyDetails.isDirectory() &&
+            boolean library = !fileCopyDetails.isDirectory() &&
                     entryName.startsWith(LIBRARY_PREFIX) &&
-                    entryName.indexOf('/', start) < 0) {
-                libraries.add(entryName.substring(LIBRARY_PREFIX.length()));
-                Supplier<InputStream> streamSupplier = () -> Common.read(fileCopyDetails.getFile(), false);
-                Attributes attr = manifest.getEntries().computeIfAbsent(entryName, it -> new Attributes());
-                md.reset();
-                attr.putValue(Constants.ManifestAttributes.ENTRY_HASH,
-                        Base64.getEncoder().encodeToString(Common.computeDigest(streamSupplier, md, buffer)));
-            }
+                    entryName.indexOf('/', start) < 0;
             if (Constants.METADATA_FOLDER.equals(entryName)) return;
             if (fileCopyDetails.isDirectory()) {
                 ZipEntry zipEntry = zipEntryFactory.createDirectoryEntry(entryName, fileCopyDetails.getLastModified());
-                zoos.putNextEntry(zipEntry);
+                entries.add(new ArchiveEntry(zipEntry, null, 0));
             } else {
                 ZipEntry zipEntry = zipEntryFactory.createZipEntry(entryName, fileCopyDetails.getLastModified());
                 boolean compressed = Common.splitExtension(fileCopyDetails.getSourceName())
                         .map(entry -> ".jar".equals(entry.getValue()))
                         .orElse(false);
-                if (!compressed) {
+                File file = library && compressed && libraryRepacker != null ?
+                        libraryRepacker.repack(fileCopyDetails.getFile()) : fileCopyDetails.getFile();
+                File source = file;
+                long offset = 0;
+                String digest = null;
+                LibraryCache.Library cached = null;
+                if (library) {
+                    libraryFingerprints.put(entryName, PreviousArchive.fingerprint(file));
+                }
+                if (library && compressed) {
+                    PreviousArchive.Library previousLibrary = previousArchive != null ?
+                            previousArchive.find(entryName, file).orElse(null) : null;
+                    cached = processLibrary(file, previousLibrary);
+                    zipEntry.setSize(cached.getSize());
+                    zipEntry.setCompressedSize(cached.getSize());
+                    zipEntry.setCrc(cached.getCrc());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    digest = cached.getDigest();
+                    if (previousLibrary != null) {
+                        // The library has not changed, it is copied from the previous archive
+                        logger.info("Reusing '{}' from the previous archive", entryName);
+                        source = previousArchive.getFile();
+                        offset = previousLibrary.getDataOffset();
+                    }
+                } else if (!compressed) {
                     zipEntry.setMethod(ZipEntry.DEFLATED);
+                    if (library) {
+                        md.reset();
+                        digest = Base64.getEncoder().encodeToString(
+                                Common.computeDigest(() -> Common.read(file, false), md, buffer));
+                    }
                 } else {
-                    try (InputStream is = Common.read(fileCopyDetails.getFile(), false)) {
-                        Common.computeSizeAndCrc32(zipEntry, is, buffer);
+                    // Digest, size and CRC-32 are computed with a single read of the file
+                    md.reset();
+                    try (InputStream is = Common.read(file, false)) {
+                        Common.computeDigestSizeAndCrc32(zipEntry, is, md, buffer);
                     }
                     zipEntry.setMethod(ZipEntry.STORED);
                 }
-                zoos.putNextEntry(zipEntry);
-                try (InputStream is = Common.read(fileCopyDetails.getFile(), false)) {
-                    Common.write2Stream(is, zoos, buffer);
+                if (library) {
+                    libraries.add(entryName.substring(LIBRARY_PREFIX.length()));
+                    Attributes attr = manifest.getEntries().computeIfAbsent(entryName, it -> new Attributes());
+                    attr.putValue(Constants.ManifestAttributes.ENTRY_HASH, digest);
+                    if (cached == null) {
+                        moduleMetadata.add(entryName, file, digest);
+                    } else {
+                        if (cached.getMetadata() != null) {
+                            moduleMetadata.add(entryName, digest, cached.getMetadata());
+                        }
+                        if (cached.getSection() != null) {
+                            libraryIndex.add(entryName, cached.getCrc(), cached.getSize(), cached.getSection());
+                        }
+                    }
                 }
+                entries.add(new ArchiveEntry(zipEntry, source, offset));
             }
         }
+
+        /**
+         * Return the digest, CRC-32, size, index section and module metadata of a jar library,
+         * taking them from the library cache when the library has not changed since they were cached,
+         * or else from the previous archive when the library has not changed since it was written
+         * @param previousLibrary the library in the previous archive, {@code null} if it has to be read,
+         *                        it is read anyway when {@link #validateLibraryCache} is set
+         */
+        private LibraryCache.Library processLibrary(File file, PreviousArchive.Library previousLibrary) throws IOException {
+            LibraryCache.Key key = LibraryCache.key(file);
+            LibraryCache.Library cached = libraryCache.get(key);
+            if (cached != null && !validateLibraryCache) {
+                return cached;
+            }
+            String digest;
+            long crc;
+            long size;
+            byte[] section = null;
+            Map<String, String> metadata = null;
+            if (previousLibrary != null && !validateLibraryCache) {
+                digest = previousLibrary.getDigest();
+                crc = previousLibrary.getCrc();
+                size = previousLibrary.getSize();
+                section = previousLibrary.getSection();
+                metadata = previousLibrary.getMetadata();
+            } else {
+                // Digest, size and CRC-32 are computed with a single read of the file
+                ZipEntry zipEntry = new ZipEntry(file.getName());
+                md.reset();
+                try (InputStream is = Common.read(file, false)) {
+                    digest = Base64.getEncoder().encodeToString(
+                            Common.computeDigestSizeAndCrc32(zipEntry, is, md, buffer));
+                }
+                crc = zipEntry.getCrc();
+                size = zipEntry.getSize();
+                if (previousLibrary != null && (!digest.equals(previousLibrary.getDigest())
+                        || crc != previousLibrary.getCrc() || size != previousLibrary.getSize())) {
+                    throw new GradleException(String.format(
+                            "The previous archive entry of '%s' does not match the file content", file));
+                }
+            }
+            // The library is only opened for the values the previous archive does not record
+            LibraryCache.Library computed = new LibraryCache.Library(digest, crc, size,
+                    section != null ? section : LibraryIndex.Writer.section(file),
+                    metadata != null ? metadata : ModuleMetadata.Writer.scan(file));
+            if (cached != null && !cached.sameAs(computed)) {
+                throw new GradleException(String.format(
+                        "The library cache entry of '%s' does not match the file content", file));
+            }
+            libraryCache.put(key, computed);
+            return computed;
+        }
     }
 
     @SuppressWarnings("SameParameterValue")
@@ -260,22 +467,69 @@ public abstract class EnvelopeJarTask extends AbstractArchiveTask {
         ZipEntry createDirectoryEntry(@Nonnull String entryName) {
             return createDirectoryEntry(entryName, defaultLastModifiedTime);
         }
+    }
 
-        @Nonnull
-        ZipEntry copyOf(@Nonnull ZipEntry zipEntry) {
-            if (zipEntry.getMethod() == ZipEntry.STORED) {
-                return new ZipEntry(zipEntry);
-            } else {
-                ZipEntry newEntry = new ZipEntry(zipEntry.getName());
-                newEntry.setMethod(ZipEntry.DEFLATED);
-                newEntry.setTime(zipEntry.getTime());
-                newEntry.setExtra(zipEntry.getExtra());
-                newEntry.setComment(zipEntry.getComment());
-                return newEntry;
+    private static void writePending(ZipWriter zipWriter,
+                                     Map.Entry<ArchiveEntry, Future<EntryCompressor.CompressedEntry>> pending,
+                                     byte[] buffer,
+                                     int alignment) throws IOException, InterruptedException {
+        ArchiveEntry archiveEntry = pending.getKey();
+        ZipEntry zipEntry = archiveEntry.zipEntry;
+        Future<EntryCompressor.CompressedEntry> future = pending.getValue();
+        if (future == null) {
+            writeEntry(zipWriter, zipEntry, archiveEntry.file, archiveEntry.offset, alignment);
+        } else {
+            try (EntryCompressor.CompressedEntry compressedEntry = EntryCompressor.get(future)) {
+                compressedEntry.configure(zipEntry);
+                zipWriter.putNextEntry(zipEntry);
+                compressedEntry.writeTo(zipWriter, buffer);
+                zipWriter.closeEntry();
             }
         }
     }
 
+    /**
+     * Write a stored entry whose content starts at {@code offset} in {@code file},
+     * or a directory entry when {@code file} is {@code null}
+     * @param alignment the alignment of the data of a stored entry in the archive, {@code 0} for none
+     */
+    private static void writeEntry(ZipWriter zipWriter, ZipEntry zipEntry, File file, long offset,
+                                   int alignment) throws IOException {
+        zipWriter.putNextEntry(zipEntry, file != null ? alignment : 0);
+        if (file != null) {
+            zipWriter.transferFrom(file, offset, zipEntry.getCompressedSize());
+        }
+        zipWriter.closeEntry();
+    }
+
+    /**
+     * Write properties as {@link Properties#store(OutputStream, String)} does, without the timestamp comment
+     * on the first line, so that the same properties always give the same content
+     */
+    private static void storeProperties(Properties properties, ByteArrayOutputStream content) throws IOException {
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        properties.store(stored, null);
+        byte[] bytes = stored.toByteArray();
+        int start = 0;
+        while (start < bytes.length && bytes[start++] != '\n') {
+        }
+        content.write(bytes, start, bytes.length - start);
+    }
+
+    /**
+     * Write a deflated entry holding the content of {@code content}, which is reset afterwards
+     */
+    private static void writeDeflated(ZipWriter zipWriter, EntryCompressor compressor, ZipEntry zipEntry,
+                                      ByteArrayOutputStream content, byte[] buffer) throws IOException {
+        try (EntryCompressor.CompressedEntry compressedEntry = compressor.compress(content.toByteArray())) {
+            compressedEntry.configure(zipEntry);
+            zipWriter.putNextEntry(zipEntry);
+            compressedEntry.writeTo(zipWriter, buffer);
+            zipWriter.closeEntry();
+        }
+        content.reset();
+    }
+
     @Override
     @Nonnull
     protected CopyAction createCopyAction() {
@@ -317,71 +571,136 @@ public abstract class EnvelopeJarTask extends AbstractArchiveTask {
                 if(getMainModule().isPresent()) {
                     mainAttributes.putValue(Constants.ManifestAttributes.MAIN_MODULE, getMainModule().get());
                 }
+                if(getMemoryMapped().isPresent()) {
+                    mainAttributes.putValue(Constants.ManifestAttributes.MEMORY_MAPPED, getMemoryMapped().get().toString());
+                }
 
                 MessageDigest md = MessageDigest.getInstance("SHA-256");
                 byte[] buffer = new byte[Constants.BUFFER_SIZE];
                 List<String> libraries = new ArrayList<>();
+                LibraryIndex.Writer libraryIndex = new LibraryIndex.Writer();
+                ModuleMetadata.Writer moduleMetadata = new ModuleMetadata.Writer();
 
                 /**
                  * The manifest has to be the first zip entry in a jar archive, as an example,
                  * {@link java.util.jar.JarInputStream} assumes the manifest is the first (or second at most)
                  * entry in the jar and simply returns a null manifest if that is not the case.
-                 * In this case the manifest has to contain the hash of all the jar entries, so it cannot
-                 * be computed in advance, we write all the entries to a temporary zip archive while computing the manifest,
-                 * then we write the manifest to the final zip file as the first entry and, finally,
-                 * we copy all the other entries from the temporary archive.
+                 * In this case the manifest has to contain the hash of all the libraries, so it cannot
+                 * be computed in advance: all the entries are collected first, while computing the manifest,
+                 * then the manifest is written to the archive as the first entry followed by all the other entries,
+                 * each of them read from its source file and compressed exactly once.
                  *
-                 * The {@link org.gradle.api.Task#getTemporaryDir} directory is guaranteed
-                 * to be unique per instance of this task.
+                 * In incremental mode the libraries whose source files have not changed since the previous
+                 * execution are copied from the previous archive, reusing its digests and CRC-32s.
                  */
-                File temporaryJar = new File(getTemporaryDir(), "premature.zip");
-                try (ZipOutputStream zipOutputStream = new ZipOutputStream(Common.write(temporaryJar, true))) {
-                    zipOutputStream.setLevel(NO_COMPRESSION);
-                    StreamAction streamAction = new StreamAction(
-                            zipOutputStream, manifest, md, zipEntryFactory, buffer, libraries);
+                File stateFile = new File(getTemporaryDir(), "incremental.properties");
+                boolean incremental = getIncremental().get();
+                if (!incremental) {
+                    Files.deleteIfExists(stateFile.toPath());
+                }
+                List<ArchiveEntry> entries = new ArrayList<>();
+                Map<String, String> libraryFingerprints = new TreeMap<>();
+                try (PreviousArchive previousArchive = incremental ?
+                        PreviousArchive.open(destination, stateFile, getTemporaryDir()) : null) {
+                    LibraryCache libraryCache = LibraryCache.load(
+                            new File(getTemporaryDir(), "libraries.cache"), getLibraryCacheSize().get());
+                    LibraryRepacker libraryRepacker = getRepackLibraries().get() ?
+                            new LibraryRepacker(new File(getTemporaryDir(), "repacked"), getStoredResources().get()) : null;
+                    StreamAction streamAction = new StreamAction(entries, manifest, md, zipEntryFactory, buffer,
+                            libraries, libraryIndex, moduleMetadata, previousArchive, libraryFingerprints,
+                            libraryCache, getValidateLibraryCache().get(), libraryRepacker);
                     copyActionProcessingStream.process(streamAction);
+                    libraryCache.save();
+                    if (libraryRepacker != null) {
+                        libraryRepacker.deleteUnused();
+                    }
+                    write(destination, entries, manifest, libraries, libraryIndex, moduleMetadata, buffer);
+                }
+                if (incremental) {
+                    PreviousArchive.writeState(stateFile, destination, libraryFingerprints);
                 }
+                return () -> true;
+            }
 
-                try (ZipOutputStream zipOutputStream = new ZipOutputStream(Common.write(destination, true));
-                    ZipInputStream zipInputStream = new ZipInputStream(Common.read(temporaryJar, true))) {
-                    zipOutputStream.setLevel(BEST_COMPRESSION);
-                    ZipEntry zipEntry = zipEntryFactory.createDirectoryEntry(Constants.METADATA_FOLDER);
-                    zipOutputStream.putNextEntry(zipEntry);
-                    zipEntry = zipEntryFactory.createZipEntry(JarFile.MANIFEST_NAME);
-                    zipEntry.setMethod(ZipEntry.DEFLATED);
-                    zipOutputStream.putNextEntry(zipEntry);
-                    manifest.write(zipOutputStream);
-                    zipEntry = zipEntryFactory.createZipEntry(Constants.JAVA_AGENTS_FILE);
-                    zipEntry.setMethod(ZipEntry.DEFLATED);
-                    zipOutputStream.putNextEntry(zipEntry);
-                    javaAgents.store(zipOutputStream, null);
-                    zipEntry = zipEntryFactory.createZipEntry(Constants.SYSTEM_PROPERTIES_FILE);
-                    zipEntry.setMethod(ZipEntry.DEFLATED);
-                    zipOutputStream.putNextEntry(zipEntry);
+            private void write(File destination,
+                               List<ArchiveEntry> entries,
+                               Manifest manifest,
+                               List<String> libraries,
+                               LibraryIndex.Writer libraryIndex,
+                               ModuleMetadata.Writer moduleMetadata,
+                               byte[] buffer) throws IOException, InterruptedException {
+                try (ZipWriter zipWriter = new ZipWriter(FileChannel.open(destination.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+                     EntryCompressor compressor = new EntryCompressor(
+                             getCompressionThreads().get(), BEST_COMPRESSION, getTemporaryDir())) {
+                    writeEntry(zipWriter, zipEntryFactory.createDirectoryEntry(Constants.METADATA_FOLDER), null, 0, 0);
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    manifest.write(content);
+                    writeDeflated(zipWriter, compressor,
+                            zipEntryFactory.createZipEntry(JarFile.MANIFEST_NAME), content, buffer);
+                    storeProperties(javaAgents, content);
+                    writeDeflated(zipWriter, compressor,
+                            zipEntryFactory.createZipEntry(Constants.JAVA_AGENTS_FILE), content, buffer);
                     Properties props = new Properties();
                     for(Map.Entry<String, String> entry : getSystemProperties().get().entrySet()) {
                         props.setProperty(entry.getKey(), entry.getValue());
                     }
-                    props.store(zipOutputStream, null);
-                    zipEntry = zipEntryFactory.createZipEntry(Constants.LIBRARIES_TOC);
-                    zipEntry.setMethod(ZipEntry.DEFLATED);
-                    zipOutputStream.putNextEntry(zipEntry);
+                    storeProperties(props, content);
+                    writeDeflated(zipWriter, compressor,
+                            zipEntryFactory.createZipEntry(Constants.SYSTEM_PROPERTIES_FILE), content, buffer);
                     int i = 0;
                     while(i < libraries.size()) {
-                        if(i > 0) zipOutputStream.write('/');
-                        zipOutputStream.write(libraries.get(i).getBytes(StandardCharsets.UTF_8));
+                        if(i > 0) content.write('/');
+                        content.write(libraries.get(i).getBytes(StandardCharsets.UTF_8));
                         ++i;
                     }
-
-                    while (true) {
-                        zipEntry = zipInputStream.getNextEntry();
-                        if (zipEntry == null) break;
-                        // Create a new ZipEntry explicitly, without relying on
-                        // subtle (undocumented?) behaviour of ZipInputStream.
-                        zipOutputStream.putNextEntry(zipEntryFactory.copyOf(zipEntry));
-                        Common.write2Stream(zipInputStream, zipOutputStream, buffer);
+                    writeDeflated(zipWriter, compressor,
+                            zipEntryFactory.createZipEntry(Constants.LIBRARIES_TOC), content, buffer);
+                    moduleMetadata.write(content);
+                    writeDeflated(zipWriter, compressor,
+                            zipEntryFactory.createZipEntry(ModuleMetadata.ENTRY_NAME), content, buffer);
+                    // The index is stored uncompressed, so that the launcher can read it in place
+                    int alignment = getAlignment().getOrElse(0);
+                    libraryIndex.setAlignment(alignment);
+                    libraryIndex.write(content);
+                    ZipEntry zipEntry = zipEntryFactory.createZipEntry(LibraryIndex.ENTRY_NAME);
+                    try (InputStream is = new ByteArrayInputStream(content.toByteArray())) {
+                        Common.computeSizeAndCrc32(zipEntry, is, buffer);
+                    }
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipWriter.putNextEntry(zipEntry);
+                    zipWriter.write(content.toByteArray(), 0, content.size());
+                    zipWriter.closeEntry();
+
+                    /*
+                     * Entries are compressed ahead of the writer, at most COMPRESSION_WINDOW entries per thread,
+                     * and written in their original order, so that the archive is the same whatever the number
+                     * of threads and the memory taken by the compressed data is bounded
+                     */
+                    Deque<Map.Entry<ArchiveEntry, Future<EntryCompressor.CompressedEntry>>> pending = new ArrayDeque<>();
+                    int window = compressor.getThreads() * COMPRESSION_WINDOW;
+                    try {
+                        for (ArchiveEntry entry : entries) {
+                            Future<EntryCompressor.CompressedEntry> future = entry.zipEntry.getMethod() == ZipEntry.DEFLATED ?
+                                    compressor.submit(entry.file) : null;
+                            pending.addLast(new AbstractMap.SimpleImmutableEntry<>(entry, future));
+                            if (pending.size() > window) {
+                                writePending(zipWriter, pending.removeFirst(), buffer, alignment);
+                            }
+                        }
+                        while (!pending.isEmpty()) {
+                            writePending(zipWriter, pending.removeFirst(), buffer, alignment);
+                        }
+                    } finally {
+                        // The entries left behind by a failure are complete once the compressor is closed
+                        compressor.close();
+                        for (Map.Entry<?, Future<EntryCompressor.CompressedEntry>> entry : pending) {
+                            Future<EntryCompressor.CompressedEntry> future = entry.getValue();
+                            if (future != null) {
+                                EntryCompressor.release(future);
+                            }
+                        }
                     }
-                    return () -> true;
                 }
             }
         };
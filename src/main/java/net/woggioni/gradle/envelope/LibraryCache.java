@@ -0,0 +1,225 @@
+package net.woggioni.gradle.envelope;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.woggioni.envelope.Common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Persistent cache of the values the task computes for each library: its digest, CRC-32 and size,
+ * its {@link net.woggioni.envelope.loader.LibraryIndex} section and its
+ * {@link net.woggioni.envelope.loader.ModuleMetadata}.
+ * <p>
+ * Libraries are identified by their absolute path, size, modification time and file key,
+ * which are read before the library itself so that a library modified while it is being read
+ * is never cached as unchanged. The cache keeps at most a given number of libraries,
+ * evicting the ones that have not been used for the longest time.
+ */
+final class LibraryCache {
+
+    private static final int MAGIC = 0x454e5643;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The attributes identifying the content of a library file
+     */
+    @RequiredArgsConstructor
+    static final class Key {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+
+        private boolean matches(Key other) {
+            return size == other.size && lastModified == other.lastModified && fileKey.equals(other.fileKey);
+        }
+    }
+
+    /**
+     * The values computed for a library
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static final class Library {
+        private final String digest;
+        private final long crc;
+        private final long size;
+
+        /**
+         * The section of the library index, {@code null} if the library is not a valid zip archive
+         */
+        private final byte[] section;
+
+        /**
+         * The module metadata, {@code null} if the library cannot be scanned
+         */
+        private final Map<String, String> metadata;
+
+        boolean sameAs(Library other) {
+            return digest.equals(other.digest) &&
+                    crc == other.crc &&
+                    size == other.size &&
+                    Arrays.equals(section, other.section) &&
+                    Objects.equals(metadata, other.metadata);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class CacheEntry {
+        private final Key key;
+        private final Library library;
+    }
+
+    private final File file;
+
+    private final int maxEntries;
+
+    private final Map<String, CacheEntry> entries;
+
+    private LibraryCache(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > LibraryCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Load the cache written by a previous execution
+     * @param file the cache file
+     * @param maxEntries the maximum number of libraries kept in the cache, the cache is disabled
+     *                   and its file deleted when it is not positive
+     * @return the cache, empty if the file is missing or cannot be read
+     */
+    static LibraryCache load(File file, int maxEntries) throws IOException {
+        LibraryCache cache = new LibraryCache(file, maxEntries);
+        if (maxEntries <= 0) {
+            Files.deleteIfExists(file.toPath());
+        } else if (file.isFile()) {
+            try (DataInputStream input = new DataInputStream(Common.read(file, true))) {
+                if (input.readInt() == MAGIC && input.readInt() == VERSION) {
+                    int count = input.readInt();
+                    for (int i = 0; i < count; i++) {
+                        Key key = new Key(readString(input), input.readLong(), input.readLong(), readString(input));
+                        String digest = readString(input);
+                        long crc = input.readLong();
+                        long size = input.readLong();
+                        byte[] section = null;
+                        int sectionLength = input.readInt();
+                        if (sectionLength >= 0) {
+                            section = new byte[sectionLength];
+                            input.readFully(section);
+                        }
+                        Map<String, String> metadata = null;
+                        int metadataSize = input.readInt();
+                        if (metadataSize >= 0) {
+                            metadata = new TreeMap<>();
+                            for (int j = 0; j < metadataSize; j++) {
+                                metadata.put(readString(input), readString(input));
+                            }
+                        }
+                        cache.entries.put(key.path, new CacheEntry(key, new Library(digest, crc, size, section, metadata)));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // A corrupted cache is discarded
+                cache.entries.clear();
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Read the attributes identifying the content of a library file, to be done before reading the file
+     */
+    static Key key(File library) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(library.toPath(), BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+        return new Key(library.getAbsolutePath(), attributes.size(), attributes.lastModifiedTime().toMillis(),
+                fileKey == null ? "" : fileKey.toString());
+    }
+
+    /**
+     * @return the cached values of the library, or {@code null} if the library is not cached or has changed
+     */
+    Library get(Key key) {
+        CacheEntry entry = entries.get(key.path);
+        return entry != null && entry.key.matches(key) ? entry.library : null;
+    }
+
+    void put(Key key, Library library) {
+        entries.put(key.path, new CacheEntry(key, library));
+    }
+
+    /**
+     * Write the cache file, the least recently used libraries first
+     */
+    void save() throws IOException {
+        if (maxEntries <= 0) {
+            return;
+        }
+        File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(Common.write(temporaryFile, true))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(entries.size());
+            for (CacheEntry entry : entries.values()) {
+                Key key = entry.key;
+                writeString(output, key.path);
+                output.writeLong(key.size);
+                output.writeLong(key.lastModified);
+                writeString(output, key.fileKey);
+                Library library = entry.library;
+                writeString(output, library.digest);
+                output.writeLong(library.crc);
+                output.writeLong(library.size);
+                if (library.section == null) {
+                    output.writeInt(-1);
+                } else {
+                    output.writeInt(library.section.length);
+                    output.write(library.section);
+                }
+                if (library.metadata == null) {
+                    output.writeInt(-1);
+                } else {
+                    output.writeInt(library.metadata.size());
+                    for (Map.Entry<String, String> metadataEntry : library.metadata.entrySet()) {
+                        writeString(output, metadataEntry.getKey());
+                        writeString(output, metadataEntry.getValue());
+                    }
+                }
+            }
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        // DataOutputStream.writeUTF is limited to 64 KiB, which the package list of a big library can exceed
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+}
@@ -0,0 +1,151 @@
+package net.woggioni.gradle.envelope;
+
+import net.woggioni.envelope.Common;
+import net.woggioni.envelope.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rewrites library jars so that their class files, and the resources matching a list of glob patterns,
+ * are stored uncompressed and can be read by the loader without being inflated.
+ * <p>
+ * Entries keep their order, names, timestamps and content, the other entries are deflated again.
+ * A repacked library is kept in the repacking directory together with a stamp file recording the
+ * {@link PreviousArchive#fingerprint(File)} of its source and the patterns it has been repacked with,
+ * and it is reused as long as they do not change, so that the repacked file keeps its identity
+ * for the library cache and for incremental builds.
+ */
+final class LibraryRepacker {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private static final String STAMP_SUFFIX = ".source";
+
+    private final File directory;
+
+    private final List<String> patterns;
+
+    private final List<PathMatcher> matchers = new ArrayList<>();
+
+    private final Set<String> used = new HashSet<>();
+
+    /**
+     * @param directory the directory holding the repacked libraries
+     * @param patterns the glob patterns, in {@link java.nio.file.FileSystem#getPathMatcher(String)} syntax,
+     *                 of the entries to be stored besides class files
+     */
+    LibraryRepacker(File directory, List<String> patterns) {
+        this.directory = directory;
+        this.patterns = patterns;
+        for (String pattern : patterns) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
+    }
+
+    /**
+     * Return the repacked version of a library, repacking it if it has changed since it was last repacked
+     * @param library the library file
+     * @return the repacked library file
+     */
+    File repack(File library) throws IOException {
+        Files.createDirectories(directory.toPath());
+        String name = library.getName();
+        int suffix = 0;
+        while (!used.add(name)) {
+            // Libraries with the same file name coming from different directories
+            name = ++suffix + "-" + library.getName();
+        }
+        File repacked = new File(directory, name);
+        File stamp = new File(directory, name + STAMP_SUFFIX);
+        String expectedStamp = PreviousArchive.fingerprint(library) + '\n' + String.join("\n", patterns);
+        if (repacked.isFile() && stamp.isFile() &&
+                expectedStamp.equals(new String(Files.readAllBytes(stamp.toPath()), StandardCharsets.UTF_8))) {
+            return repacked;
+        }
+        Files.deleteIfExists(stamp.toPath());
+        File temporaryFile = new File(directory, name + ".tmp");
+        byte[] buffer = new byte[Constants.BUFFER_SIZE];
+        try (ZipFile zipFile = new ZipFile(library);
+             ZipOutputStream zipOutputStream = new ZipOutputStream(Common.write(temporaryFile, true))) {
+            zipOutputStream.setLevel(Deflater.BEST_COMPRESSION);
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry source = entries.nextElement();
+                ZipEntry zipEntry = new ZipEntry(source);
+                if (source.isDirectory() || isStored(source.getName())) {
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setCompressedSize(source.getSize());
+                } else {
+                    zipEntry.setMethod(ZipEntry.DEFLATED);
+                    zipEntry.setCompressedSize(-1);
+                }
+                zipOutputStream.putNextEntry(zipEntry);
+                try (InputStream inputStream = zipFile.getInputStream(source)) {
+                    while (true) {
+                        int read = inputStream.read(buffer);
+                        if (read < 0) break;
+                        zipOutputStream.write(buffer, 0, read);
+                    }
+                }
+                zipOutputStream.closeEntry();
+            }
+        }
+        Files.move(temporaryFile.toPath(), repacked.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (OutputStream outputStream = Common.write(stamp, false)) {
+            outputStream.write(expectedStamp.getBytes(StandardCharsets.UTF_8));
+        }
+        return repacked;
+    }
+
+    /**
+     * Delete the repacked libraries that have not been used by {@link #repack(File)}
+     */
+    void deleteUnused() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            String library = name.endsWith(STAMP_SUFFIX) ? name.substring(0, name.length() - STAMP_SUFFIX.length()) : name;
+            if (!used.contains(library)) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private boolean isStored(String entryName) {
+        if (entryName.endsWith(CLASS_SUFFIX)) {
+            return true;
+        }
+        try {
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(Paths.get(entryName))) {
+                    return true;
+                }
+            }
+        } catch (InvalidPathException ipe) {
+            // The entry name is not a valid path on this platform, it cannot match any pattern
+        }
+        return false;
+    }
+}
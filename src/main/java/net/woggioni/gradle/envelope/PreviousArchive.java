@@ -0,0 +1,324 @@
+package net.woggioni.gradle.envelope;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.woggioni.envelope.Common;
+import net.woggioni.envelope.Constants;
+import net.woggioni.envelope.loader.LibraryIndex;
+import net.woggioni.envelope.loader.ModuleMetadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The envelope jar written by the previous execution of the task, whose stored libraries can be copied
+ * to the new archive as they are when their source files have not changed.
+ * <p>
+ * Every incremental execution records, in a state file, the path, size and modification time of the source file
+ * of each library together with the size and modification time of the archive it wrote;
+ * a library is reused only if both the archive and its source file still match the state file, in which case
+ * its digest is taken from the manifest of the previous archive, its CRC-32 and size
+ * from the central directory, and its library index section and module metadata from the
+ * {@value LibraryIndex#ENTRY_NAME} and {@value ModuleMetadata#ENTRY_NAME} entries, without reading the source file.
+ */
+final class PreviousArchive implements Closeable {
+
+    private static final String ARCHIVE_KEY = "archive";
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_FIELD = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    /**
+     * A library of the previous archive
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static final class Library {
+        private final String digest;
+        private final long crc;
+        private final long size;
+        private final long dataOffset;
+
+        /**
+         * The section of the library in the index of the previous archive, {@code null} if it is missing
+         */
+        private final byte[] section;
+
+        /**
+         * The module metadata of the library in the previous archive, {@code null} if it is missing
+         */
+        private final Map<String, String> metadata;
+    }
+
+    @RequiredArgsConstructor
+    private static final class StoredEntry {
+        private final long crc;
+        private final long size;
+        private final long localHeaderOffset;
+    }
+
+    @Getter
+    private final File file;
+
+    private final Properties state;
+
+    private final Manifest manifest;
+
+    private final LibraryIndex libraryIndex;
+
+    private final ModuleMetadata moduleMetadata;
+
+    private final Map<String, StoredEntry> storedEntries;
+
+    private final FileChannel channel;
+
+    private PreviousArchive(File file, Properties state) throws IOException {
+        this.file = file;
+        this.state = state;
+        try (ZipFile zipFile = new ZipFile(file)) {
+            ZipEntry manifestEntry = zipFile.getEntry(JarFile.MANIFEST_NAME);
+            if (manifestEntry == null) {
+                throw new IOException(String.format("Missing manifest in '%s'", file));
+            }
+            try (InputStream inputStream = zipFile.getInputStream(manifestEntry)) {
+                manifest = new Manifest(inputStream);
+            }
+            ZipEntry indexEntry = zipFile.getEntry(LibraryIndex.ENTRY_NAME);
+            if (indexEntry != null) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                try (InputStream inputStream = zipFile.getInputStream(indexEntry)) {
+                    Common.write2Stream(inputStream, content);
+                }
+                libraryIndex = LibraryIndex.read(ByteBuffer.wrap(content.toByteArray()));
+            } else {
+                libraryIndex = null;
+            }
+            ZipEntry metadataEntry = zipFile.getEntry(ModuleMetadata.ENTRY_NAME);
+            if (metadataEntry != null) {
+                try (InputStream inputStream = zipFile.getInputStream(metadataEntry)) {
+                    moduleMetadata = ModuleMetadata.read(inputStream);
+                }
+            } else {
+                moduleMetadata = null;
+            }
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            storedEntries = readCentralDirectory(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Move the archive written by the previous execution to the temporary directory, so that it can be read
+     * while the new one is written in its place
+     * @param archive the archive written by the previous execution
+     * @param stateFile the state file written by the previous execution
+     * @param temporaryDir the temporary directory of the task
+     * @return the previous archive, or {@code null} if it is missing or it does not match the state file
+     */
+    static PreviousArchive open(File archive, File stateFile, File temporaryDir) {
+        if (!archive.isFile() || !stateFile.isFile()) {
+            return null;
+        }
+        try {
+            Properties state = new Properties();
+            try (InputStream inputStream = Files.newInputStream(stateFile.toPath())) {
+                state.load(inputStream);
+            }
+            if (!fingerprint(archive).equals(state.getProperty(ARCHIVE_KEY))) {
+                return null;
+            }
+            File previous = new File(temporaryDir, "previous.jar");
+            Files.move(archive.toPath(), previous.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try {
+                return new PreviousArchive(previous, state);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(previous.toPath());
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param entryName the name of the library entry
+     * @param source the source file of the library
+     * @return the library in the previous archive, if its source file has not changed since it was written
+     */
+    Optional<Library> find(String entryName, File source) {
+        if (!fingerprint(source).equals(state.getProperty(entryName))) {
+            return Optional.empty();
+        }
+        Attributes attributes = manifest.getAttributes(entryName);
+        String digest = attributes != null ? attributes.getValue(Constants.ManifestAttributes.ENTRY_HASH) : null;
+        StoredEntry storedEntry = storedEntries.get(entryName);
+        if (digest == null || storedEntry == null) {
+            return Optional.empty();
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, storedEntry.localHeaderOffset);
+            if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+                return Optional.empty();
+            }
+            long dataOffset = storedEntry.localHeaderOffset + LOCAL_FILE_HEADER_SIZE +
+                    Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+            return Optional.of(new Library(digest, storedEntry.crc, storedEntry.size, dataOffset,
+                    findSection(entryName, storedEntry), moduleMetadata != null ? moduleMetadata.getValues(entryName, digest) : null));
+        } catch (IOException ioe) {
+            return Optional.empty();
+        }
+    }
+
+    private byte[] findSection(String entryName, StoredEntry storedEntry) {
+        ByteBuffer section = libraryIndex != null ?
+                libraryIndex.getSection(entryName, storedEntry.crc, storedEntry.size) : null;
+        if (section == null) {
+            return null;
+        }
+        byte[] result = new byte[section.remaining()];
+        section.get(result);
+        return result;
+    }
+
+    /**
+     * Write the state file for the archive that has just been written
+     * @param stateFile the state file
+     * @param archive the archive
+     * @param libraryFingerprints the {@link #fingerprint(File)} of the source file of each library, by entry name,
+     *                            taken before the file was read
+     */
+    static void writeState(File stateFile, File archive, Map<String, String> libraryFingerprints) throws IOException {
+        Properties state = new Properties();
+        state.setProperty(ARCHIVE_KEY, fingerprint(archive));
+        for (Map.Entry<String, String> entry : libraryFingerprints.entrySet()) {
+            state.setProperty(entry.getKey(), entry.getValue());
+        }
+        try (OutputStream outputStream = Files.newOutputStream(stateFile.toPath())) {
+            state.store(outputStream, null);
+        }
+    }
+
+    static String fingerprint(File file) {
+        return file.length() + " " + file.lastModified() + " " + file.getAbsolutePath();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private static Map<String, StoredEntry> readCentralDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, fileSize - tailSize);
+        int endOffset = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endOffset = i;
+                break;
+            }
+        }
+        if (endOffset < 0) {
+            throw new IOException("End of central directory record not found");
+        }
+        long count = Short.toUnsignedInt(tail.getShort(endOffset + 10));
+        long centralDirectoryOffset = Integer.toUnsignedLong(tail.getInt(endOffset + 16));
+        int locatorOffset = endOffset - 20;
+        if (locatorOffset >= 0 && tail.getInt(locatorOffset) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+            ByteBuffer zip64End = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, zip64End, tail.getLong(locatorOffset + 8));
+            count = zip64End.getLong(32);
+            centralDirectoryOffset = zip64End.getLong(48);
+        }
+        ByteBuffer centralDirectory = ByteBuffer.allocate((int) (fileSize - tailSize + endOffset - centralDirectoryOffset))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, centralDirectory, centralDirectoryOffset);
+        Map<String, StoredEntry> result = new HashMap<>();
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (centralDirectory.getInt(position) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+                throw new IOException("Invalid central directory header");
+            }
+            int method = Short.toUnsignedInt(centralDirectory.getShort(position + 10));
+            long crc = Integer.toUnsignedLong(centralDirectory.getInt(position + 16));
+            long size = Integer.toUnsignedLong(centralDirectory.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(centralDirectory.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(centralDirectory.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(centralDirectory.getShort(position + 32));
+            long localHeaderOffset = Integer.toUnsignedLong(centralDirectory.getInt(position + 42));
+            byte[] name = new byte[nameLength];
+            centralDirectory.position(position + 46);
+            centralDirectory.get(name);
+            int extraOffset = position + 46 + nameLength;
+            int extraEnd = extraOffset + extraLength;
+            while (extraOffset + 4 <= extraEnd) {
+                int id = Short.toUnsignedInt(centralDirectory.getShort(extraOffset));
+                int length = Short.toUnsignedInt(centralDirectory.getShort(extraOffset + 2));
+                if (id == ZIP64_EXTRA_FIELD) {
+                    int field = extraOffset + 4;
+                    if (size == ZIP64_MAGIC) {
+                        size = centralDirectory.getLong(field);
+                        field += 8;
+                    }
+                    if (Integer.toUnsignedLong(centralDirectory.getInt(position + 20)) == ZIP64_MAGIC) {
+                        field += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC) {
+                        localHeaderOffset = centralDirectory.getLong(field);
+                    }
+                }
+                extraOffset += 4 + length;
+            }
+            if (method == ZipEntry.STORED) {
+                result.put(new String(name, StandardCharsets.UTF_8), new StoredEntry(crc, size, localHeaderOffset));
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package net.woggioni.gradle.envelope;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+/**
+ * Minimal zip archive writer that, unlike {@link java.util.zip.ZipOutputStream}, takes the entry data
+ * as it has to appear in the archive: entries are compressed by the caller, which sets their method,
+ * CRC-32, size and compressed size before calling {@link #putNextEntry(ZipEntry)} and then writes
+ * exactly {@link ZipEntry#getCompressedSize()} bytes.
+ * <p>
+ * Entry names are always encoded in UTF-8 and no data descriptor is written; Zip64 records
+ * are only used when the sizes, the offsets or the number of entries require them.
+ * The content of stored files can be copied with {@link #transferFrom(File, long, long)}, which lets the operating
+ * system move the data from one file to the other without copying it to the Java heap.
+ * <p>
+ * The data of an entry can be aligned like {@code zipalign} does, padding its local header with an extra field
+ * ({@value #ALIGNMENT_EXTRA_FIELD}) that records the alignment; the padding is not repeated in the central directory.
+ */
+final class ZipWriter implements Closeable {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_FIELD = 0x0001;
+    static final int ALIGNMENT_EXTRA_FIELD = 0xD935;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final long DOS_TIME_BEFORE_1980 = (1 << 21) | (1 << 16);
+
+    private static final class CentralDirectoryEntry {
+        private final ZipEntry entry;
+        private final byte[] name;
+        private final long offset;
+
+        private CentralDirectoryEntry(ZipEntry entry, byte[] name, long offset) {
+            this.entry = entry;
+            this.name = name;
+            this.offset = offset;
+        }
+    }
+
+    private final FileChannel channel;
+
+    private final OutputStream out;
+
+    private final List<CentralDirectoryEntry> entries = new ArrayList<>();
+
+    private final byte[] header = new byte[8];
+
+    private long position;
+
+    private CentralDirectoryEntry current;
+
+    private long currentWritten;
+
+    private boolean closed;
+
+    ZipWriter(FileChannel channel) {
+        this.channel = channel;
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 0x10000);
+    }
+
+    /**
+     * @return the number of bytes written so far, which is the offset of the next local file header
+     * when no entry is open
+     */
+    long getPosition() {
+        return position;
+    }
+
+    void putNextEntry(ZipEntry entry) throws IOException {
+        putNextEntry(entry, 0);
+    }
+
+    /**
+     * Start a new entry whose data begins at a multiple of {@code alignment} bytes from the start of the archive
+     * @param alignment the alignment of the data, {@code 0} to write the data right after the local header
+     */
+    void putNextEntry(ZipEntry entry, int alignment) throws IOException {
+        if (alignment < 0 || alignment > 0xFFFF) {
+            throw new IllegalArgumentException(String.format("Invalid alignment %d", alignment));
+        }
+        if (current != null) {
+            closeEntry();
+        }
+        if (entry.getSize() < 0 || entry.getCompressedSize() < 0 || entry.getCrc() < 0) {
+            throw new IllegalArgumentException(
+                    String.format("Size, compressed size and CRC-32 of entry '%s' must be set", entry.getName()));
+        }
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        current = new CentralDirectoryEntry(entry, name, position);
+        boolean zip64 = entry.getSize() >= ZIP64_MAGIC || entry.getCompressedSize() >= ZIP64_MAGIC;
+        byte[] extra = entry.getExtra();
+        ByteArrayOutputStream extraField = new ByteArrayOutputStream();
+        if (zip64) {
+            writeShort(extraField, ZIP64_EXTRA_FIELD);
+            writeShort(extraField, 16);
+            writeLong(extraField, entry.getSize());
+            writeLong(extraField, entry.getCompressedSize());
+        }
+        if (extra != null) {
+            extraField.write(extra);
+        }
+        if (alignment > 0) {
+            long dataOffset = position + LOCAL_FILE_HEADER_SIZE + name.length + extraField.size() + 6;
+            int padding = (int) ((alignment - dataOffset % alignment) % alignment);
+            writeShort(extraField, ALIGNMENT_EXTRA_FIELD);
+            writeShort(extraField, 2 + padding);
+            writeShort(extraField, alignment);
+            for (int i = 0; i < padding; i++) {
+                extraField.write(0);
+            }
+        }
+        writeInt(LOCAL_FILE_HEADER_SIGNATURE);
+        writeShort(zip64 ? VERSION_ZIP64 : version(entry));
+        writeShort(UTF8_FLAG);
+        writeShort(entry.getMethod());
+        writeInt(dosTime(entry.getTime()));
+        writeInt(entry.getCrc());
+        writeInt(zip64 ? ZIP64_MAGIC : entry.getCompressedSize());
+        writeInt(zip64 ? ZIP64_MAGIC : entry.getSize());
+        writeShort(name.length);
+        writeShort(extraField.size());
+        writeBytes(name);
+        writeBytes(extraField.toByteArray());
+        currentWritten = 0;
+    }
+
+    /**
+     * Write the data of the current entry, as it has to appear in the archive
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+        position += length;
+        currentWritten += length;
+    }
+
+    /**
+     * Copy {@code size} bytes of a file, starting at {@code offset}, as the data of the current entry
+     */
+    void transferFrom(File file, long offset, long size) throws IOException {
+        out.flush();
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long transferred = 0;
+            while (transferred < size) {
+                long count = source.transferTo(offset + transferred, size - transferred, channel);
+                if (count <= 0) {
+                    throw new IOException(String.format("Unexpected end of file '%s' after %d bytes", file, transferred));
+                }
+                transferred += count;
+            }
+        }
+        position += size;
+        currentWritten += size;
+    }
+
+    void closeEntry() throws IOException {
+        if (current == null) {
+            return;
+        }
+        ZipEntry entry = current.entry;
+        if (currentWritten != entry.getCompressedSize()) {
+            throw new IOException(String.format("Invalid data for entry '%s': expected %d bytes but %d have been written",
+                    entry.getName(), entry.getCompressedSize(), currentWritten));
+        }
+        entries.add(current);
+        current = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            closeEntry();
+            long centralDirectoryOffset = position;
+            for (CentralDirectoryEntry centralDirectoryEntry : entries) {
+                writeCentralDirectoryHeader(centralDirectoryEntry);
+            }
+            long centralDirectorySize = position - centralDirectoryOffset;
+            int count = entries.size();
+            if (count >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC) {
+                long zip64EndOffset = position;
+                writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+                writeLong(44);
+                writeShort(VERSION_ZIP64);
+                writeShort(VERSION_ZIP64);
+                writeInt(0);
+                writeInt(0);
+                writeLong(count);
+                writeLong(count);
+                writeLong(centralDirectorySize);
+                writeLong(centralDirectoryOffset);
+                writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+                writeInt(0);
+                writeLong(zip64EndOffset);
+                writeInt(1);
+            }
+            writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            writeShort(0);
+            writeShort(0);
+            writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+            writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+            writeInt(Math.min(centralDirectorySize, ZIP64_MAGIC));
+            writeInt(Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+            writeShort(0);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeCentralDirectoryHeader(CentralDirectoryEntry centralDirectoryEntry) throws IOException {
+        ZipEntry entry = centralDirectoryEntry.entry;
+        boolean zip64Size = entry.getSize() >= ZIP64_MAGIC;
+        boolean zip64CompressedSize = entry.getCompressedSize() >= ZIP64_MAGIC;
+        boolean zip64Offset = centralDirectoryEntry.offset >= ZIP64_MAGIC;
+        ByteArrayOutputStream extraField = new ByteArrayOutputStream();
+        if (zip64Size || zip64CompressedSize || zip64Offset) {
+            writeShort(extraField, ZIP64_EXTRA_FIELD);
+            writeShort(extraField, 8 * ((zip64Size ? 1 : 0) + (zip64CompressedSize ? 1 : 0) + (zip64Offset ? 1 : 0)));
+            if (zip64Size) writeLong(extraField, entry.getSize());
+            if (zip64CompressedSize) writeLong(extraField, entry.getCompressedSize());
+            if (zip64Offset) writeLong(extraField, centralDirectoryEntry.offset);
+        }
+        byte[] extra = entry.getExtra();
+        if (extra != null) {
+            extraField.write(extra);
+        }
+        int version = zip64Size || zip64CompressedSize || zip64Offset ? VERSION_ZIP64 : version(entry);
+        byte[] name = centralDirectoryEntry.name;
+        writeInt(CENTRAL_DIRECTORY_HEADER_SIGNATURE);
+        writeShort(version);
+        writeShort(version);
+        writeShort(UTF8_FLAG);
+        writeShort(entry.getMethod());
+        writeInt(dosTime(entry.getTime()));
+        writeInt(entry.getCrc());
+        writeInt(zip64CompressedSize ? ZIP64_MAGIC : entry.getCompressedSize());
+        writeInt(zip64Size ? ZIP64_MAGIC : entry.getSize());
+        writeShort(name.length);
+        writeShort(extraField.size());
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(0);
+        writeInt(zip64Offset ? ZIP64_MAGIC : centralDirectoryEntry.offset);
+        writeBytes(name);
+        writeBytes(extraField.toByteArray());
+    }
+
+    private static int version(ZipEntry entry) {
+        return entry.getMethod() == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+    }
+
+    private static long dosTime(long time) {
+        if (time < 0) {
+            return DOS_TIME_BEFORE_1980;
+        }
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = dateTime.getYear();
+        if (year < 1980) {
+            return DOS_TIME_BEFORE_1980;
+        }
+        return ((long) (year - 1980) << 25) |
+                ((long) dateTime.getMonthValue() << 21) |
+                ((long) dateTime.getDayOfMonth() << 16) |
+                ((long) dateTime.getHour() << 11) |
+                ((long) dateTime.getMinute() << 5) |
+                ((long) dateTime.getSecond() >> 1);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        position += bytes.length;
+    }
+
+    private void writeShort(int value) throws IOException {
+        header[0] = (byte) value;
+        header[1] = (byte) (value >>> 8);
+        out.write(header, 0, 2);
+        position += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        header[0] = (byte) value;
+        header[1] = (byte) (value >>> 8);
+        header[2] = (byte) (value >>> 16);
+        header[3] = (byte) (value >>> 24);
+        out.write(header, 0, 4);
+        position += 4;
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value);
+        writeInt(value >>> 32);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+}
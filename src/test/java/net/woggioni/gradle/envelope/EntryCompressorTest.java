@@ -0,0 +1,77 @@
+package net.woggioni.gradle.envelope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+public class EntryCompressorTest {
+
+    @TempDir
+    Path testDir;
+
+    /**
+     * @return a file of random bytes, which do not compress and are spilled to disk beyond 1 MiB
+     */
+    private File randomFile(String name, int size, Random random) throws IOException {
+        byte[] content = new byte[size];
+        random.nextBytes(content);
+        return Files.write(testDir.resolve(name), content).toFile();
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void closeReleasesPendingEntries() throws IOException {
+        Random random = new Random(101325);
+        File input = randomFile("input.bin", 0x300000, random);
+        Path spillDirectory = Files.createDirectory(testDir.resolve("spill"));
+        List<Future<EntryCompressor.CompressedEntry>> futures = new ArrayList<>();
+        EntryCompressor compressor = new EntryCompressor(4, Deflater.BEST_SPEED, spillDirectory.toFile());
+        try {
+            for (int i = 0; i < 32; i++) {
+                futures.add(compressor.submit(input));
+            }
+        } finally {
+            // Some entries are complete, some are being compressed and some have not started yet
+            compressor.close();
+            for (Future<EntryCompressor.CompressedEntry> future : futures) {
+                Assertions.assertTrue(future.isDone());
+                EntryCompressor.release(future);
+            }
+        }
+        Assertions.assertEquals(0, countFiles(spillDirectory));
+        // Closing again is harmless
+        compressor.close();
+    }
+
+    @Test
+    void spilledEntries() throws IOException, InterruptedException {
+        Random random = new Random(101325);
+        Path spillDirectory = Files.createDirectory(testDir.resolve("spill"));
+        try (EntryCompressor compressor = new EntryCompressor(2, Deflater.BEST_SPEED, spillDirectory.toFile())) {
+            EntryCompressor.CompressedEntry small = EntryCompressor.get(
+                    compressor.submit(randomFile("small.bin", 0x1000, random)));
+            EntryCompressor.CompressedEntry big = EntryCompressor.get(
+                    compressor.submit(randomFile("big.bin", 0x200000, random)));
+            Assertions.assertEquals(1, countFiles(spillDirectory));
+            small.close();
+            big.close();
+            Assertions.assertEquals(0, countFiles(spillDirectory));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package net.woggioni.gradle.envelope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class LibraryRepackerTest {
+
+    private static final long TIMESTAMP = 1700000000000L;
+
+    private static final long OLD_TIMESTAMP = 1600000000000L;
+
+    @TempDir
+    Path testDir;
+
+    /**
+     * Write a jar whose entries are all deflated, each one containing its own name repeated,
+     * entries whose name ends with a slash are written as directories
+     */
+    private static File createJar(Path file, String... names) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (OutputStream outputStream = Files.newOutputStream(file);
+             ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+            long time = TIMESTAMP;
+            for (String name : names) {
+                ZipEntry zipEntry = new ZipEntry(name);
+                // Each entry has its own timestamp, to check that they are preserved
+                zipEntry.setTime(time);
+                time += 60000;
+                zipOutputStream.putNextEntry(zipEntry);
+                if (!name.endsWith("/")) {
+                    zipOutputStream.write(content(name));
+                }
+                zipOutputStream.closeEntry();
+            }
+        }
+        return file.toFile();
+    }
+
+    private static byte[] content(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(name).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+        try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[0x1000];
+            while (true) {
+                int read = inputStream.read(buffer);
+                if (read < 0) break;
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    private static List<ZipEntry> entries(ZipFile zipFile) {
+        List<ZipEntry> result = new ArrayList<>();
+        for (Enumeration<? extends ZipEntry> it = zipFile.entries(); it.hasMoreElements(); ) {
+            result.add(it.nextElement());
+        }
+        return result;
+    }
+
+    private static List<String> list(Path directory) throws IOException {
+        List<String> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> result.add(file.getFileName().toString()));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test
+    void storedEntries() throws IOException {
+        File library = createJar(testDir.resolve("libs/library.jar"),
+                "META-INF/MANIFEST.MF",
+                "a/",
+                "a/A.class",
+                "a/data.bin",
+                "a/text.txt",
+                "b/B.class",
+                "b/nested/data.bin",
+                "data.bin");
+        Map<String, Integer> expectedMethods = new LinkedHashMap<>();
+        expectedMethods.put("META-INF/MANIFEST.MF", ZipEntry.DEFLATED);
+        expectedMethods.put("a/", ZipEntry.STORED);
+        expectedMethods.put("a/A.class", ZipEntry.STORED);
+        expectedMethods.put("a/data.bin", ZipEntry.STORED);
+        expectedMethods.put("a/text.txt", ZipEntry.DEFLATED);
+        expectedMethods.put("b/B.class", ZipEntry.STORED);
+        expectedMethods.put("b/nested/data.bin", ZipEntry.STORED);
+        // "**/" only matches entries in a directory
+        expectedMethods.put("data.bin", ZipEntry.DEFLATED);
+
+        LibraryRepacker repacker = new LibraryRepacker(testDir.resolve("repacked").toFile(),
+                Collections.singletonList("**/*.bin"));
+        File repacked = repacker.repack(library);
+        Assertions.assertEquals(testDir.resolve("repacked/library.jar").toFile(), repacked);
+        try (ZipFile source = new ZipFile(library); ZipFile result = new ZipFile(repacked)) {
+            List<ZipEntry> sourceEntries = entries(source);
+            List<ZipEntry> resultEntries = entries(result);
+            Assertions.assertEquals(sourceEntries.size(), resultEntries.size());
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < sourceEntries.size(); i++) {
+                ZipEntry sourceEntry = sourceEntries.get(i);
+                ZipEntry resultEntry = resultEntries.get(i);
+                String name = sourceEntry.getName();
+                names.add(resultEntry.getName());
+                Assertions.assertEquals(name, resultEntry.getName());
+                Assertions.assertEquals((int) expectedMethods.get(name), resultEntry.getMethod(), name);
+                Assertions.assertEquals(sourceEntry.getTime(), resultEntry.getTime(), name);
+                Assertions.assertEquals(sourceEntry.getCrc(), resultEntry.getCrc(), name);
+                Assertions.assertEquals(sourceEntry.getSize(), resultEntry.getSize(), name);
+                if (resultEntry.getMethod() == ZipEntry.STORED) {
+                    Assertions.assertEquals(resultEntry.getSize(), resultEntry.getCompressedSize(), name);
+                }
+                Assertions.assertArrayEquals(read(source, sourceEntry), read(result, resultEntry), name);
+            }
+            Assertions.assertEquals(new ArrayList<>(expectedMethods.keySet()), names);
+        }
+    }
+
+    @Test
+    void reuse() throws IOException {
+        File library = createJar(testDir.resolve("libs/library.jar"), "a/A.class", "a/text.txt");
+        File directory = testDir.resolve("repacked").toFile();
+        File repacked = new LibraryRepacker(directory, Collections.emptyList()).repack(library);
+        Files.setLastModifiedTime(repacked.toPath(), FileTime.fromMillis(OLD_TIMESTAMP));
+
+        // A new build with the same library and the same patterns reuses the repacked file
+        Assertions.assertEquals(repacked, new LibraryRepacker(directory, Collections.emptyList()).repack(library));
+        Assertions.assertEquals(OLD_TIMESTAMP, repacked.lastModified());
+
+        // Different patterns
+        Assertions.assertEquals(repacked,
+                new LibraryRepacker(directory, Collections.singletonList("**/*.txt")).repack(library));
+        Assertions.assertNotEquals(OLD_TIMESTAMP, repacked.lastModified());
+        try (ZipFile zipFile = new ZipFile(repacked)) {
+            Assertions.assertEquals(ZipEntry.STORED, zipFile.getEntry("a/text.txt").getMethod());
+        }
+
+        // A modified library
+        Files.setLastModifiedTime(repacked.toPath(), FileTime.fromMillis(OLD_TIMESTAMP));
+        createJar(library.toPath(), "a/A.class", "a/text.txt", "b/B.class");
+        Assertions.assertEquals(repacked,
+                new LibraryRepacker(directory, Collections.singletonList("**/*.txt")).repack(library));
+        Assertions.assertNotEquals(OLD_TIMESTAMP, repacked.lastModified());
+        try (ZipFile zipFile = new ZipFile(repacked)) {
+            Assertions.assertNotNull(zipFile.getEntry("b/B.class"));
+        }
+        Assertions.assertEquals(Arrays.asList("library.jar", "library.jar.source"), list(directory.toPath()));
+    }
+
+    @Test
+    void sameFileName() throws IOException {
+        File first = createJar(testDir.resolve("first/library.jar"), "a/A.class");
+        File second = createJar(testDir.resolve("second/library.jar"), "b/B.class");
+        File directory = testDir.resolve("repacked").toFile();
+        LibraryRepacker repacker = new LibraryRepacker(directory, Collections.emptyList());
+        Assertions.assertEquals(new File(directory, "library.jar"), repacker.repack(first));
+        Assertions.assertEquals(new File(directory, "1-library.jar"), repacker.repack(second));
+        try (ZipFile zipFile = new ZipFile(new File(directory, "1-library.jar"))) {
+            Assertions.assertNotNull(zipFile.getEntry("b/B.class"));
+        }
+        repacker.deleteUnused();
+        Assertions.assertEquals(
+                Arrays.asList("1-library.jar", "1-library.jar.source", "library.jar", "library.jar.source"),
+                list(directory.toPath()));
+
+        // The second library is no longer used, its stamp is deleted together with it
+        repacker = new LibraryRepacker(directory, Collections.emptyList());
+        File repacked = repacker.repack(first);
+        Files.setLastModifiedTime(repacked.toPath(), FileTime.fromMillis(OLD_TIMESTAMP));
+        Assertions.assertEquals(new File(directory, "library.jar"), repacked);
+        repacker.deleteUnused();
+        Assertions.assertEquals(Arrays.asList("library.jar", "library.jar.source"), list(directory.toPath()));
+        Assertions.assertEquals(OLD_TIMESTAMP, repacked.lastModified());
+    }
+}
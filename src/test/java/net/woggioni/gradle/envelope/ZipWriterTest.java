@@ -0,0 +1,277 @@
+package net.woggioni.gradle.envelope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+public class ZipWriterTest {
+
+    private static final long TIMESTAMP = 1700000000000L;
+
+    @TempDir
+    Path testDir;
+
+    private static ZipWriter open(Path file) throws IOException {
+        return new ZipWriter(FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    private static ZipEntry stored(String name, byte[] content) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(TIMESTAMP);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        entry.setCrc(crc.getValue());
+        return entry;
+    }
+
+    private static void writeStored(ZipWriter zipWriter, String name, byte[] content, int alignment) throws IOException {
+        zipWriter.putNextEntry(stored(name, content), alignment);
+        zipWriter.write(content, 0, content.length);
+        zipWriter.closeEntry();
+    }
+
+    private static void writeDeflated(ZipWriter zipWriter, String name, EntryCompressor.CompressedEntry compressedEntry) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(TIMESTAMP);
+        compressedEntry.configure(entry);
+        zipWriter.putNextEntry(entry);
+        compressedEntry.writeTo(zipWriter, new byte[0x1000]);
+        zipWriter.closeEntry();
+        compressedEntry.close();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[0x1000];
+        while (true) {
+            int read = inputStream.read(buffer);
+            if (read < 0) break;
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Check the archive with {@link ZipFile}, {@link ZipInputStream} and the loader {@link net.woggioni.envelope.loader.JarFile}
+     */
+    private static void assertContent(Path file, Map<String, byte[]> expected) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            Assertions.assertEquals(expected.size(), zipFile.size());
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                ZipEntry zipEntry = zipFile.getEntry(entry.getKey());
+                Assertions.assertNotNull(zipEntry, entry.getKey());
+                Assertions.assertEquals(TIMESTAMP / 2000, zipEntry.getTime() / 2000);
+                try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+                    Assertions.assertArrayEquals(entry.getValue(), readAll(inputStream), entry.getKey());
+                }
+            }
+        }
+        try (ZipInputStream zipInputStream = new ZipInputStream(Files.newInputStream(file))) {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry zipEntry = zipInputStream.getNextEntry(); zipEntry != null; zipEntry = zipInputStream.getNextEntry()) {
+                names.add(zipEntry.getName());
+                Assertions.assertArrayEquals(expected.get(zipEntry.getName()), readAll(zipInputStream), zipEntry.getName());
+            }
+            Assertions.assertEquals(new ArrayList<>(expected.keySet()), names);
+        }
+        try (net.woggioni.envelope.loader.JarFile jarFile = new net.woggioni.envelope.loader.JarFile(file.toFile())) {
+            Assertions.assertEquals(expected.size(), jarFile.size());
+            List<String> names = new ArrayList<>();
+            for (Enumeration<java.util.jar.JarEntry> it = jarFile.entries(); it.hasMoreElements(); ) {
+                java.util.jar.JarEntry jarEntry = it.nextElement();
+                names.add(jarEntry.getName());
+                try (InputStream inputStream = jarFile.getInputStream(jarEntry)) {
+                    Assertions.assertArrayEquals(expected.get(jarEntry.getName()), readAll(inputStream), jarEntry.getName());
+                }
+            }
+            Assertions.assertEquals(new ArrayList<>(expected.keySet()), names);
+        }
+    }
+
+    @Test
+    void readBack() throws IOException, InterruptedException {
+        Random random = new Random(101325);
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("META-INF/", new byte[0]);
+        expected.put("stored.txt", "stored".getBytes(StandardCharsets.UTF_8));
+        byte[] aligned = new byte[0x3000];
+        random.nextBytes(aligned);
+        expected.put("aligned.bin", aligned);
+        expected.put("deflated.txt", new String(new char[0x10000]).replace('\0', 'x').getBytes(StandardCharsets.UTF_8));
+        expected.put("\u00e9\u20ac/\ud834\udd1e.txt", "utf-8".getBytes(StandardCharsets.UTF_8));
+        Path source = Files.write(testDir.resolve("source.bin"), aligned);
+
+        Path file = testDir.resolve("test.zip");
+        try (ZipWriter zipWriter = open(file);
+             EntryCompressor compressor = new EntryCompressor(1, Deflater.BEST_COMPRESSION, testDir.toFile())) {
+            writeStored(zipWriter, "META-INF/", new byte[0], 0);
+            writeStored(zipWriter, "stored.txt", expected.get("stored.txt"), 0);
+            ZipEntry alignedEntry = stored("aligned.bin", aligned);
+            zipWriter.putNextEntry(alignedEntry, 0x1000);
+            // The data of the aligned entry starts at a multiple of the alignment
+            Assertions.assertEquals(0, zipWriter.getPosition() % 0x1000);
+            zipWriter.transferFrom(source.toFile(), 0, aligned.length);
+            zipWriter.closeEntry();
+            Future<EntryCompressor.CompressedEntry> deflated = compressor.submit(
+                    Files.write(testDir.resolve("deflated.txt"), expected.get("deflated.txt")).toFile());
+            writeDeflated(zipWriter, "deflated.txt", EntryCompressor.get(deflated));
+            writeStored(zipWriter, "\u00e9\u20ac/\ud834\udd1e.txt", expected.get("\u00e9\u20ac/\ud834\udd1e.txt"), 0);
+        }
+        assertContent(file, expected);
+    }
+
+    @Test
+    void zip64EntryCount() throws IOException {
+        // More entries than the end of central directory record can count
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 0x10000 + 10; i++) {
+            expected.put(String.format("entries/%06d.txt", i), Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+        }
+        Path file = testDir.resolve("test.zip");
+        try (ZipWriter zipWriter = open(file)) {
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                writeStored(zipWriter, entry.getKey(), entry.getValue(), 0);
+            }
+        }
+        assertContent(file, expected);
+    }
+
+    @Test
+    void zip64EntrySize() throws IOException {
+        // An entry bigger than 4 GiB, taken from a sparse file
+        long size = 0x100000000L + 0x1000;
+        Path source = testDir.resolve("source.bin");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(source.toFile(), "rw")) {
+            randomAccessFile.seek(size - 1);
+            randomAccessFile.write(42);
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream inputStream = Files.newInputStream(source)) {
+            byte[] buffer = new byte[0x100000];
+            while (true) {
+                int read = inputStream.read(buffer);
+                if (read < 0) break;
+                crc.update(buffer, 0, read);
+            }
+        }
+        byte[] last = "last".getBytes(StandardCharsets.UTF_8);
+        Path file = testDir.resolve("test.zip");
+        try (ZipWriter zipWriter = open(file)) {
+            ZipEntry entry = new ZipEntry("big.bin");
+            entry.setTime(TIMESTAMP);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc.getValue());
+            zipWriter.putNextEntry(entry);
+            zipWriter.transferFrom(source.toFile(), 0, size);
+            zipWriter.closeEntry();
+            // The local header of this entry is beyond 4 GiB
+            writeStored(zipWriter, "last.txt", last, 0);
+        }
+        try {
+            try (ZipFile zipFile = new ZipFile(file.toFile())) {
+                Assertions.assertEquals(size, zipFile.getEntry("big.bin").getSize());
+                Assertions.assertEquals(crc.getValue(), zipFile.getEntry("big.bin").getCrc());
+                try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry("last.txt"))) {
+                    Assertions.assertArrayEquals(last, readAll(inputStream));
+                }
+            }
+            try (ZipInputStream zipInputStream = new ZipInputStream(Files.newInputStream(file))) {
+                ZipEntry entry = zipInputStream.getNextEntry();
+                Assertions.assertEquals("big.bin", entry.getName());
+                // Reading the whole entry checks its size and CRC-32
+                byte[] buffer = new byte[0x100000];
+                long read = 0;
+                while (true) {
+                    int count = zipInputStream.read(buffer);
+                    if (count < 0) break;
+                    read += count;
+                }
+                Assertions.assertEquals(size, read);
+                entry = zipInputStream.getNextEntry();
+                Assertions.assertEquals("last.txt", entry.getName());
+                Assertions.assertArrayEquals(last, readAll(zipInputStream));
+                Assertions.assertNull(zipInputStream.getNextEntry());
+            }
+            // The loader does not read entry sizes from the Zip64 extra field, but finds entries beyond 4 GiB
+            try (net.woggioni.envelope.loader.JarFile jarFile = new net.woggioni.envelope.loader.JarFile(file.toFile())) {
+                Assertions.assertEquals(2, jarFile.size());
+                try (InputStream inputStream = jarFile.getInputStream(jarFile.getEntry("last.txt"))) {
+                    Assertions.assertArrayEquals(last, readAll(inputStream));
+                }
+            }
+        } finally {
+            Files.delete(file);
+            Files.delete(source);
+        }
+    }
+
+    /**
+     * Write the same entries as the task does, compressing them ahead of the writer and writing them in order
+     */
+    private byte[] writeEntries(List<File> files, int threads) throws IOException, InterruptedException {
+        Path file = testDir.resolve("threads-" + threads + ".zip");
+        try (ZipWriter zipWriter = open(file);
+             EntryCompressor compressor = new EntryCompressor(threads, Deflater.BEST_COMPRESSION, testDir.toFile())) {
+            List<Future<EntryCompressor.CompressedEntry>> futures = new ArrayList<>();
+            for (File input : files) {
+                futures.add(compressor.submit(input));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                writeDeflated(zipWriter, files.get(i).getName(), EntryCompressor.get(futures.get(i)));
+            }
+        }
+        return Files.readAllBytes(file);
+    }
+
+    @Test
+    void sameOutputWithAnyNumberOfThreads() throws IOException, InterruptedException {
+        Random random = new Random(101325);
+        List<File> files = new ArrayList<>();
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 40; i++) {
+            // Half random, half repeated bytes, some of them big enough to be spilled to disk
+            int size = i % 10 == 0 ? 0x180000 : random.nextInt(0x10000);
+            byte[] content = new byte[size];
+            random.nextBytes(content);
+            for (int j = size / 2; j < size; j++) {
+                content[j] = (byte) (j % 7);
+            }
+            String name = String.format("entry-%02d.bin", i);
+            expected.put(name, content);
+            files.add(Files.write(testDir.resolve(name), content).toFile());
+        }
+        byte[] single = writeEntries(files, 1);
+        Assertions.assertArrayEquals(single, writeEntries(files, 4));
+        Assertions.assertArrayEquals(single, writeEntries(files, 16));
+        assertContent(testDir.resolve("threads-1.zip"), expected);
+    }
+}
@@ -18,6 +18,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.Buffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -87,13 +88,15 @@ public class EnvelopePluginTest {
 //        }
 //    }
 
-    void invokeGradle(Path rootProjectDir, String... taskName) {
+    String invokeGradle(Path rootProjectDir, String... taskName) {
         GradleRunner runner = GradleRunner.create()
                 .withDebug(true)
                 .withProjectDir(rootProjectDir.toFile())
                 .withArguments(Arrays.concat(new String[]{"-s", "--info", "-g", testGradleHomeDir.toString()}, taskName))
                 .withPluginClasspath();
-        System.out.println(runner.build().getOutput());
+        String output = runner.build().getOutput();
+        System.out.println(output);
+        return output;
     }
 
     private Path testDir;
@@ -129,4 +132,28 @@ public class EnvelopePluginTest {
         invokeGradle(testDir.resolve("test-project"), ":jpms-executable:envelopeRun");
     }
 
+    @Test
+    @SneakyThrows
+    void incrementalTest() {
+        Path projectDir = testDir.resolve("test-project");
+        Path envelopeJar = projectDir.resolve("incremental-executable/build/libs/envelope.jar");
+        String output = invokeGradle(projectDir, ":incremental-executable:envelopeJar");
+        Assertions.assertFalse(output.contains("from the previous archive"), "The first build has no previous archive");
+
+        // Only one library changes, the other ones are copied from the previous archive
+        Path source = projectDir.resolve("incremental-library-b/src/main/java/envelope/test/incremental/b/B.java");
+        String content = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+        Files.write(source, content.replace("\"B\"", "\"B2\"").getBytes(StandardCharsets.UTF_8));
+        output = invokeGradle(projectDir, ":incremental-executable:envelopeRun");
+        Assertions.assertTrue(output.contains("Libraries: A, B2"), "Unexpected output of the incremental build");
+        Assertions.assertTrue(output.contains("Reusing 'LIB-INF/incremental-library-a.jar' from the previous archive"),
+                "The unchanged library has not been reused");
+        Assertions.assertFalse(output.contains("Reusing 'LIB-INF/incremental-library-b.jar'"),
+                "The changed library has been reused");
+        byte[] incremental = Files.readAllBytes(envelopeJar);
+
+        invokeGradle(projectDir, "-Pfull", ":incremental-executable:envelopeJar", "--rerun");
+        Assertions.assertArrayEquals(Files.readAllBytes(envelopeJar), incremental);
+    }
+
 }
@@ -0,0 +1,10 @@
+package envelope.test.incremental;
+
+import envelope.test.incremental.a.A;
+import envelope.test.incremental.b.B;
+
+public class Main {
+    public static void main(String[] args) {
+        System.out.println("Libraries: " + A.message() + ", " + B.message());
+    }
+}
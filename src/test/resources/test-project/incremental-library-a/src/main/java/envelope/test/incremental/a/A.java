@@ -0,0 +1,7 @@
+package envelope.test.incremental.a;
+
+public class A {
+    public static String message() {
+        return "A";
+    }
+}
@@ -0,0 +1,7 @@
+package envelope.test.incremental.b;
+
+public class B {
+    public static String message() {
+        return "B";
+    }
+}